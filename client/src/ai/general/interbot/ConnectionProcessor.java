@@ -226,6 +226,7 @@ public abstract class ConnectionProcessor extends Processor<WebSocketEvent> {
   protected void process(WebSocketEvent event) {
     switch (event.getEventType()) {
       case TextMessage: connection_.process(event.getTextMessage()); break;
+      case BinaryMessage: connection_.process(event.getBinaryMessage()); break;
       case Close:
       case Error: {
         synchronized (this) {
@@ -7,6 +7,7 @@ package ai.general.interbot;
 
 import ai.general.event.Processor;
 import ai.general.net.wamp.WampConnection;
+import ai.general.net.wamp.WampEncoding;
 
 /**
  * Processes the WAMP connection handshake.
@@ -21,6 +22,9 @@ import ai.general.net.wamp.WampConnection;
  *
  * Callers can check whether the handshake was succesfully processed via the connection result
  * returned by {@link #getResult()}.
+ *
+ * Once the WebSocket is open, the encoding of the WAMP connection is set according to the
+ * negotiated WebSocket subprotocol.
  */
 public class WampHandshakeProcessor extends Processor<WebSocketEvent> {
 
@@ -87,7 +91,9 @@ public class WampHandshakeProcessor extends Processor<WebSocketEvent> {
         }
         halt();
         break;
-      case Open: break;
+      case Open:
+        connection_.setEncoding(WampEncoding.fromSubprotocol(socket_.getSubprotocol()));
+        break;
       case TextMessage:
         connection_.process(event.getTextMessage());
         if (connection_.isReady()) {
@@ -95,8 +101,15 @@ public class WampHandshakeProcessor extends Processor<WebSocketEvent> {
         }
         halt();
         break;
+      case BinaryMessage:
+        connection_.process(event.getBinaryMessage());
+        if (connection_.isReady()) {
+          result_ = ConnectionResult.Success;
+        }
+        halt();
+        break;
     default:
-      // Error events and binary messages are interpreted as connection errors.
+      // Error events are interpreted as connection errors.
       if (result_ == ConnectionResult.Incomplete) {
         result_ = ConnectionResult.ConnectionError;
       }
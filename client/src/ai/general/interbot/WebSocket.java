@@ -38,9 +38,12 @@ import org.apache.logging.log4j.LogManager;
  * {@link Processor} instances can register themselves with WebSocket to receive incoming text or
  * binary data.
  *
+ * WebSocket offers the "wamp.smile" and "wamp" subprotocols in this order of preference. The
+ * subprotocol selected by the server can be obtained via {@link #getSubprotocol()}.
+ *
  * WebSocket is thread-safe.
  */
-@ClientEndpoint(subprotocols="wamp")
+@ClientEndpoint(subprotocols={"wamp.smile", "wamp"})
 public class WebSocket implements OutputSender {
 
   /** Timeout to open a WebSocket in milliseconds. */
@@ -71,6 +74,16 @@ public class WebSocket implements OutputSender {
     }
   }
 
+  /**
+   * Returns the subprotocol negotiated with the server.
+   *
+   * @return The negotiated subprotocol or null if the WebSocket is not open.
+   */
+  public String getSubprotocol() {
+    Session session = session_;
+    return session != null ? session.getNegotiatedSubprotocol() : null;
+  }
+
   /**
    * Returns the server endpoint URI to which this WebSocket is connected.
    *
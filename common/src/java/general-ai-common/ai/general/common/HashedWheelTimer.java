@@ -0,0 +1,285 @@
+/* General AI - Common
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Approximate timer for large numbers of timeouts that are usually cancelled before they expire.
+ *
+ * HashedWheelTimer keeps timeouts in a wheel of buckets. A single daemon thread advances the
+ * wheel by one bucket per tick and runs the timeouts in the current bucket that have expired.
+ * Scheduling and cancelling a timeout take constant time and do not require a lock. Cancelled
+ * timeouts are removed when the wheel reaches their bucket.
+ *
+ * Timeouts are run approximately one tick after they expire. The timer thread passes expired
+ * tasks to a task executor, so that tasks do not delay the wheel. By default, the task executor
+ * is a single daemon thread that is started on demand. Tasks should still complete quickly,
+ * since they delay the tasks of other timeouts that expire at the same time. Exceptions and
+ * errors thrown by a task do not stop the timer.
+ *
+ * The timer thread is started when the first timeout is scheduled. Components that do not need a
+ * finer resolution should use the shared {@link #Instance} rather than starting another timer
+ * thread.
+ *
+ * HashedWheelTimer is thread-safe.
+ */
+public class HashedWheelTimer {
+
+  /** Shared timer with a tick duration of 100 milliseconds for network timeouts. */
+  public static final HashedWheelTimer Instance = new HashedWheelTimer("timer", 100, 512);
+
+  // Seconds after which an idle default task thread terminates.
+  private static final long kTaskThreadKeepAliveSeconds = 60;
+
+  /**
+   * Represents a scheduled task.
+   */
+  public static class Timeout {
+
+    /**
+     * @param task The task to run on expiry.
+     * @param deadline_millis The time at which the task expires.
+     */
+    private Timeout(Runnable task, long deadline_millis) {
+      this.task_ = task;
+      this.deadline_millis_ = deadline_millis;
+      rounds_ = 0;
+      cancelled_ = false;
+      expired_ = false;
+    }
+
+    /**
+     * Cancels the timeout. The task will not be run unless it has already been run.
+     */
+    public void cancel() {
+      cancelled_ = true;
+    }
+
+    /**
+     * Whether the timeout has been cancelled.
+     *
+     * @return True if the timeout has been cancelled.
+     */
+    public boolean isCancelled() {
+      return cancelled_;
+    }
+
+    /**
+     * Whether the task has been run.
+     *
+     * @return True if the timeout has expired.
+     */
+    public boolean isExpired() {
+      return expired_;
+    }
+
+    private volatile boolean cancelled_;  // True if cancelled.
+    private long deadline_millis_;  // Expiry time.
+    private volatile boolean expired_;  // True if the task has been run.
+    private long rounds_;  // Remaining wheel rotations before expiry.
+    private Runnable task_;  // Task to run on expiry.
+  }
+
+  /**
+   * Creates a timer with the specified tick duration and number of buckets. Expired tasks are
+   * run by a single daemon thread.
+   *
+   * @param name Name of the timer thread.
+   * @param tick_millis Duration of a tick in milliseconds.
+   * @param wheel_size Number of buckets in the wheel.
+   */
+  public HashedWheelTimer(String name, long tick_millis, int wheel_size) {
+    this(name, tick_millis, wheel_size, createTaskExecutor(name + "-tasks"));
+  }
+
+  /**
+   * Creates a timer with the specified tick duration and number of buckets whose expired tasks
+   * are run by the specified executor.
+   *
+   * @param name Name of the timer thread.
+   * @param tick_millis Duration of a tick in milliseconds.
+   * @param wheel_size Number of buckets in the wheel.
+   * @param executor Executor that runs expired tasks.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public HashedWheelTimer(String name, long tick_millis, int wheel_size, Executor executor) {
+    this.name_ = name;
+    this.tick_millis_ = tick_millis;
+    this.executor_ = executor;
+    wheel_ = new ArrayList[wheel_size];
+    for (int i = 0; i < wheel_size; i++) {
+      wheel_[i] = new ArrayList<Timeout>();
+    }
+    new_timeouts_ = new ConcurrentLinkedQueue<Timeout>();
+    thread_ = null;
+    start_millis_ = 0;
+    tick_ = 0;
+  }
+
+  /**
+   * Returns the duration of a tick in milliseconds.
+   *
+   * @return The tick duration in milliseconds.
+   */
+  public long getTickMillis() {
+    return tick_millis_;
+  }
+
+  /**
+   * Schedules a task to run after the specified delay.
+   *
+   * @param task The task to run.
+   * @param delay_millis The delay in milliseconds.
+   * @return The scheduled timeout, which can be used to cancel the task.
+   */
+  public Timeout schedule(Runnable task, long delay_millis) {
+    if (thread_ == null) {
+      start();
+    }
+    Timeout timeout = new Timeout(task, System.currentTimeMillis() + delay_millis);
+    new_timeouts_.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Creates the default task executor, which runs tasks in a single daemon thread that
+   * terminates when it is idle.
+   *
+   * @param name Name of the task thread.
+   * @return The task executor.
+   */
+  private static Executor createTaskExecutor(final String name) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        1, 1, kTaskThreadKeepAliveSeconds, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Moves newly scheduled timeouts into their buckets.
+   * Called by the timer thread.
+   */
+  private void addNewTimeouts() {
+    Timeout timeout;
+    while ((timeout = new_timeouts_.poll()) != null) {
+      if (timeout.cancelled_) {
+        continue;
+      }
+      long deadline_tick = (timeout.deadline_millis_ - start_millis_) / tick_millis_;
+      if (deadline_tick < tick_) {
+        deadline_tick = tick_;
+      }
+      timeout.rounds_ = (deadline_tick - tick_) / wheel_.length;
+      wheel_[(int) (deadline_tick % wheel_.length)].add(timeout);
+    }
+  }
+
+  /**
+   * Passes the expired timeouts in the specified bucket to the task executor and removes
+   * cancelled timeouts. Called by the timer thread.
+   *
+   * @param bucket The bucket to process.
+   */
+  private void expire(ArrayList<Timeout> bucket) {
+    Iterator<Timeout> iterator = bucket.iterator();
+    while (iterator.hasNext()) {
+      Timeout timeout = iterator.next();
+      if (timeout.cancelled_) {
+        iterator.remove();
+      } else if (timeout.rounds_ <= 0) {
+        iterator.remove();
+        timeout.expired_ = true;
+        final Runnable task = timeout.task_;
+        try {
+          executor_.execute(new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  task.run();
+                } catch (RuntimeException e) {
+                  log.catching(Level.WARN, e);
+                }
+              }
+            });
+        } catch (Throwable e) {
+          // A failing task or executor must not stop the timer.
+          log.catching(Level.WARN, e);
+        }
+      } else {
+        timeout.rounds_--;
+      }
+    }
+  }
+
+  /**
+   * Main loop of the timer thread.
+   */
+  private void run() {
+    while (true) {
+      long next_tick_millis = start_millis_ + (tick_ + 1) * tick_millis_;
+      long sleep_millis = next_tick_millis - System.currentTimeMillis();
+      if (sleep_millis > 0) {
+        try {
+          Thread.sleep(sleep_millis);
+        } catch (InterruptedException e) {}
+        continue;
+      }
+      addNewTimeouts();
+      expire(wheel_[(int) (tick_ % wheel_.length)]);
+      tick_++;
+    }
+  }
+
+  /**
+   * Starts the timer thread if it has not been started.
+   */
+  private synchronized void start() {
+    if (thread_ != null) {
+      return;
+    }
+    start_millis_ = System.currentTimeMillis();
+    thread_ = new Thread(name_) {
+        @Override
+        public void run() {
+          HashedWheelTimer.this.run();
+        }
+      };
+    thread_.setDaemon(true);
+    thread_.start();
+  }
+
+  private static Logger log = LogManager.getLogger();
+
+  private Executor executor_;  // Runs expired tasks.
+  private String name_;  // Name of the timer thread.
+  private ConcurrentLinkedQueue<Timeout> new_timeouts_;  // Timeouts not yet in the wheel.
+  private long start_millis_;  // Start time of the timer thread.
+  private volatile Thread thread_;  // Timer thread.
+  private long tick_;  // Current tick, only accessed by the timer thread.
+  private long tick_millis_;  // Duration of a tick.
+  private ArrayList<Timeout>[] wheel_;  // Buckets of the wheel.
+}
@@ -0,0 +1,52 @@
+/* General AI - Common
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map with a bounded number of entries that evicts the least recently used entry when the
+ * maximum size is exceeded.
+ *
+ * LruCache is not thread-safe. Callers that share an LruCache between threads must synchronize
+ * access to the cache. Note that {@link #get(Object)} modifies the access order of the cache.
+ */
+public class LruCache<K, V> extends LinkedHashMap<K, V> {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates an empty cache that holds up to max_size entries.
+   *
+   * @param max_size The maximum number of entries in the cache.
+   */
+  public LruCache(int max_size) {
+    super(16, 0.75f, true);
+    this.max_size_ = max_size;
+  }
+
+  /**
+   * Returns the maximum number of entries in the cache.
+   *
+   * @return The maximum number of entries.
+   */
+  public int getMaxSize() {
+    return max_size_;
+  }
+
+  /**
+   * Evicts the least recently used entry if the cache exceeds its maximum size.
+   *
+   * @param eldest The least recently used entry.
+   * @return True if the eldest entry is to be removed.
+   */
+  @Override
+  protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+    return size() > max_size_;
+  }
+
+  private int max_size_;  // Maximum number of entries.
+}
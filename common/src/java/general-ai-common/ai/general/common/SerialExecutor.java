@@ -0,0 +1,186 @@
+/* General AI - Common
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.common;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An executor that runs tasks one at a time in the order in which they were submitted.
+ *
+ * SerialExecutor does not own any threads. Tasks are run by an underlying executor, which may be
+ * shared by many SerialExecutors. Thus, a pool of threads can run tasks for many serial queues
+ * concurrently, while the tasks of each queue run in FIFO order and never concurrently with each
+ * other. Queued tasks are run by a single task of the underlying executor, which runs until the
+ * queue is empty.
+ *
+ * A task that throws an exception does not stop subsequent tasks from running. If the
+ * underlying executor rejects a task, e.g. because it has been shut down or its queue is full,
+ * the submitted task is run by the thread that submitted it. Tasks submitted by other threads in
+ * the meantime are passed to the underlying executor again once the task has completed. If the
+ * underlying executor still rejects them, they remain queued and run before the next submitted
+ * task.
+ *
+ * SerialExecutor is thread-safe.
+ */
+public class SerialExecutor implements Executor {
+
+  /**
+   * Creates a SerialExecutor that runs its tasks with the specified executor.
+   *
+   * @param executor The executor which runs the tasks.
+   */
+  public SerialExecutor(Executor executor) {
+    this.executor_ = executor;
+    tasks_ = new ArrayDeque<Runnable>();
+    num_pending_tasks_ = 0;
+    running_ = false;
+    drainer_ = new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      };
+  }
+
+  /**
+   * Queues the specified task. The task is run after all previously queued tasks have completed.
+   *
+   * @param task The task to run.
+   */
+  @Override
+  public void execute(Runnable task) {
+    int num_inline_tasks;
+    synchronized (this) {
+      tasks_.offer(task);
+      num_pending_tasks_++;
+      if (running_) {
+        return;
+      }
+      running_ = true;
+      num_inline_tasks = tasks_.size();
+    }
+    if (!schedule()) {
+      runInline(num_inline_tasks);
+    }
+  }
+
+  /**
+   * Returns the executor which runs the tasks.
+   *
+   * @return The underlying executor.
+   */
+  public Executor getExecutor() {
+    return executor_;
+  }
+
+  /**
+   * Returns the number of queued tasks including the running task.
+   *
+   * @return The number of tasks that have not completed.
+   */
+  public synchronized int numPendingTasks() {
+    return num_pending_tasks_;
+  }
+
+  /**
+   * Runs queued tasks until the queue is empty.
+   * If a task throws an exception, the remaining tasks are released before the exception is
+   * passed on.
+   */
+  private void drain() {
+    while (true) {
+      Runnable task;
+      synchronized (this) {
+        task = tasks_.poll();
+        if (task == null) {
+          running_ = false;
+          return;
+        }
+      }
+      boolean completed = false;
+      try {
+        task.run();
+        completed = true;
+      } finally {
+        synchronized (this) {
+          num_pending_tasks_--;
+        }
+        if (!completed) {
+          release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Passes the remaining queued tasks to the underlying executor or marks this SerialExecutor
+   * as idle if there are none. If the underlying executor rejects the drainer, the tasks remain
+   * queued and are run when the next task is submitted.
+   */
+  private void release() {
+    synchronized (this) {
+      if (tasks_.isEmpty()) {
+        running_ = false;
+        return;
+      }
+    }
+    if (!schedule()) {
+      synchronized (this) {
+        running_ = false;
+      }
+    }
+  }
+
+  /**
+   * Runs the specified number of queued tasks in the current thread and then releases the
+   * remaining tasks. This is used when the underlying executor has rejected the drainer. The
+   * submitted task is the last of these tasks. Any tasks before it are tasks that remained
+   * queued after an earlier rejection and must run first to preserve the order.
+   *
+   * @param num_tasks The number of tasks to run.
+   */
+  private void runInline(int num_tasks) {
+    try {
+      for (int i = 0; i < num_tasks; i++) {
+        Runnable task;
+        synchronized (this) {
+          task = tasks_.poll();
+        }
+        try {
+          task.run();
+        } finally {
+          synchronized (this) {
+            num_pending_tasks_--;
+          }
+        }
+      }
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Passes the drainer to the underlying executor.
+   *
+   * @return False if the underlying executor has rejected the drainer.
+   */
+  private boolean schedule() {
+    try {
+      executor_.execute(drainer_);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  private Runnable drainer_;  // Runs queued tasks.
+  private Executor executor_;  // Runs the drainer.
+  private int num_pending_tasks_;  // Number of tasks that have not completed.
+  private boolean running_;  // True if the drainer has been scheduled or is running.
+  private ArrayDeque<Runnable> tasks_;  // Queued tasks.
+}
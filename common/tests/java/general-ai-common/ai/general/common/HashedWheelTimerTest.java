@@ -0,0 +1,121 @@
+/* General AI - Common
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link HashedWheelTimer} class.
+ */
+public class HashedWheelTimerTest {
+
+  /**
+   * Task that counts how often it has been run.
+   */
+  private static class CountingTask implements Runnable {
+
+    public CountingTask() {
+      count_ = new AtomicInteger();
+    }
+
+    /**
+     * Returns how often the task has been run.
+     *
+     * @return The number of runs.
+     */
+    public int getCount() {
+      return count_.get();
+    }
+
+    /**
+     * Increments the run count.
+     */
+    @Override
+    public void run() {
+      count_.incrementAndGet();
+    }
+
+    private AtomicInteger count_;  // Number of runs.
+  }
+
+  /**
+   * Tests expiry and cancellation of timeouts, including timeouts that take more than one
+   * rotation of the wheel.
+   */
+  @Test
+  public void expiry() throws InterruptedException {
+    HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 8);
+    CountingTask short_task = new CountingTask();
+    CountingTask long_task = new CountingTask();
+    CountingTask cancelled_task = new CountingTask();
+    HashedWheelTimer.Timeout short_timeout = timer.schedule(short_task, 10);
+    HashedWheelTimer.Timeout long_timeout = timer.schedule(long_task, 200);
+    HashedWheelTimer.Timeout cancelled_timeout = timer.schedule(cancelled_task, 10);
+    cancelled_timeout.cancel();
+    Assert.assertTrue(cancelled_timeout.isCancelled());
+
+    Thread.sleep(100);
+    assertThat(short_task.getCount(), is(1));
+    Assert.assertTrue(short_timeout.isExpired());
+    assertThat(long_task.getCount(), is(0));
+    Assert.assertFalse(long_timeout.isExpired());
+
+    Thread.sleep(300);
+    assertThat(long_task.getCount(), is(1));
+    Assert.assertTrue(long_timeout.isExpired());
+    assertThat(cancelled_task.getCount(), is(0));
+    Assert.assertFalse(cancelled_timeout.isExpired());
+  }
+
+  /**
+   * Tests that tasks are run off the timer thread and that failing tasks do not stop the timer,
+   * even if they are run by the timer thread.
+   */
+  @Test
+  public void failingTasks() throws InterruptedException {
+    Runnable failing_task = new Runnable() {
+        @Override
+        public void run() {
+          throw new Error("task failed");
+        }
+      };
+    Executor direct_executor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+          task.run();
+        }
+      };
+    HashedWheelTimer direct_timer = new HashedWheelTimer("test-direct", 5, 8, direct_executor);
+    CountingTask direct_task = new CountingTask();
+    direct_timer.schedule(failing_task, 10);
+    direct_timer.schedule(direct_task, 50);
+
+    HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 8);
+    final AtomicReference<String> thread_name = new AtomicReference<String>();
+    timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          thread_name.set(Thread.currentThread().getName());
+          throw new IllegalStateException("task failed");
+        }
+      }, 10);
+    timer.schedule(failing_task, 10);
+    CountingTask task = new CountingTask();
+    timer.schedule(task, 50);
+
+    Thread.sleep(200);
+    assertThat(direct_task.getCount(), is(1));
+    assertThat(task.getCount(), is(1));
+    assertThat(thread_name.get(), is("test-timer-tasks"));
+  }
+}
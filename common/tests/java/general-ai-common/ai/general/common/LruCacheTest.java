@@ -0,0 +1,40 @@
+/* General AI - Common
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link LruCache} class.
+ */
+public class LruCacheTest {
+
+  /**
+   * Tests eviction of least recently used entries.
+   */
+  @Test
+  public void eviction() {
+    LruCache<String, Integer> cache = new LruCache<String, Integer>(3);
+    assertThat(cache.getMaxSize(), is(3));
+    cache.put("one", 1);
+    cache.put("two", 2);
+    cache.put("three", 3);
+    assertThat(cache.size(), is(3));
+    assertThat(cache.get("one"), is(1));
+    cache.put("four", 4);
+    assertThat(cache.size(), is(3));
+    Assert.assertFalse(cache.containsKey("two"));
+    Assert.assertTrue(cache.containsKey("one"));
+    Assert.assertTrue(cache.containsKey("three"));
+    Assert.assertTrue(cache.containsKey("four"));
+    cache.put("five", 5);
+    Assert.assertFalse(cache.containsKey("three"));
+    assertThat(cache.size(), is(3));
+  }
+}
@@ -0,0 +1,201 @@
+/* General AI - Common
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link SerialExecutor} class.
+ */
+public class SerialExecutorTest {
+
+  // Sequence number of the task that throws an exception.
+  private static final int kFailingTask = 500;
+
+  /**
+   * Task that records its sequence number and checks that no other task of the same serial
+   * executor runs concurrently.
+   */
+  private static class SequenceTask implements Runnable {
+
+    /**
+     * Creates a task with the specified sequence number.
+     *
+     * @param sequence_number The sequence number recorded by the task.
+     * @param sequence List into which the sequence number is recorded.
+     * @param running Number of running tasks of the same serial executor.
+     * @param overlaps Number of times a task ran concurrently with another task.
+     */
+    public SequenceTask(int sequence_number, List<Integer> sequence, AtomicInteger running,
+                        AtomicInteger overlaps) {
+      this.sequence_number_ = sequence_number;
+      this.sequence_ = sequence;
+      this.running_ = running;
+      this.overlaps_ = overlaps;
+    }
+
+    /**
+     * Records the sequence number.
+     */
+    @Override
+    public void run() {
+      if (running_.incrementAndGet() > 1) {
+        overlaps_.incrementAndGet();
+      }
+      sequence_.add(sequence_number_);
+      running_.decrementAndGet();
+      if (sequence_number_ == kFailingTask) {
+        throw new RuntimeException("test exception");
+      }
+    }
+
+    private AtomicInteger overlaps_;  // Number of concurrent runs.
+    private AtomicInteger running_;  // Number of running tasks.
+    private List<Integer> sequence_;  // Recorded sequence numbers.
+    private int sequence_number_;  // Sequence number of this task.
+  }
+
+  /**
+   * Executor that queues tasks until they are run manually or rejects them.
+   */
+  private static class ManualExecutor implements Executor {
+
+    /**
+     * Creates a ManualExecutor that accepts tasks.
+     */
+    public ManualExecutor() {
+      tasks_ = new ArrayList<Runnable>();
+      reject_ = false;
+    }
+
+    /**
+     * Queues or rejects the task.
+     *
+     * @param task The task to run.
+     */
+    @Override
+    public void execute(Runnable task) {
+      if (reject_) {
+        throw new RejectedExecutionException();
+      }
+      tasks_.add(task);
+    }
+
+    /**
+     * Runs all queued tasks in the current thread.
+     */
+    public void runAll() {
+      while (!tasks_.isEmpty()) {
+        tasks_.remove(0).run();
+      }
+    }
+
+    /**
+     * Sets whether tasks are rejected.
+     *
+     * @param reject True if tasks should be rejected.
+     */
+    public void setReject(boolean reject) {
+      this.reject_ = reject;
+    }
+
+    private boolean reject_;  // If true, tasks are rejected.
+    private ArrayList<Runnable> tasks_;  // Queued tasks.
+  }
+
+  /**
+   * Tests that only the submitted task is run by the submitting thread if the underlying
+   * executor rejects it, and that tasks queued in the meantime keep their order.
+   */
+  @Test
+  public void rejection() {
+    final ManualExecutor manual = new ManualExecutor();
+    final SerialExecutor executor = new SerialExecutor(manual);
+    final List<Integer> sequence = new ArrayList<Integer>();
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger overlaps = new AtomicInteger();
+    manual.setReject(true);
+    executor.execute(new SequenceTask(0, sequence, running, overlaps));
+    assertThat(sequence, is(Arrays.asList(0)));
+    assertThat(executor.numPendingTasks(), is(0));
+
+    // A task submitted while the rejected task runs is not run by the submitting thread.
+    executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          sequence.add(1);
+          executor.execute(new SequenceTask(2, sequence, running, overlaps));
+        }
+      });
+    assertThat(sequence, is(Arrays.asList(0, 1)));
+    assertThat(executor.numPendingTasks(), is(1));
+
+    // Queued tasks run before the next submitted task.
+    manual.setReject(false);
+    executor.execute(new SequenceTask(3, sequence, running, overlaps));
+    assertThat(sequence.size(), is(2));
+    manual.runAll();
+    assertThat(sequence, is(Arrays.asList(0, 1, 2, 3)));
+    assertThat(executor.numPendingTasks(), is(0));
+    assertThat(overlaps.get(), is(0));
+  }
+
+  /**
+   * Tests that tasks of multiple serial executors that share a thread pool run in FIFO order
+   * and one at a time per serial executor, even if some tasks throw exceptions.
+   */
+  @Test
+  public void order() throws InterruptedException {
+    final int num_executors = 4;
+    final int num_tasks = 1000;
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    ArrayList<List<Integer>> sequences = new ArrayList<List<Integer>>();
+    ArrayList<SerialExecutor> executors = new ArrayList<SerialExecutor>();
+    AtomicInteger overlaps = new AtomicInteger();
+    ArrayList<AtomicInteger> running = new ArrayList<AtomicInteger>();
+    for (int i = 0; i < num_executors; i++) {
+      sequences.add(Collections.synchronizedList(new ArrayList<Integer>()));
+      executors.add(new SerialExecutor(pool));
+      running.add(new AtomicInteger());
+    }
+    for (int task = 0; task < num_tasks; task++) {
+      for (int i = 0; i < num_executors; i++) {
+        executors.get(i).execute(
+            new SequenceTask(task, sequences.get(i), running.get(i), overlaps));
+      }
+    }
+    long deadline_millis = System.currentTimeMillis() + 10000;
+    for (SerialExecutor executor : executors) {
+      while (executor.numPendingTasks() > 0 && System.currentTimeMillis() < deadline_millis) {
+        Thread.sleep(5);
+      }
+      assertThat(executor.numPendingTasks(), is(0));
+    }
+    pool.shutdown();
+    Assert.assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+    assertThat(overlaps.get(), is(0));
+    for (List<Integer> sequence : sequences) {
+      assertThat(sequence.size(), is(num_tasks));
+      for (int task = 0; task < num_tasks; task++) {
+        assertThat(sequence.get(task), is(task));
+      }
+    }
+  }
+}
@@ -0,0 +1,500 @@
+/* General AI - Plugin Annotations
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.plugin.annotation;
+
+import ai.general.plugin.ServiceBinding;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@link ServiceBinding} for each class that declares or inherits {@link RpcMethod}
+ * or {@link Subscribe} methods.
+ *
+ * The generated binding adds the same handlers as the reflective scan of
+ * {@link ai.general.plugin.ServiceManager}: one handler per annotation of each public annotated
+ * method of the class or its super classes, with the same handler names. Instead of calling the
+ * service methods via reflection, the binding calls them directly with the converted arguments.
+ *
+ * No binding is generated for classes that cannot be bound at compile time, in which case the
+ * ServiceManager falls back to reflection. These are generic, abstract, private or local classes,
+ * classes with generic annotated methods, and classes whose annotated methods use type variables
+ * or types that are not accessible from the package of the class.
+ *
+ * The processor is packaged in the general-ai-intercom-processor library, which is separate from
+ * the intercom library, so that the processor only runs for sources that are compiled with the
+ * processor library on the processor path. The processor path must also include the intercom
+ * library.
+ */
+@SupportedAnnotationTypes({"ai.general.plugin.annotation.RpcMethod",
+                           "ai.general.plugin.annotation.Subscribe"})
+public class ServiceBindingProcessor extends AbstractProcessor {
+
+  // Modifiers included in Method.toString() in the order in which they are printed.
+  private static final Modifier[] kMethodModifiers = {
+    Modifier.PUBLIC, Modifier.PROTECTED, Modifier.PRIVATE, Modifier.ABSTRACT, Modifier.STATIC,
+    Modifier.FINAL, Modifier.SYNCHRONIZED, Modifier.NATIVE, Modifier.STRICTFP
+  };
+
+  /**
+   * Represents a handler that is added by a binding.
+   */
+  private static class ServiceMethod {
+
+    /**
+     * @param path The handler path specified by the annotation.
+     * @param request_type The name of the request type handled by the method.
+     * @param method The annotated method.
+     */
+    public ServiceMethod(String path, String request_type, ExecutableElement method) {
+      this.path_ = path;
+      this.request_type_ = request_type;
+      this.method_ = method;
+    }
+
+    private ExecutableElement method_;  // The annotated method.
+    private String path_;  // The handler path.
+    private String request_type_;  // The name of the request type.
+  }
+
+  /**
+   * Creates a ServiceBindingProcessor.
+   */
+  public ServiceBindingProcessor() {
+    generated_ = new HashSet<String>();
+  }
+
+  /**
+   * Supports all source versions, since the processor only inspects classes and methods.
+   *
+   * @return The latest supported source version.
+   */
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  /**
+   * Generates bindings for the classes that declare the annotated methods of this round.
+   *
+   * @param annotations The processed annotations.
+   * @param round_env The round environment.
+   * @return True, since the annotations are claimed by this processor.
+   */
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round_env) {
+    LinkedHashSet<TypeElement> service_classes = new LinkedHashSet<TypeElement>();
+    addEnclosingClasses(round_env.getElementsAnnotatedWith(Subscribe.class), service_classes);
+    addEnclosingClasses(round_env.getElementsAnnotatedWith(RpcMethod.class), service_classes);
+    // Subclasses of service classes inherit the annotated methods without declaring any.
+    addClasses(ElementFilter.typesIn(round_env.getRootElements()), service_classes);
+    for (TypeElement service_class : service_classes) {
+      String binding_name = getBindingName(service_class);
+      if (!generated_.add(binding_name)) {
+        continue;
+      }
+      List<ServiceMethod> service_methods = getServiceMethods(service_class);
+      if (service_methods == null) {
+        continue;
+      }
+      try {
+        writeBinding(service_class, binding_name, service_methods);
+      } catch (IOException e) {
+        processingEnv.getMessager().printMessage(
+            Diagnostic.Kind.WARNING,
+            "Cannot generate service binding " + binding_name + ": " + e.getMessage(),
+            service_class);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the specified classes and the classes nested in them to the specified set.
+   *
+   * @param types Types of this round.
+   * @param service_classes Set to which to add the classes.
+   */
+  private static void addClasses(Iterable<TypeElement> types,
+                                 Set<TypeElement> service_classes) {
+    for (TypeElement type : types) {
+      if (type.getKind() == ElementKind.CLASS) {
+        service_classes.add(type);
+      }
+      addClasses(ElementFilter.typesIn(type.getEnclosedElements()), service_classes);
+    }
+  }
+
+  /**
+   * Adds the classes that declare the specified methods to the specified set.
+   *
+   * @param methods Annotated methods.
+   * @param service_classes Set to which to add the classes.
+   */
+  private static void addEnclosingClasses(Set<? extends Element> methods,
+                                          Set<TypeElement> service_classes) {
+    for (Element method : methods) {
+      Element enclosing = method.getEnclosingElement();
+      if (enclosing.getKind() == ElementKind.CLASS) {
+        service_classes.add((TypeElement) enclosing);
+      }
+    }
+  }
+
+  /**
+   * Appends the Java string literal for the specified string.
+   *
+   * @param text The string.
+   * @param source Buffer to which to append the literal.
+   */
+  private static void appendLiteral(String text, StringBuilder source) {
+    source.append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '"': source.append("\\\""); break;
+        case '\\': source.append("\\\\"); break;
+        case '\n': source.append("\\n"); break;
+        case '\r': source.append("\\r"); break;
+        case '\t': source.append("\\t"); break;
+        default: source.append(c);
+      }
+    }
+    source.append('"');
+  }
+
+  /**
+   * Checks whether the specified type or one of its type arguments has type arguments.
+   *
+   * @param type The type to check.
+   * @return True if the type is parameterized.
+   */
+  private static boolean isParameterized(TypeMirror type) {
+    if (type.getKind() == TypeKind.ARRAY) {
+      return isParameterized(((ArrayType) type).getComponentType());
+    }
+    return type.getKind() == TypeKind.DECLARED &&
+      !((DeclaredType) type).getTypeArguments().isEmpty();
+  }
+
+  /**
+   * Returns the fully qualified name of the binding class of the specified service class.
+   *
+   * @param service_class The service class.
+   * @return The binding class name.
+   */
+  private String getBindingName(TypeElement service_class) {
+    String binary_name =
+      processingEnv.getElementUtils().getBinaryName(service_class).toString();
+    return binary_name.replace('$', '_') + ServiceBinding.kClassNameSuffix;
+  }
+
+  /**
+   * Returns the name of the erasure of the specified type as printed by Method.toString().
+   *
+   * @param type The type.
+   * @return The type name.
+   */
+  private String getErasedName(TypeMirror type) {
+    TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+    switch (erasure.getKind()) {
+      case ARRAY:
+        return getErasedName(((ArrayType) erasure).getComponentType()) + "[]";
+      case DECLARED:
+        return processingEnv.getElementUtils().getBinaryName(
+            (TypeElement) ((DeclaredType) erasure).asElement()).toString();
+      default:
+        return erasure.toString();
+    }
+  }
+
+  /**
+   * Returns the handler name of the specified method, which is the string returned by
+   * Method.toString() for the method.
+   *
+   * @param method The method.
+   * @return The method name in the format of Method.toString().
+   */
+  private String getMethodName(ExecutableElement method) {
+    StringBuilder name = new StringBuilder();
+    for (Modifier modifier : kMethodModifiers) {
+      if (method.getModifiers().contains(modifier)) {
+        name.append(modifier.toString()).append(' ');
+      }
+    }
+    name.append(getErasedName(method.getReturnType())).append(' ');
+    name.append(processingEnv.getElementUtils().getBinaryName(
+                    (TypeElement) method.getEnclosingElement()));
+    name.append('.').append(method.getSimpleName()).append('(');
+    List<? extends VariableElement> parameters = method.getParameters();
+    for (int i = 0; i < parameters.size(); i++) {
+      if (i > 0) {
+        name.append(',');
+      }
+      name.append(getErasedName(parameters.get(i).asType()));
+    }
+    name.append(')');
+    List<? extends TypeMirror> thrown_types = method.getThrownTypes();
+    for (int i = 0; i < thrown_types.size(); i++) {
+      name.append(i == 0 ? " throws " : ",");
+      name.append(getErasedName(thrown_types.get(i)));
+    }
+    return name.toString();
+  }
+
+  /**
+   * Returns the handlers added by the binding of the specified service class in the order in
+   * which they are added.
+   *
+   * @param service_class The service class.
+   * @return The service methods or null if no binding can be generated for the class.
+   */
+  private List<ServiceMethod> getServiceMethods(TypeElement service_class) {
+    Elements elements = processingEnv.getElementUtils();
+    PackageElement service_package = elements.getPackageOf(service_class);
+    if (!isAccessible(service_class, service_package) ||
+        !service_class.getTypeParameters().isEmpty() ||
+        service_class.getModifiers().contains(Modifier.ABSTRACT)) {
+      return null;
+    }
+    List<ExecutableElement> methods =
+      ElementFilter.methodsIn(elements.getAllMembers(service_class));
+    ArrayList<ServiceMethod> service_methods = new ArrayList<ServiceMethod>();
+    for (ExecutableElement method : methods) {
+      Subscribe subscription = method.getAnnotation(Subscribe.class);
+      RpcMethod rpc_declaration = method.getAnnotation(RpcMethod.class);
+      if (subscription == null && rpc_declaration == null) {
+        continue;
+      }
+      // Only public methods that are not overridden are found via reflection.
+      if (!method.getModifiers().contains(Modifier.PUBLIC) ||
+          isOverridden(method, methods, service_class)) {
+        continue;
+      }
+      if (method.getEnclosingElement().getKind() != ElementKind.CLASS ||
+          !method.getTypeParameters().isEmpty() ||
+          !isUsable(method.getReturnType(), service_package)) {
+        return null;
+      }
+      for (VariableElement parameter : method.getParameters()) {
+        if (!isUsable(parameter.asType(), service_package)) {
+          return null;
+        }
+      }
+      if (subscription != null) {
+        service_methods.add(new ServiceMethod(subscription.value(), "Publish", method));
+      }
+      if (rpc_declaration != null) {
+        service_methods.add(new ServiceMethod(rpc_declaration.value(), "Call", method));
+      }
+    }
+    return service_methods.isEmpty() ? null : service_methods;
+  }
+
+  /**
+   * Checks whether the specified type and its enclosing types can be referenced from the
+   * specified package.
+   *
+   * @param type The type to check.
+   * @param service_package The package of the generated binding.
+   * @return True if the type is accessible from the package.
+   */
+  private boolean isAccessible(TypeElement type, PackageElement service_package) {
+    Elements elements = processingEnv.getElementUtils();
+    Element element = type;
+    while (element instanceof TypeElement) {
+      TypeElement type_element = (TypeElement) element;
+      NestingKind nesting_kind = type_element.getNestingKind();
+      if (nesting_kind == NestingKind.LOCAL || nesting_kind == NestingKind.ANONYMOUS ||
+          type_element.getModifiers().contains(Modifier.PRIVATE)) {
+        return false;
+      }
+      if (!type_element.getModifiers().contains(Modifier.PUBLIC) &&
+          !elements.getPackageOf(type_element).equals(service_package)) {
+        return false;
+      }
+      element = type_element.getEnclosingElement();
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the specified method is overridden by another member of the service class.
+   *
+   * @param method The method to check.
+   * @param methods All methods of the service class.
+   * @param service_class The service class.
+   * @return True if another method overrides the specified method.
+   */
+  private boolean isOverridden(ExecutableElement method, List<ExecutableElement> methods,
+                               TypeElement service_class) {
+    Elements elements = processingEnv.getElementUtils();
+    for (ExecutableElement other : methods) {
+      if (other != method && elements.overrides(other, method, service_class)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the specified type can be used in the generated binding, i.e. the type does
+   * not contain type variables and all types it refers to are accessible.
+   *
+   * @param type The type to check.
+   * @param service_package The package of the generated binding.
+   * @return True if the type can be used in the binding.
+   */
+  private boolean isUsable(TypeMirror type, PackageElement service_package) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+      case BYTE:
+      case CHAR:
+      case DOUBLE:
+      case FLOAT:
+      case INT:
+      case LONG:
+      case SHORT:
+      case VOID:
+        return true;
+      case ARRAY:
+        return isUsable(((ArrayType) type).getComponentType(), service_package);
+      case DECLARED:
+        DeclaredType declared_type = (DeclaredType) type;
+        if (!isAccessible((TypeElement) declared_type.asElement(), service_package)) {
+          return false;
+        }
+        for (TypeMirror type_argument : declared_type.getTypeArguments()) {
+          if (!isUsable(type_argument, service_package)) {
+            return false;
+          }
+        }
+        return true;
+      case WILDCARD:
+        WildcardType wildcard_type = (WildcardType) type;
+        TypeMirror bound = wildcard_type.getExtendsBound() != null ?
+          wildcard_type.getExtendsBound() : wildcard_type.getSuperBound();
+        return bound == null || isUsable(bound, service_package);
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Generates the source of the binding class.
+   *
+   * @param service_class The service class.
+   * @param binding_name The fully qualified name of the binding class.
+   * @param service_methods The handlers added by the binding.
+   * @throws IOException if the source file cannot be written.
+   */
+  private void writeBinding(TypeElement service_class, String binding_name,
+                            List<ServiceMethod> service_methods) throws IOException {
+    Types types = processingEnv.getTypeUtils();
+    String service_type = service_class.getQualifiedName().toString();
+    int package_end = binding_name.lastIndexOf('.');
+    StringBuilder source = new StringBuilder();
+    source.append("/* Generated by ").append(getClass().getName()).append(". */\n\n");
+    if (package_end >= 0) {
+      source.append("package ").append(binding_name.substring(0, package_end)).append(";\n\n");
+    }
+    source.append("/**\n * Service binding for ").append(service_type).append(".\n */\n");
+    source.append("public final class ").append(binding_name.substring(package_end + 1));
+    source.append(" implements ai.general.plugin.ServiceBinding {\n\n");
+    source.append("  @Override\n");
+    source.append("  public void bind(ai.general.plugin.ServiceDefinition service_def,\n");
+    source.append("                   java.lang.Object service) {\n");
+    source.append("    final ").append(service_type).append(" target = (");
+    source.append(service_type).append(") service;\n");
+    for (ServiceMethod service_method : service_methods) {
+      ExecutableElement method = service_method.method_;
+      List<? extends VariableElement> parameters = method.getParameters();
+      source.append("    service_def.addHandler(\n        ");
+      appendLiteral(service_method.path_, source);
+      source.append(",\n        ai.general.directory.Request.RequestType.");
+      source.append(service_method.request_type_).append(",\n        ");
+      appendLiteral(getMethodName(method), source);
+      source.append(",\n        new java.lang.reflect.Type[] {");
+      for (int i = 0; i < parameters.size(); i++) {
+        TypeMirror type = parameters.get(i).asType();
+        source.append(i == 0 ? " " : ", ");
+        if (isParameterized(type)) {
+          source.append("new com.fasterxml.jackson.core.type.TypeReference<");
+          source.append(type.toString()).append(">() {}.getType()");
+        } else {
+          source.append(types.erasure(type).toString()).append(".class");
+        }
+      }
+      source.append(parameters.isEmpty() ? "},\n" : " },\n");
+      source.append("        new ai.general.net.MethodInvoker() {\n");
+      source.append("          @Override\n");
+      source.append("          @SuppressWarnings(\"unchecked\")\n");
+      source.append("          public java.lang.Object invoke(java.lang.Object[] arguments)\n");
+      source.append("            throws java.lang.Throwable {\n");
+      boolean returns_value = method.getReturnType().getKind() != TypeKind.VOID;
+      source.append(returns_value ? "            return " : "            ");
+      source.append(method.getModifiers().contains(Modifier.STATIC) ? service_type : "target");
+      source.append('.').append(method.getSimpleName()).append('(');
+      for (int i = 0; i < parameters.size(); i++) {
+        TypeMirror type = parameters.get(i).asType();
+        if (i > 0) {
+          source.append(", ");
+        }
+        source.append('(');
+        if (type.getKind().isPrimitive()) {
+          source.append(types.boxedClass((PrimitiveType) type).getQualifiedName());
+        } else {
+          source.append(type.toString());
+        }
+        source.append(") arguments[").append(i).append(']');
+      }
+      source.append(");\n");
+      if (!returns_value) {
+        source.append("            return null;\n");
+      }
+      source.append("          }\n");
+      source.append("        });\n");
+    }
+    source.append("  }\n}\n");
+    Writer writer =
+      processingEnv.getFiler().createSourceFile(binding_name, service_class).openWriter();
+    try {
+      writer.write(source.toString());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private Set<String> generated_;  // Names of the generated bindings.
+}
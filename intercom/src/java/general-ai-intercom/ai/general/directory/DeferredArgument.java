@@ -0,0 +1,32 @@
+/* General AI - Directory
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.directory;
+
+/**
+ * Represents a request argument that is decoded on demand.
+ *
+ * Request arguments received from a remote endpoint may be kept in their encoded form until a
+ * handler needs them. Handlers that know the expected type of an argument can access the
+ * DeferredArgument via {@link Request#getUndecodedArgument(int)} and decode it directly into
+ * the expected type.
+ *
+ * Handlers that access arguments via {@link Request#getArgument(int)} or
+ * {@link Request#getArguments()} transparently receive the generic value of a DeferredArgument.
+ *
+ * Implementations must be thread-safe.
+ */
+public interface DeferredArgument {
+
+  /**
+   * Returns the generic value of the argument. The generic value consists of maps, lists,
+   * strings, numbers, booleans and null.
+   *
+   * The generic value is decoded once and the same value is returned on subsequent calls.
+   *
+   * @return The generic value of the argument.
+   */
+  Object getValue();
+}
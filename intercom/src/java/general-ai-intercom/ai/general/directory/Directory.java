@@ -5,6 +5,10 @@
 
 package ai.general.directory;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -25,10 +29,50 @@ import org.apache.logging.log4j.LogManager;
  * is cleanly removed when the node is unlinked automatically removing any handlers that were
  * associated with the link.
  *
+ * Directory keeps an index of the paths that have been resolved via {@link #getNode(String)}, so
+ * that resolving a previously resolved path, such as the base path of a request, takes a single
+ * lookup instead of a walk from the root. Paths are indexed without trailing '/' characters and
+ * wildcards, so that variants of the same path share an entry. The index holds at most
+ * {@link #kMaxIndexedPaths} paths and is cleared when it is full. Mounting nodes does not change
+ * the node at any existing path, so the index remains valid. Each indexed path records the
+ * version of the index at which it was resolved. Unmounting a node increments the version, which
+ * invalidates all indexed paths without a pass over the index. Stale paths are resolved again on
+ * their next lookup.
+ *
+ * By default, handlers are run on the thread that handles the request. A publish executor can be
+ * set via {@link #setPublishExecutor(Executor)}, in which case publish requests are handled
+ * asynchronously. See {@link #handle(String, Request)}.
+ *
  * Directory is a singleton class.
  */
 public class Directory {
 
+  /**
+   * Maximum number of paths in the path index.
+   */
+  public static final int kMaxIndexedPaths = 4096;
+
+  /**
+   * Entry of the path index. Associates a resolved node with the version of the index at which
+   * it was resolved.
+   */
+  private static class PathIndexEntry {
+
+    /**
+     * Constructs an entry for the specified node.
+     *
+     * @param node The node at the indexed path.
+     * @param version The version of the index at which the node was resolved.
+     */
+    public PathIndexEntry(Node node, long version) {
+      this.node_ = node;
+      this.version_ = version;
+    }
+
+    private final Node node_;  // Node at the indexed path.
+    private final long version_;  // Index version at which the node was resolved.
+  }
+
   /**
    * Singleton instance.
    */
@@ -40,6 +84,9 @@ public class Directory {
    */
   private Directory() {
     root_ = new DirectoryNode("");
+    path_index_ = new ConcurrentHashMap<String, PathIndexEntry>();
+    path_index_version_ = new AtomicLong();
+    publish_executor_ = null;
   }
 
   /**
@@ -62,8 +109,22 @@ public class Directory {
     try {
       node.addHandler(handler);
     } catch (NodeException e) {
-      log.catching(Level.TRACE, e);
-      return false;
+      if (e.getReason() != NodeException.Reason.Evicted) {
+        log.catching(Level.TRACE, e);
+        return false;
+      }
+      // The node is a virtual node that has been evicted after it was looked up. If the path
+      // still exists, it now refers to a new virtual node.
+      node = getNode(path);
+      if (node == null) {
+        return false;
+      }
+      try {
+        node.addHandler(handler);
+      } catch (NodeException retry_exception) {
+        log.catching(Level.TRACE, retry_exception);
+        return false;
+      }
     }
     return true;
   }
@@ -81,25 +142,36 @@ public class Directory {
    */
   public boolean createPath(String path) {
     log.entry(path);
-    PathWalker path_walker = new PathWalker(path);
-    if (path_walker.numNodes() < 2 || path_walker.getCurrentNodeName().length() > 0) {
+    boolean created = createNode(path) != null;
+    log.exit();
+    return created;
+  }
+
+  /**
+   * Creates the paths of the specified template under the specified base path. Creates the base
+   * path if it does not exist.
+   *
+   * The base path must be an absolute path starting at the root as in
+   * {@link #createPath(String)}. The base path is walked once and the missing parts of the
+   * template are mounted as whole subtrees. See {@link PathTemplate}.
+   *
+   * Paths that already exist are left unchanged.
+   *
+   * @param base_path The path under which to create the paths of the template.
+   * @param template The template that specifies the paths to create.
+   * @return True if all paths were created.
+   */
+  public boolean createPaths(String base_path, PathTemplate template) {
+    log.entry(base_path);
+    Node base = createNode(base_path);
+    if (base == null) {
       return false;
     }
-    Node node = root_;
-    while (path_walker.moveDown()) {
-      if (node.hasChild(path_walker.getCurrentNodeName())) {
-        node = node.getChild(path_walker.getCurrentNodeName());
-      } else {
-        Node child = new DirectoryNode(path_walker.getCurrentNodeName());
-        try {
-          node.mount(child);
-        } catch (NodeException e) {
-          // createPath() checks for duplicate names and does not add cycles by construction.
-          log.catching(Level.DEBUG, e);
-          return false;
-        }
-        node = child;
-      }
+    try {
+      template.instantiate(base);
+    } catch (NodeException e) {
+      log.catching(Level.DEBUG, e);
+      return false;
     }
     log.exit();
     return true;
@@ -114,23 +186,33 @@ public class Directory {
    * @return The node at the specified path or null if no such path exists.
    */
   public Node getNode(String path) {
-    PathWalker path_walker = new PathWalker(path);
-    if (path_walker.numNodes() < 1 || path_walker.getCurrentNodeName().length() > 0) {
-      return null;
+    String key = indexKey(path);
+    // The version is read before the lookup, so that a path resolved while a node is unmounted
+    // is indexed with an outdated version.
+    long version = path_index_version_.get();
+    PathIndexEntry entry = path_index_.get(key);
+    if (entry != null && entry.version_ == version) {
+      return entry.node_;
     }
-    Node node = root_;
-    while (path_walker.moveDown()) {
-      if (node.hasChild(path_walker.getCurrentNodeName())) {
-        node = node.getChild(path_walker.getCurrentNodeName());
-      } else {
-        log.trace("node not found: {}", path);
-        // Path does not exist.
-        return null;
+    Node node = findNode(path);
+    if (node != null) {
+      if (path_index_.size() >= kMaxIndexedPaths) {
+        path_index_.clear();
       }
+      path_index_.put(key, new PathIndexEntry(node, version));
     }
     return node;
   }
 
+  /**
+   * Returns the executor that handles publish requests asynchronously.
+   *
+   * @return The publish executor or null if publish requests are handled synchronously.
+   */
+  public Executor getPublishExecutor() {
+    return publish_executor_;
+  }
+
   /**
    * Handles a request. This method invokes handle on the specified base directory node.
    *
@@ -138,6 +220,13 @@ public class Directory {
    * All regular handlers at the target node and catch-all handlers between the base node and
    * target node are executed.
    *
+   * If a publish executor has been set, publish requests are dispatched to the handlers via the
+   * publish executor and this method returns without waiting for the handlers to complete. The
+   * returned count is the number of handlers to which the request was dispatched. Each handler
+   * handles publish requests in the order in which they were dispatched. All other requests,
+   * in particular calls, are handled synchronously, so that their results are available in the
+   * request {@link Result} when this method returns.
+   *
    * The request URI is interpreted relative to the base path.
    * The request URI cannot refer to a node that is not reachable from the base path.
    *
@@ -280,6 +369,21 @@ public class Directory {
     return parent.unmount(node);
   }
 
+  /**
+   * Sets the executor that handles publish requests asynchronously. If null, publish requests
+   * are handled synchronously by the thread that handles the request.
+   *
+   * The executor may be a bounded thread pool. If the executor rejects a task, the handler runs
+   * on the thread that dispatched the request. Requests that were dispatched before the executor
+   * was changed may be handled concurrently with requests that are dispatched after the executor
+   * was changed.
+   *
+   * @param executor The publish executor or null to handle publish requests synchronously.
+   */
+  public void setPublishExecutor(Executor executor) {
+    publish_executor_ = executor;
+  }
+
   /**
    * Unlinks the 'to' node from the 'from' node. This is the reverse of
    * {@link #link(String, String)}.
@@ -317,8 +421,120 @@ public class Directory {
     return from_node.unmount(virtual_node);
   }
 
+  /**
+   * Checks whether the node at the specified path is in the path index.
+   *
+   * @param path The absolute path.
+   * @return True if the path is indexed.
+   */
+  boolean isPathIndexed(String path) {
+    PathIndexEntry entry = path_index_.get(indexKey(path));
+    return entry != null && entry.version_ == path_index_version_.get();
+  }
+
+  /**
+   * Invalidates all indexed paths. Called whenever a node is unmounted, since unmounting a node
+   * changes the node at every path that passes through it. This method only increments the index
+   * version and should be called after the lock of the node from which the node was unmounted
+   * has been released.
+   */
+  void invalidatePathIndex() {
+    path_index_version_.incrementAndGet();
+  }
+
+  /**
+   * Creates the specified path and returns the node at the end of the path. Creates and adds any
+   * necessary nodes along the path. See {@link #createPath(String)} for details.
+   *
+   * @param path The absolute path to add to the directory.
+   * @return The node at the end of the path or null if the path could not be created.
+   */
+  private Node createNode(String path) {
+    PathWalker path_walker = new PathWalker(path);
+    if (path_walker.numNodes() < 2 || path_walker.getCurrentNodeName().length() > 0) {
+      return null;
+    }
+    Node node = root_;
+    while (path_walker.moveDown()) {
+      if (node.hasChild(path_walker.getCurrentNodeName())) {
+        node = node.getChild(path_walker.getCurrentNodeName());
+      } else {
+        Node child = new DirectoryNode(path_walker.getCurrentNodeName());
+        try {
+          node.mount(child);
+        } catch (NodeException e) {
+          // A new node does not add cycles, but a node with the same name may have been mounted
+          // concurrently.
+          log.catching(Level.DEBUG, e);
+          child = node.getChild(path_walker.getCurrentNodeName());
+          if (child == null) {
+            return null;
+          }
+        }
+        node = child;
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Finds the node at the specified path by walking the directory from the root.
+   * See {@link #getNode(String)} for details.
+   *
+   * @param path The absolute path of the node.
+   * @return The node at the specified path or null if no such path exists.
+   */
+  private Node findNode(String path) {
+    PathWalker path_walker = new PathWalker(path);
+    if (path_walker.numNodes() < 1 || path_walker.getCurrentNodeName().length() > 0) {
+      return null;
+    }
+    Node node = root_;
+    while (path_walker.moveDown()) {
+      if (node.hasChild(path_walker.getCurrentNodeName())) {
+        node = node.getChild(path_walker.getCurrentNodeName());
+      } else {
+        log.trace("node not found: {}", path);
+        // Path does not exist.
+        return null;
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Returns the key of the specified path in the path index. Trailing '/' characters and a
+   * trailing wildcard are removed, since they do not change the node at the path.
+   *
+   * @param path The absolute path.
+   * @return The index key of the path.
+   */
+  private static String indexKey(String path) {
+    int end = path.length();
+    while (end > 0 && path.charAt(end - 1) == '/') {
+      end--;
+    }
+    if (end > 1 && path.charAt(end - 1) == '*' && path.charAt(end - 2) == '/') {
+      // A wildcard after an empty node name is kept, since the empty node is part of the path.
+      if (end > 2 && path.charAt(end - 3) == '/') {
+        return path;
+      }
+      end -= 2;
+    }
+    return end == path.length() ? path : path.substring(0, end);
+  }
+
   private static Logger log = LogManager.getLogger();
 
+  // Index of resolved paths by index key.
+  private ConcurrentHashMap<String, PathIndexEntry> path_index_;
+
+  // Current version of the path index. Incremented whenever the path index is invalidated.
+  private AtomicLong path_index_version_;
+
+  // Handles publish requests asynchronously if not null.
+  private volatile Executor publish_executor_;
+
   // Represents the root of the directory.
   private Node root_;
 }
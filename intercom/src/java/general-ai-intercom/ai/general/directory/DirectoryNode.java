@@ -5,10 +5,16 @@
 
 package ai.general.directory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -17,21 +23,116 @@ import org.apache.logging.log4j.LogManager;
  * Implements a directory node. A directory node represents a resource or group of resources
  * identified via a URI and provides a mechanism to handle requests directed to those resources.
  *
- * DirectoryNode is thread-safe.
+ * DirectoryNode is thread-safe. Handlers and children are kept in immutable snapshots that are
+ * replaced when handlers are added or removed or nodes are mounted or unmounted. Requests are
+ * dispatched using the current snapshots without locking or allocation, so that requests can be
+ * handled concurrently with modifications of the node. A request that is handled while the node
+ * is modified may or may not be handled by a handler that is being added or removed.
+ *
+ * Each DirectoryNode keeps track of the nodes under which it is mounted. A node that is mounted
+ * via a {@link VirtualNode} is tracked as a child of the node under which the VirtualNode is
+ * mounted. Reachability and cycles are checked by walking up from the target node through its
+ * ancestors, so that the cost of mounting a node is proportional to the number of its ancestors
+ * rather than the size of its subtree.
+ *
+ * Since a directory may contain a large number of nodes, most of which are leaves with at most
+ * one handler, DirectoryNode is kept compact. Nodes without handlers, children or parents share
+ * empty arrays and maps. A node with a single child keeps its child in a singleton map, which is
+ * inflated to a hash map only when a second child is mounted. Node names are interned, so that
+ * nodes with the same name, such as the topic nodes of each user, share one name string.
+ *
+ * A node with many handlers, such as a topic with many subscribers, dispatches publish requests
+ * that specify eligible sessions via an index of its handlers by session ID. The index is built
+ * when such a request is first handled after the handlers have changed, so that a request
+ * targeted at a few sessions visits only their handlers instead of all handlers of the node.
  */
 public class DirectoryNode extends Node {
 
+  // Shared empty handler array.
+  static final Handler[] kNoHandlers = new Handler[0];
+
+  // Minimum number of handlers for which requests for eligible sessions are dispatched via the
+  // session index. Scanning fewer handlers is cheaper than building the index.
+  static final int kMinIndexedHandlers = 8;
+
+  // Shared empty parent array.
+  private static final DirectoryNode[] kNoParents = new DirectoryNode[0];
+
+  // Updates parents_ without a per-node lock.
+  private static final AtomicReferenceFieldUpdater<DirectoryNode, DirectoryNode[]>
+    kParentsUpdater = AtomicReferenceFieldUpdater.newUpdater(
+        DirectoryNode.class, DirectoryNode[].class, "parents_");
+
+  /**
+   * Index of a handler snapshot by session ID.
+   */
+  private static class SessionIndex {
+
+    /**
+     * Creates an index of the specified handlers.
+     *
+     * @param handlers The handler snapshot to index.
+     */
+    public SessionIndex(Handler[] handlers) {
+      this.handlers_ = handlers;
+      ArrayList<Handler> unassigned = new ArrayList<Handler>();
+      session_handlers_ = new HashMap<String, Handler[]>();
+      for (Handler handler : handlers) {
+        String session_id = handler.getSessionId();
+        if (session_id == null) {
+          unassigned.add(handler);
+        } else {
+          Handler[] session_handlers = session_handlers_.get(session_id);
+          session_handlers_.put(session_id, session_handlers == null ?
+                                new Handler[] { handler } : append(session_handlers, handler));
+        }
+      }
+      unassigned_handlers_ = unassigned.toArray(kNoHandlers);
+    }
+
+    /**
+     * Dispatches the specified request to the handlers that are not associated with a session
+     * and to the handlers of the specified sessions.
+     *
+     * @param request The request to handle.
+     * @param session_ids The eligible sessions.
+     * @return The number of handlers executed.
+     */
+    public int dispatch(Request request, Set<String> session_ids) {
+      int executed_handler_count = 0;
+      for (Handler handler : unassigned_handlers_) {
+        handler.dispatch(request, null);
+        executed_handler_count++;
+      }
+      for (String session_id : session_ids) {
+        Handler[] session_handlers = session_handlers_.get(session_id);
+        if (session_handlers != null) {
+          for (Handler handler : session_handlers) {
+            handler.dispatch(request, null);
+            executed_handler_count++;
+          }
+        }
+      }
+      return executed_handler_count;
+    }
+
+    private final Handler[] handlers_;  // The indexed handler snapshot.
+    private final HashMap<String, Handler[]> session_handlers_;  // Handlers by session ID.
+    private final Handler[] unassigned_handlers_;  // Handlers without session.
+  }
+
   /**
    * Constructs a DirectoryNode with the specified name. The node name is used to refer to this
-   * node in paths and URI's.
+   * node in paths and URI's. The name is interned.
    *
    * @param name The name that is used to identify this node.
    */
   public DirectoryNode(String name) {
-    this.name_ = name;
-    children_ = new HashMap<String, Node>();
-    handlers_ = new HashMap<String, Handler>();
-    catch_all_handlers_ = new ArrayList<Handler>();
+    this.name_ = name.intern();
+    children_ = Collections.emptyMap();
+    handlers_ = kNoHandlers;
+    catch_all_handlers_ = kNoHandlers;
+    parents_ = kNoParents;
   }
 
   /**
@@ -47,12 +148,13 @@ public class DirectoryNode extends Node {
    */
   @Override
   public synchronized void addHandler(Handler handler) throws NodeException {
-    if (handlers_.containsKey(handler.getName())) {
+    if (hasHandler(handler.getName())) {
       throw new NodeException(NodeException.Reason.DuplicateName);
     }
-    handlers_.put(handler.getName(), handler);
+    handlers_ = append(handlers_, handler);
+    session_index_ = null;
     if (handler.isCatchAll()) {
-      catch_all_handlers_.add(handler);
+      catch_all_handlers_ = append(catch_all_handlers_, handler);
     }
   }
 
@@ -127,25 +229,19 @@ public class DirectoryNode extends Node {
    */
   @Override
   public boolean hasHandler(String name) {
-    return handlers_.containsKey(name);
+    return indexOf(handlers_, name) >= 0;
   }
 
   /**
    * Checks whether a node is reachable from this node.
+   * A {@link VirtualNode} only represents another node and is never reachable itself.
    *
    * @return True if there is a path from this node to the specified node.
    */
   @Override
   public boolean isReachable(Node node) {
-    if (node == this) {
-      return true;
-    }
-    for (Node child : children_.values()) {
-      if (child.isReachable(node)) {
-        return true;
-      }
-    }
-    return false;
+    DirectoryNode directory_node = node.getDirectoryNode();
+    return directory_node == node && directory_node.hasAncestor(this);
   }
 
   /**
@@ -162,10 +258,18 @@ public class DirectoryNode extends Node {
     if (children_.containsKey(child.getName())) {
       throw new NodeException(NodeException.Reason.DuplicateName);
     }
-    if (child.isReachable(this)) {
+    DirectoryNode child_node = child.getDirectoryNode();
+    if (hasAncestor(child_node)) {
       throw new NodeException(NodeException.Reason.Cyclic);
     }
-    children_.put(child.getName(), child);
+    if (children_.isEmpty()) {
+      children_ = Collections.singletonMap(child.getName(), child);
+    } else {
+      HashMap<String, Node> children = new HashMap<String, Node>(children_);
+      children.put(child.getName(), child);
+      children_ = children;
+    }
+    child_node.addParent(this);
   }
 
   /**
@@ -187,12 +291,16 @@ public class DirectoryNode extends Node {
    */
   @Override
   public synchronized boolean removeHandler(String name) {
-    Handler handler = handlers_.get(name);
-    if (handler == null) {
+    int index = indexOf(handlers_, name);
+    if (index < 0) {
       return false;
     }
-    catch_all_handlers_.remove(handler);
-    return handlers_.remove(name) != null;
+    if (handlers_[index].isCatchAll()) {
+      catch_all_handlers_ = remove(catch_all_handlers_, indexOf(catch_all_handlers_, name));
+    }
+    handlers_ = remove(handlers_, index);
+    session_index_ = null;
+    return true;
   }
 
   /**
@@ -203,8 +311,39 @@ public class DirectoryNode extends Node {
    * @return True if the node was unmounted.
    */
   @Override
-  public synchronized boolean unmount(Node child) {
-    return children_.remove(child.getName()) != null;
+  public boolean unmount(Node child) {
+    synchronized (this) {
+      if (!children_.containsKey(child.getName())) {
+        return false;
+      }
+      Node mounted_child = children_.get(child.getName());
+      if (children_.size() == 1) {
+        children_ = Collections.emptyMap();
+      } else if (children_.size() == 2) {
+        for (Map.Entry<String, Node> entry : children_.entrySet()) {
+          if (entry.getValue() != mounted_child) {
+            children_ = Collections.singletonMap(entry.getKey(), entry.getValue());
+          }
+        }
+      } else {
+        HashMap<String, Node> children = new HashMap<String, Node>(children_);
+        children.remove(child.getName());
+        children_ = children;
+      }
+      mounted_child.getDirectoryNode().removeParent(this);
+    }
+    Directory.Instance.invalidatePathIndex();
+    return true;
+  }
+
+  /**
+   * Returns this node.
+   *
+   * @return This node.
+   */
+  @Override
+  protected DirectoryNode getDirectoryNode() {
+    return this;
   }
 
   /**
@@ -219,15 +358,23 @@ public class DirectoryNode extends Node {
     log.entry();
     int executed_handler_count = 0;
     if (path_walker.atLeaf()) {
-      for (Handler handler : handlers_.values()) {
-        handler.handle(request);
-        executed_handler_count++;
+      Handler[] handlers = handlers_;
+      Set<String> eligible_sessions =
+        handlers.length >= kMinIndexedHandlers ? request.getEligibleSessions() : null;
+      if (eligible_sessions != null) {
+        executed_handler_count += getSessionIndex(handlers).dispatch(request, eligible_sessions);
+      } else {
+        for (Handler handler : handlers) {
+          handler.dispatch(request, null);
+          executed_handler_count++;
+        }
       }
     } else {
-      if (catch_all_handlers_.size() > 0) {
+      Handler[] catch_all_handlers = catch_all_handlers_;
+      if (catch_all_handlers.length > 0) {
         String path_remainder = path_walker.remainder();
-        for (Handler handler : catch_all_handlers_) {
-          handler.handleCatchAll(path_remainder, request);
+        for (Handler handler : catch_all_handlers) {
+          handler.dispatch(request, path_remainder);
           executed_handler_count++;
         }
       }
@@ -243,18 +390,177 @@ public class DirectoryNode extends Node {
     return executed_handler_count;
   }
 
+  /**
+   * Returns a copy of the specified handler array with the handler appended.
+   *
+   * @param handlers The handler array.
+   * @param handler The handler to append.
+   * @return A new handler array.
+   */
+  static Handler[] append(Handler[] handlers, Handler handler) {
+    Handler[] result = Arrays.copyOf(handlers, handlers.length + 1);
+    result[handlers.length] = handler;
+    return result;
+  }
+
+  /**
+   * Adds the specified node to the parents of this node.
+   *
+   * @param parent The node under which this node has been mounted.
+   */
+  private void addParent(DirectoryNode parent) {
+    while (true) {
+      DirectoryNode[] parents = parents_;
+      DirectoryNode[] result = Arrays.copyOf(parents, parents.length + 1);
+      result[parents.length] = parent;
+      if (kParentsUpdater.compareAndSet(this, parents, result)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Checks whether the specified node is this node or an ancestor of this node.
+   * Walks up the parent chain without allocation while each node has at most one parent.
+   *
+   * @param ancestor The potential ancestor.
+   * @return True if the specified node is this node or an ancestor of this node.
+   */
+  private boolean hasAncestor(DirectoryNode ancestor) {
+    DirectoryNode node = this;
+    ArrayDeque<DirectoryNode> pending = null;
+    Set<DirectoryNode> visited = null;
+    while (node != null) {
+      if (node == ancestor) {
+        return true;
+      }
+      DirectoryNode[] parents = node.parents_;
+      if (pending == null) {
+        if (parents.length == 0) {
+          return false;
+        }
+        if (parents.length == 1) {
+          node = parents[0];
+          continue;
+        }
+        pending = new ArrayDeque<DirectoryNode>();
+        visited = Collections.newSetFromMap(new IdentityHashMap<DirectoryNode, Boolean>());
+      }
+      for (DirectoryNode parent : parents) {
+        if (visited.add(parent)) {
+          pending.push(parent);
+        }
+      }
+      node = pending.poll();
+    }
+    return false;
+  }
+
+  /**
+   * Returns the session index of the specified handler snapshot. The index is rebuilt if the
+   * current index has been built for another snapshot.
+   *
+   * @param handlers The current handler snapshot.
+   * @return The session index of the snapshot.
+   */
+  private SessionIndex getSessionIndex(Handler[] handlers) {
+    SessionIndex session_index = session_index_;
+    if (session_index == null || session_index.handlers_ != handlers) {
+      session_index = new SessionIndex(handlers);
+      session_index_ = session_index;
+    }
+    return session_index;
+  }
+
+  /**
+   * Returns the index of the handler with the specified name.
+   *
+   * @param handlers The handler array to search.
+   * @param name The handler name.
+   * @return The index of the handler or -1 if there is no handler with the name.
+   */
+  static int indexOf(Handler[] handlers, String name) {
+    for (int i = 0; i < handlers.length; i++) {
+      if (handlers[i].getName().equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Removes one occurrence of the specified node from the parents of this node.
+   *
+   * @param parent The node from which this node has been unmounted.
+   */
+  private void removeParent(DirectoryNode parent) {
+    while (true) {
+      DirectoryNode[] parents = parents_;
+      int index = -1;
+      for (int i = 0; i < parents.length; i++) {
+        if (parents[i] == parent) {
+          index = i;
+          break;
+        }
+      }
+      if (index < 0) {
+        return;
+      }
+      DirectoryNode[] result = kNoParents;
+      if (parents.length > 1) {
+        result = new DirectoryNode[parents.length - 1];
+        System.arraycopy(parents, 0, result, 0, index);
+        System.arraycopy(parents, index + 1, result, index, parents.length - index - 1);
+      }
+      if (kParentsUpdater.compareAndSet(this, parents, result)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the specified handler array without the handler at the specified index.
+   *
+   * @param handlers The handler array.
+   * @param index The index of the handler to remove.
+   * @return A new handler array.
+   */
+  static Handler[] remove(Handler[] handlers, int index) {
+    if (handlers.length == 1) {
+      return kNoHandlers;
+    }
+    Handler[] result = new Handler[handlers.length - 1];
+    System.arraycopy(handlers, 0, result, 0, index);
+    System.arraycopy(handlers, index + 1, result, index, handlers.length - index - 1);
+    return result;
+  }
+
   private static Logger log = LogManager.getLogger();
 
   // Catch-all handlers handle requests that target this node or a decendant of this node.
   // Catch-all handlers are also a members of handlers_.
-  private ArrayList<Handler> catch_all_handlers_;
+  // The array is never modified. It is replaced when a catch-all handler is added or removed.
+  private volatile Handler[] catch_all_handlers_;
 
-  // Child nodes indexed by their name.
-  private HashMap<String, Node> children_;
+  // Child nodes indexed by their name. Empty or singleton map if there are fewer than two
+  // children. The map is never modified. It is replaced when a child node is mounted or
+  // unmounted.
+  private volatile Map<String, Node> children_;
 
-  // List of handlers associated with this node.
-  private HashMap<String, Handler> handlers_;
+  // Handlers associated with this node in the order in which they were added.
+  // The array is never modified. It is replaced when a handler is added or removed.
+  private volatile Handler[] handlers_;
 
-  // Name of this node. The name is used in directory paths.
+  // Interned name of this node. The name is used in directory paths.
   private String name_;
+
+  // Nodes under which this node is mounted, directly or via a VirtualNode.
+  // The array is never modified. It is replaced atomically via kParentsUpdater when this node is
+  // mounted or unmounted, since parents_ is updated while the lock of the parent node is held.
+  private volatile DirectoryNode[] parents_;
+
+  // Index of handlers_ by session ID. Null until a request for eligible sessions is handled by a
+  // node with at least kMinIndexedHandlers handlers. Reset when a handler is added or removed.
+  // The index is immutable, so it is safe to replace it concurrently.
+  private SessionIndex session_index_;
 }
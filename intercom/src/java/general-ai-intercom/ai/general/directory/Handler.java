@@ -5,9 +5,18 @@
 
 package ai.general.directory;
 
+import ai.general.common.SerialExecutor;
+
+import java.util.concurrent.Executor;
+
 /**
  * Abstract base class for handlers.
  * A Handler handles a request for a resource specified by a URI.
+ *
+ * Handlers are normally run on the thread that handles the request. If a publish executor has
+ * been set via {@link Directory#setPublishExecutor(Executor)}, publish requests are instead
+ * handled asynchronously by the publish executor. Each handler handles its publish requests one
+ * at a time in the order in which they were dispatched to the handler.
  */
 public abstract class Handler {
 
@@ -44,6 +53,21 @@ public abstract class Handler {
     return name_;
   }
 
+  /**
+   * Returns the ID of the session to which this handler delivers requests.
+   *
+   * Nodes with many handlers index their handlers by session ID, so that requests that specify
+   * eligible sessions (see {@link Request#getEligibleSessions()}) are dispatched only to the
+   * handlers of eligible sessions and to handlers that are not associated with a session. Nodes
+   * with few handlers dispatch such requests to all handlers. The session ID of a handler must
+   * not change while the handler is added to a node.
+   *
+   * @return The session ID or null if this handler is not associated with a session.
+   */
+  public String getSessionId() {
+    return null;
+  }
+
   /**
    * A subclass must override this method to specify the request handling logic.
    *
@@ -71,6 +95,29 @@ public abstract class Handler {
     handle(request);
   }
 
+  /**
+   * Runs this handler on the specified request. Publish requests are passed to the publish
+   * executor of the directory if one has been set. All other requests are handled before this
+   * method returns.
+   *
+   * @param request The request to handle.
+   * @param path_remainder The path remainder for a catch-all request or null if this handler is
+   *                       run on the target node of the request.
+   */
+  void dispatch(final Request request, final String path_remainder) {
+    Executor executor = Directory.Instance.getPublishExecutor();
+    if (executor == null || request.getRequestType() != Request.RequestType.Publish) {
+      run(request, path_remainder);
+      return;
+    }
+    getSerialExecutor(executor).execute(new Runnable() {
+        @Override
+        public void run() {
+          Handler.this.run(request, path_remainder);
+        }
+      });
+  }
+
   /**
    * Returns whether this handler is a catch-all handler.
    *
@@ -80,6 +127,45 @@ public abstract class Handler {
     return is_catch_all_;
   }
 
+  /**
+   * Returns the serial executor of this handler that runs tasks with the specified executor.
+   * A new serial executor is created if the executor has changed.
+   *
+   * The serial executor is read from a volatile field, so that the lock on this handler is only
+   * taken when the serial executor is created.
+   *
+   * @param executor The executor that runs the tasks of the serial executor.
+   * @return The serial executor of this handler.
+   */
+  private SerialExecutor getSerialExecutor(Executor executor) {
+    SerialExecutor serial_executor = serial_executor_;
+    if (serial_executor != null && serial_executor.getExecutor() == executor) {
+      return serial_executor;
+    }
+    synchronized (this) {
+      if (serial_executor_ == null || serial_executor_.getExecutor() != executor) {
+        serial_executor_ = new SerialExecutor(executor);
+      }
+      return serial_executor_;
+    }
+  }
+
+  /**
+   * Handles the request as a regular or catch-all request.
+   *
+   * @param request The request to handle.
+   * @param path_remainder The path remainder for a catch-all request or null.
+   */
+  private void run(Request request, String path_remainder) {
+    if (path_remainder == null) {
+      handle(request);
+    } else {
+      handleCatchAll(path_remainder, request);
+    }
+  }
+
   private String name_;  // name of handler
   private boolean is_catch_all_;  // true if this handler is a catch-all handler
+  // serializes asynchronously handled publish requests
+  private volatile SerialExecutor serial_executor_;
 }
@@ -131,6 +131,14 @@ public abstract class Node {
    */
   public abstract boolean unmount(Node child);
 
+  /**
+   * Returns the DirectoryNode that holds the children of this node. This is either this node
+   * or the node that this node represents.
+   *
+   * @return The DirectoryNode that this node is or represents.
+   */
+  protected abstract DirectoryNode getDirectoryNode();
+
   /**
    * Helper method to walk down a directory path while handling a request.
    *
@@ -20,6 +20,9 @@ public class NodeException extends Exception {
 
     /** Name already exists. */
     DuplicateName,
+
+    /** Virtual node has been evicted from its overlay. */
+    Evicted,
   }
 
   /**
@@ -0,0 +1,199 @@
+/* General AI - Directory
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.directory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Describes a set of paths that can be created under any node of the directory in a single
+ * operation. See {@link Directory#createPaths(String, PathTemplate)}.
+ *
+ * The paths of a template are relative to the node under which they are created, but written
+ * like absolute paths, e.g. "/events/session/ping". When the template is created, the paths are
+ * parsed into a tree of node names. Creating the paths under a node merges this tree with the
+ * existing children of the node. Each subtree of the template that does not exist yet is
+ * instantiated as a new detached subtree and mounted with a single mount operation, so that
+ * nodes are neither looked up from the root nor checked for cycles more than once.
+ *
+ * PathTemplate is immutable and can be shared between threads.
+ */
+public class PathTemplate {
+
+  /**
+   * A node of the template tree.
+   */
+  private static class TemplateNode {
+
+    /**
+     * Creates a template node with the specified name and children.
+     *
+     * @param name The name of the node.
+     * @param children The child template nodes.
+     */
+    public TemplateNode(String name, TemplateNode[] children) {
+      this.name_ = name;
+      this.children_ = children;
+    }
+
+    /**
+     * Creates a new detached DirectoryNode subtree that corresponds to this template node.
+     *
+     * @return The root of the new subtree.
+     */
+    public DirectoryNode instantiate() {
+      DirectoryNode node = new DirectoryNode(name_);
+      for (TemplateNode child : children_) {
+        try {
+          node.mount(child.instantiate());
+        } catch (NodeException e) {
+          // Not thrown, since the template has no duplicate names and new nodes have no cycles.
+        }
+      }
+      return node;
+    }
+
+    private TemplateNode[] children_;  // Child template nodes.
+    private String name_;  // Node name.
+  }
+
+  /**
+   * Creates a template for the specified paths.
+   *
+   * Each path must start with '/' and have at least one node. Wildcards are not interpreted.
+   *
+   * @param paths The paths relative to the node under which the template is instantiated.
+   * @throws IllegalArgumentException if one of the paths is invalid.
+   */
+  public PathTemplate(String ... paths) {
+    this(null, paths);
+  }
+
+  /**
+   * Creates a template that contains all paths of the specified base template and the specified
+   * additional paths.
+   *
+   * @param base The template to extend.
+   * @param paths Additional paths relative to the node under which the template is instantiated.
+   * @throws IllegalArgumentException if one of the paths is invalid.
+   */
+  public PathTemplate(PathTemplate base, String ... paths) {
+    ArrayList<String> all_paths = new ArrayList<String>();
+    if (base != null) {
+      all_paths.addAll(base.paths_);
+    }
+    for (String path : paths) {
+      PathWalker path_walker = new PathWalker(path);
+      if (!path.startsWith("/") || path_walker.numNodes() < 2) {
+        throw new IllegalArgumentException("Invalid template path: " + path);
+      }
+      all_paths.add(path);
+    }
+    paths_ = Collections.unmodifiableList(all_paths);
+    children_ = build(paths_);
+  }
+
+  /**
+   * Returns the paths of this template.
+   *
+   * @return The paths in the order in which they were specified.
+   */
+  public List<String> getPaths() {
+    return paths_;
+  }
+
+  /**
+   * Creates the paths of this template under the specified node.
+   *
+   * @param node The node under which to create the paths.
+   * @throws NodeException if a node cannot be mounted.
+   */
+  void instantiate(Node node) throws NodeException {
+    instantiate(node, children_);
+  }
+
+  /**
+   * Parses the specified paths into a tree of template nodes.
+   *
+   * @param paths The paths to parse.
+   * @return The top level template nodes.
+   */
+  private static TemplateNode[] build(List<String> paths) {
+    // Maps the path of each template node to the names and paths of its children. The root is
+    // represented by the empty path.
+    LinkedHashMap<String, LinkedHashMap<String, String>> tree =
+      new LinkedHashMap<String, LinkedHashMap<String, String>>();
+    tree.put("", new LinkedHashMap<String, String>());
+    for (String path : paths) {
+      PathWalker path_walker = new PathWalker(path);
+      String parent_path = "";
+      while (path_walker.moveDown()) {
+        String name = path_walker.getCurrentNodeName();
+        String node_path = parent_path + "/" + name;
+        tree.get(parent_path).put(name, node_path);
+        if (!tree.containsKey(node_path)) {
+          tree.put(node_path, new LinkedHashMap<String, String>());
+        }
+        parent_path = node_path;
+      }
+    }
+    return build(tree, "");
+  }
+
+  /**
+   * Creates the template nodes for the children of the specified node path.
+   *
+   * @param tree Maps node paths to the names and paths of their children.
+   * @param node_path The path of the node whose children are created.
+   * @return The child template nodes.
+   */
+  private static TemplateNode[] build(LinkedHashMap<String, LinkedHashMap<String, String>> tree,
+                                      String node_path) {
+    LinkedHashMap<String, String> children = tree.get(node_path);
+    TemplateNode[] template_nodes = new TemplateNode[children.size()];
+    int index = 0;
+    for (String name : children.keySet()) {
+      template_nodes[index++] = new TemplateNode(name, build(tree, children.get(name)));
+    }
+    return template_nodes;
+  }
+
+  /**
+   * Creates the specified template nodes under the specified node. Existing children are reused.
+   * Subtrees that do not exist are instantiated and mounted as a whole.
+   *
+   * @param node The node under which to create the template nodes.
+   * @param template_nodes The template nodes to create.
+   * @throws NodeException if a node cannot be mounted.
+   */
+  private static void instantiate(Node node, TemplateNode[] template_nodes)
+    throws NodeException {
+    for (TemplateNode template_node : template_nodes) {
+      Node child = node.getChild(template_node.name_);
+      if (child == null) {
+        try {
+          node.mount(template_node.instantiate());
+          continue;
+        } catch (NodeException e) {
+          if (e.getReason() != NodeException.Reason.DuplicateName) {
+            throw e;
+          }
+          // The child has been mounted concurrently.
+          child = node.getChild(template_node.name_);
+          if (child == null) {
+            throw e;
+          }
+        }
+      }
+      instantiate(child, template_node.children_);
+    }
+  }
+
+  private TemplateNode[] children_;  // Top level template nodes.
+  private List<String> paths_;  // Paths of this template.
+}
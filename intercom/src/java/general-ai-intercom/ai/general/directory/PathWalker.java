@@ -9,8 +9,13 @@ import ai.general.net.Uri;
 
 /**
  * A PathWalker is used to traverse directory paths.
- * The PathWalker splits a directory path into an array of nodes and keeps track of
- * the current node. It can be used to move up and down in the node hierarchy.
+ * The PathWalker keeps track of the current node along a directory path and can be used to move
+ * up and down in the node hierarchy.
+ *
+ * The PathWalker does not split the path. It keeps the start and end offsets of the current node
+ * within the original path string and scans for the next or previous '/' when it moves. Node
+ * names and the remainder of the path are only extracted from the path string when requested.
+ * The name of the current node is cached until the walker moves.
  */
 public class PathWalker {
 
@@ -24,20 +29,42 @@ public class PathWalker {
    * with the first node equal to "", the second node equal to "level1" and the third node
    * equal to "level2".
    *
+   * Trailing '/' characters are ignored. Empty nodes within the path (e.g., "level1//level2") are
+   * preserved.
+   *
    * @param path The path for which the PathWalker will be constructed.
    */
   public PathWalker(String path) {
-    if (!path.startsWith("/")) {
-      path = "/" + path;
+    path_ = path;
+    int path_end = path.length();
+    while (path_end > 0 && path.charAt(path_end - 1) == '/') {
+      path_end--;
     }
-    nodes_ = path.split("/");
-    if (nodes_.length == 0) {
-      nodes_ = new String[] { "" };
+    root_end_ = path.startsWith("/") ? 0 : -1;
+    int num_nodes = 1;
+    if (path_end > 0) {
+      num_nodes = root_end_ == 0 ? 1 : 2;
+      for (int i = 0; i < path_end; i++) {
+        if (path.charAt(i) == '/') {
+          num_nodes++;
+        }
+      }
+    }
+    int last_start = path.lastIndexOf('/', path_end - 1) + 1;
+    ends_with_wildcard_ = num_nodes > 1 && path_end - last_start == 1 &&
+      path.charAt(last_start) == '*';
+    if (ends_with_wildcard_) {
+      num_nodes_ = num_nodes - 1;
+      leaf_end_ = last_start - 1;
+    } else {
+      num_nodes_ = num_nodes;
+      leaf_end_ = path_end;
     }
-    level_ = 0;
-    ends_with_wildcard_ = nodes_.length > 1 && nodes_[nodes_.length - 1].equals("*");
-    num_nodes_ = ends_with_wildcard_ ? nodes_.length - 1 : nodes_.length;
     leaf_level_ = num_nodes_ - 1;
+    level_ = 0;
+    start_ = root_end_;
+    end_ = root_end_;
+    name_ = "";
   }
 
   /**
@@ -75,7 +102,10 @@ public class PathWalker {
    * @return The name of the current node.
    */
   public String getCurrentNodeName() {
-    return nodes_[level_];
+    if (name_ == null) {
+      name_ = path_.substring(start_, end_);
+    }
+    return name_;
   }
 
   /**
@@ -98,6 +128,12 @@ public class PathWalker {
       return false;
     }
     level_++;
+    start_ = end_ + 1;
+    end_ = path_.indexOf('/', start_);
+    if (end_ < 0 || end_ > leaf_end_) {
+      end_ = leaf_end_;
+    }
+    name_ = null;
     return true;
   }
 
@@ -112,6 +148,15 @@ public class PathWalker {
       return false;
     }
     level_--;
+    if (level_ == 0) {
+      start_ = root_end_;
+      end_ = root_end_;
+      name_ = "";
+    } else {
+      end_ = start_ - 1;
+      start_ = path_.lastIndexOf('/', end_ - 1) + 1;
+      name_ = null;
+    }
     return true;
   }
 
@@ -134,17 +179,17 @@ public class PathWalker {
     if (atLeaf()) {
       return "";
     }
-    StringBuilder remainder = new StringBuilder(nodes_[level_ + 1]);
-    for (int i = level_ + 2; i <= leaf_level_; i++) {
-      remainder.append('/');
-      remainder.append(nodes_[i]);
-    }
-    return remainder.toString();
+    return path_.substring(end_ + 1, leaf_end_);
   }
 
-  private final int leaf_level_;  // Lowest level (excludes wildcard).
   private final boolean ends_with_wildcard_;  // True if the path ends with '/*'.
-  private int level_;  // Current position in nodes_.
-  private String[] nodes_;  // The names of the nodes in the URI path.
+  private int end_;  // Offset of the end of the current node name in path_ (exclusive).
+  private final int leaf_end_;  // Offset of the end of the leaf node name (excludes wildcard).
+  private final int leaf_level_;  // Lowest level (excludes wildcard).
+  private int level_;  // Current level along the path.
+  private String name_;  // Cached name of the current node or null if not yet extracted.
   private final int num_nodes_;  // Number of nodes (excludes wildcard).
+  private final String path_;  // The walked path.
+  private final int root_end_;  // End offset of the unnamed root node, -1 if path is relative.
+  private int start_;  // Offset of the start of the current node name in path_.
 }
@@ -7,10 +7,12 @@ package ai.general.directory;
 
 import ai.general.net.Uri;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Represents a request directed at a resource represented by a directory node.
@@ -24,6 +26,17 @@ import java.util.HashMap;
  * to the Directory node process the request.
  *
  * The request URI may specify query parameters which may be used by the request handlers.
+ * Publish requests may restrict the sessions to which they are delivered with the
+ * {@link #kEligibleSessions} and {@link #kExcludedSessions} parameters, which specify comma
+ * separated lists of session ID's. The lists are parsed into sets when they are first accessed.
+ *
+ * Request arguments may be {@link DeferredArgument} instances, which are decoded on demand.
+ * {@link #getArgument(int)} and {@link #getArguments()} always return decoded values.
+ *
+ * Requests are created for every message, so a Request allocates as little as possible. The
+ * arguments are kept in the array passed to the constructor and the {@link Result} is created
+ * only when it is first accessed. Publish requests, which do not produce results, thus usually
+ * consist of the Request object and its argument array only.
  */
 public class Request {
 
@@ -36,6 +49,12 @@ public class Request {
   /** Type paramter value for publish requests. */
   public static final String kRequestTypePublish = "publish";
 
+  /** Name of the URI parameter that lists the sessions eligible to receive a publish request. */
+  public static final String kEligibleSessions = "eligible";
+
+  /** Name of the URI parameter that lists the sessions excluded from a publish request. */
+  public static final String kExcludedSessions = "exclude";
+
   /**
    * Specifies the type of action requested.
    */
@@ -88,6 +107,9 @@ public class Request {
    * Arguments can be also added using the {@link #addArgument(Object)} and
    * {@link #addArguments(Object...)} methods.
    *
+   * The request uses the arguments array directly. The array must not be modified after the
+   * request has been created.
+   *
    * @param uri The URI of the target resource.
    * @param request_type The request type.
    * @param arguments Request arguments.
@@ -95,9 +117,9 @@ public class Request {
   public Request(Uri uri, RequestType request_type, Object ... arguments) {
     this.uri_ = uri;
     this.request_type_ = request_type;
-    arguments_ = new ArrayList<Object>();
-    Collections.addAll(this.arguments_, arguments);
-    result_ = new Result();
+    this.arguments_ = arguments;
+    num_arguments_ = arguments.length;
+    result_ = null;
   }
 
   /**
@@ -106,7 +128,8 @@ public class Request {
    * @param argument The argument to add to the request.
    */
   public void addArgument(Object argument) {
-    arguments_.add(argument);
+    ensureCapacity(num_arguments_ + 1);
+    arguments_[num_arguments_++] = argument;
   }
 
   /**
@@ -116,7 +139,9 @@ public class Request {
    * @param arguments Set of arguments to add to the request.
    */
   public void addArguments(Object ... arguments) {
-    Collections.addAll(arguments_, arguments);
+    ensureCapacity(num_arguments_ + arguments.length);
+    System.arraycopy(arguments, 0, arguments_, num_arguments_, arguments.length);
+    num_arguments_ += arguments.length;
   }
 
   /**
@@ -127,19 +152,43 @@ public class Request {
    * @return The request argument at the specified index or null.
    */
   public Object getArgument(int index) {
-    if (arguments_.size() <= index) {
-      return null;
-    }
-    return arguments_.get(index);
+    return decode(getUndecodedArgument(index));
   }
 
   /**
    * Returns the request arguments.
+   * Any deferred arguments are decoded.
    *
    * @return Arguments associated with the request.
    */
   public Collection<Object> getArguments() {
-    return arguments_;
+    Object[] arguments = new Object[num_arguments_];
+    for (int i = 0; i < num_arguments_; i++) {
+      arguments[i] = decode(arguments_[i]);
+    }
+    return Arrays.asList(arguments);
+  }
+
+  /**
+   * Returns the ID's of the sessions that are eligible to receive this request as specified by
+   * the {@link #kEligibleSessions} URI parameter.
+   *
+   * @return The eligible session ID's or null if all sessions are eligible.
+   */
+  public Set<String> getEligibleSessions() {
+    parseSessions();
+    return eligible_sessions_;
+  }
+
+  /**
+   * Returns the ID's of the sessions that are excluded from this request as specified by the
+   * {@link #kExcludedSessions} URI parameter.
+   *
+   * @return The excluded session ID's or null if no session is excluded.
+   */
+  public Set<String> getExcludedSessions() {
+    parseSessions();
+    return excluded_sessions_;
   }
 
   /**
@@ -154,13 +203,32 @@ public class Request {
   /**
    * Returns the result of processing the request.
    * The result object is populated as the request is processed by the request handlers.
+   * The result object is created when this method is first called.
    *
    * @return The result of processing the request.
    */
-  public Result getResult() {
+  public synchronized Result getResult() {
+    if (result_ == null) {
+      result_ = new Result();
+    }
     return result_;
   }
 
+  /**
+   * Returns the request argument at the specified index without decoding it.
+   * If the argument is a {@link DeferredArgument}, the DeferredArgument is returned.
+   * Returns null if there is no request argument at the specified index.
+   *
+   * @param index The request argument index.
+   * @return The undecoded request argument at the specified index or null.
+   */
+  public Object getUndecodedArgument(int index) {
+    if (num_arguments_ <= index) {
+      return null;
+    }
+    return arguments_[index];
+  }
+
   /**
    * Returns the resource URI.
    *
@@ -189,7 +257,24 @@ public class Request {
    * @return The number of request arguments.
    */
   public int numArguments() {
-    return arguments_.size();
+    return num_arguments_;
+  }
+
+  /**
+   * Replaces the request argument at the specified index.
+   *
+   * This method may be used by handlers to replace an argument with an equivalent representation
+   * of the argument that can be shared with other handlers.
+   *
+   * @param index The request argument index.
+   * @param argument The new argument.
+   * @throws IndexOutOfBoundsException if there is no argument at the specified index.
+   */
+  public void setArgument(int index, Object argument) {
+    if (index >= num_arguments_) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + num_arguments_);
+    }
+    arguments_[index] = argument;
   }
 
   /**
@@ -201,8 +286,79 @@ public class Request {
     this.request_type_ = type;
   }
 
-  private ArrayList<Object> arguments_;  // Request arguments.
+  /**
+   * Returns the generic value of an argument if it is a {@link DeferredArgument}.
+   * Otherwise, returns the argument.
+   *
+   * @param argument The argument to decode.
+   * @return The decoded argument.
+   */
+  private static Object decode(Object argument) {
+    if (argument instanceof DeferredArgument) {
+      return ((DeferredArgument) argument).getValue();
+    }
+    return argument;
+  }
+
+  /**
+   * Parses a comma separated list of session ID's into a set.
+   *
+   * @param sessions Comma separated list of session ID's or null.
+   * @return The set of session ID's or null if sessions is null.
+   */
+  private static Set<String> parseSessions(String sessions) {
+    if (sessions == null) {
+      return null;
+    }
+    if (sessions.indexOf(',') < 0) {
+      return sessions.isEmpty() ? Collections.<String>emptySet() : Collections.singleton(sessions);
+    }
+    HashSet<String> session_set = new HashSet<String>();
+    int start = 0;
+    while (start <= sessions.length()) {
+      int end = sessions.indexOf(',', start);
+      if (end < 0) {
+        end = sessions.length();
+      }
+      if (end > start) {
+        session_set.add(sessions.substring(start, end));
+      }
+      start = end + 1;
+    }
+    return session_set;
+  }
+
+  /**
+   * Parses the eligible and excluded session lists of the request URI if they have not been
+   * parsed yet. Concurrent handlers may parse the lists more than once, but always obtain
+   * equivalent sets.
+   */
+  private void parseSessions() {
+    if (sessions_parsed_) {
+      return;
+    }
+    eligible_sessions_ = parseSessions(uri_.getParameter(kEligibleSessions));
+    excluded_sessions_ = parseSessions(uri_.getParameter(kExcludedSessions));
+    sessions_parsed_ = true;
+  }
+
+  /**
+   * Grows the arguments array if it cannot hold the specified number of arguments.
+   *
+   * @param capacity The number of arguments the array must be able to hold.
+   */
+  private void ensureCapacity(int capacity) {
+    if (arguments_.length < capacity) {
+      arguments_ = Arrays.copyOf(arguments_, Math.max(capacity, 2 * arguments_.length));
+    }
+  }
+
+  private Object[] arguments_;  // Request arguments. Only the first num_arguments_ are valid.
+  private Set<String> eligible_sessions_;  // Parsed eligible session ID's or null.
+  private Set<String> excluded_sessions_;  // Parsed excluded session ID's or null.
+  private int num_arguments_;  // Number of request arguments.
   private RequestType request_type_;  // Request type.
   private Result result_;  // The result of processing the request.
+  private volatile boolean sessions_parsed_;  // True if the session lists have been parsed.
   private Uri uri_;  // Resource URI.
 }
@@ -7,6 +7,7 @@ package ai.general.directory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Represents the result of a processing a {@link Request}.
@@ -18,6 +19,9 @@ import java.util.Collection;
  * Result values are serialized into JSON during transmission. Thus, result values must have a POJO
  * type. This includes primitive types, classes that allow access to their instance variables
  * via get and set methods, and arrays and collections of these types.
+ *
+ * The lists of values and errors are created when the first value or error is added. Most
+ * requests are publish requests that never produce a result.
  */
 public class Result {
 
@@ -67,8 +71,8 @@ public class Result {
    * Constructs an empty result.
    */
   public Result() {
-    errors_ = new ArrayList<Error>();
-    values_ = new ArrayList<Object>();
+    errors_ = null;
+    values_ = null;
   }
 
   /**
@@ -77,6 +81,9 @@ public class Result {
    * @param error The result error.
    */
   public void addError(Error error) {
+    if (errors_ == null) {
+      errors_ = new ArrayList<Error>();
+    }
     errors_.add(error);
   }
 
@@ -86,6 +93,9 @@ public class Result {
    * @param value The result value.
    */
   public void addValue(Object value) {
+    if (values_ == null) {
+      values_ = new ArrayList<Object>();
+    }
     values_.add(value);
   }
 
@@ -97,7 +107,7 @@ public class Result {
    * @return The result error at the specified index or null.
    */
   public Error getError(int index) {
-    if (errors_.size() <= index) {
+    if (numErrors() <= index) {
       return null;
     }
     return errors_.get(index);
@@ -109,6 +119,9 @@ public class Result {
    * @return The result errors.
    */
   public Collection<Error> getErrors() {
+    if (errors_ == null) {
+      return Collections.emptyList();
+    }
     return errors_;
   }
 
@@ -120,7 +133,7 @@ public class Result {
    * @return The result value at the specified index or null.
    */
   public Object getValue(int index) {
-    if (values_.size() <= index) {
+    if (numValues() <= index) {
       return null;
     }
     return values_.get(index);
@@ -132,6 +145,9 @@ public class Result {
    * @return The results.
    */
   public Collection<Object> getValues() {
+    if (values_ == null) {
+      return Collections.emptyList();
+    }
     return values_;
   }
 
@@ -141,7 +157,7 @@ public class Result {
    * @return True if the result has any errors.
    */
   public boolean hasErrors() {
-    return errors_.size() > 0;
+    return numErrors() > 0;
   }
 
   /**
@@ -150,7 +166,7 @@ public class Result {
    * @return Number of result errors.
    */
   public int numErrors() {
-    return errors_.size();
+    return errors_ != null ? errors_.size() : 0;
   }
 
   /**
@@ -159,9 +175,9 @@ public class Result {
    * @return Number of result values.
    */
   public int numValues() {
-    return values_.size();
+    return values_ != null ? values_.size() : 0;
   }
 
-  private ArrayList<Error> errors_;  // Result errors.
-  private ArrayList<Object> values_;  // Result values.
+  private ArrayList<Error> errors_;  // Result errors or null if there are no errors.
+  private ArrayList<Object> values_;  // Result values or null if there are no values.
 }
@@ -5,9 +5,8 @@
 
 package ai.general.directory;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * VirtualNodes add an overlay layer on top of a directory hierarchy.
@@ -32,9 +31,23 @@ import java.util.HashMap;
  * the underlying node. When the node is unlinked, the handlers are automatically removed
  * with the VirtualNode. Such behavior is necessary in order to provide correct access
  * control with user accounts.
+ *
+ * The virtual children of a VirtualNode are created on demand and cached, so that handlers added
+ * to a virtual child are removed when the VirtualNode is deactivated. A virtual child is evicted
+ * from the cache and deactivated once neither the child nor any of its cached descendants has
+ * handlers. Virtual children that are only looked up are evicted when the cache grows, so that
+ * the cache stays proportional to the number of virtual children in use. Handlers cannot be
+ * added to an evicted VirtualNode.
+ *
+ * VirtualNode is thread-safe. A VirtualNode and its virtual descendants share one lock for
+ * modifications. Requests are dispatched from immutable snapshots of the handlers without
+ * locking.
  */
 public class VirtualNode extends Node {
 
+  // Minimum number of cached virtual children at which unused children are evicted.
+  private static final int kMinSweepThreshold = 16;
+
   /**
    * Implements a handler for the VirtualNode. Relays requests to the handlers of the
    * VirtualNode.
@@ -58,7 +71,7 @@ public class VirtualNode extends Node {
      */
     @Override
     public void handle(Request request) {
-      for (Handler handler : handlers_.values()) {
+      for (Handler handler : handlers_) {
         handler.handle(request);
       }
     }
@@ -86,17 +99,35 @@ public class VirtualNode extends Node {
    * @param handler_name The name of the virtual node handler to be added to the underlying node.
    */
   public VirtualNode(Node node, String handler_name) {
+    this(null, node, handler_name);
+  }
+
+  /**
+   * Creates a virtual node that represents the specified child of the underlying node of the
+   * parent virtual node. The virtual node is inactive if the parent is inactive and evicted if
+   * the parent has been evicted.
+   *
+   * @param parent The parent virtual node or null if this is the top level virtual node.
+   * @param node The underlying node.
+   * @param handler_name The name of the virtual node handler to be added to the underlying node.
+   */
+  private VirtualNode(VirtualNode parent, Node node, String handler_name) {
+    this.parent_ = parent;
     this.node_ = node;
-    active_ = true;
-    children_ = new HashMap<String, VirtualNode>();
-    handlers_ = new HashMap<String, Handler>();
-    catch_all_handlers_ = new ArrayList<Handler>();
+    lock_ = parent != null ? parent.lock_ : new Object();
+    active_ = parent != null ? parent.active_ : true;
+    evicted_ = parent != null && parent.evicted_;
+    children_ = new ConcurrentHashMap<String, VirtualNode>();
+    sweep_threshold_ = kMinSweepThreshold;
+    handlers_ = DirectoryNode.kNoHandlers;
+    catch_all_handlers_ = DirectoryNode.kNoHandlers;
     virtual_handler_ = new VirtualNodeHandler(handler_name);
   }
 
   /**
    * Adds the specified handler to this node's handler list.
-   * A NodeException is thrown if a handler with the same name already exists.
+   * A NodeException is thrown if a handler with the same name already exists or this virtual
+   * node has been evicted from the cache of its parent.
    *
    * If the handler indicates that it is a catch-all handler, it will also be added to
    * the catch-all list. A handler cannot change its catch-all status after it has been
@@ -107,15 +138,20 @@ public class VirtualNode extends Node {
    */
   @Override
   public void addHandler(Handler handler) throws NodeException {
-    if (handlers_.containsKey(handler.getName())) {
-      throw new NodeException(NodeException.Reason.DuplicateName);
-    }
-    handlers_.put(handler.getName(), handler);
-    if (active_ && handlers_.size() == 1) {
-      node_.addHandler(virtual_handler_);
-    }
-    if (handler.isCatchAll()) {
-      catch_all_handlers_.add(handler);
+    synchronized (lock_) {
+      if (evicted_) {
+        throw new NodeException(NodeException.Reason.Evicted);
+      }
+      if (hasHandler(handler.getName())) {
+        throw new NodeException(NodeException.Reason.DuplicateName);
+      }
+      handlers_ = DirectoryNode.append(handlers_, handler);
+      if (active_ && handlers_.length == 1) {
+        node_.addHandler(virtual_handler_);
+      }
+      if (handler.isCatchAll()) {
+        catch_all_handlers_ = DirectoryNode.append(catch_all_handlers_, handler);
+      }
     }
   }
 
@@ -138,11 +174,13 @@ public class VirtualNode extends Node {
    * @return True if the virtual node handler was removed from the underlying node.
    */
   public boolean deactivate() {
-    active_ = false;
-    for (VirtualNode child : children_.values()) {
-      child.deactivate();
+    synchronized (lock_) {
+      active_ = false;
+      for (VirtualNode child : children_.values()) {
+        child.deactivate();
+      }
+      return node_.removeHandler(virtual_handler_.getName());
     }
-    return node_.removeHandler(virtual_handler_.getName());
   }
 
   /**
@@ -153,18 +191,31 @@ public class VirtualNode extends Node {
    */
   @Override
   public Node getChild(String name) {
-    if (children_.containsKey(name)) {
-      return children_.get(name);
-    } else {
-      Node child = node_.getChild(name);
-      if (child == null) {
-        return null;
-      }
-      VirtualNode virtual_child =
-        new VirtualNode(child, virtual_handler_.getName() + ":" + child.getName());
-      children_.put(name, virtual_child);
+    VirtualNode virtual_child = children_.get(name);
+    if (virtual_child != null) {
       return virtual_child;
     }
+    Node child = node_.getChild(name);
+    if (child == null) {
+      return null;
+    }
+    boolean evicted = false;
+    synchronized (lock_) {
+      virtual_child = children_.get(name);
+      if (virtual_child == null) {
+        if (children_.size() >= sweep_threshold_) {
+          evicted = sweep();
+        }
+        virtual_child =
+          new VirtualNode(this, child, virtual_handler_.getName() + ":" + child.getName());
+        children_.put(name, virtual_child);
+      }
+    }
+    if (evicted) {
+      // The path index may refer to the evicted children.
+      Directory.Instance.invalidatePathIndex();
+    }
+    return virtual_child;
   }
 
   /**
@@ -227,7 +278,7 @@ public class VirtualNode extends Node {
    */
   @Override
   public boolean hasHandler(String name) {
-    return handlers_.containsKey(name);
+    return DirectoryNode.indexOf(handlers_, name) >= 0;
   }
 
   /**
@@ -274,16 +325,27 @@ public class VirtualNode extends Node {
    */
   @Override
   public boolean removeHandler(String name) {
-    Handler handler = handlers_.get(name);
-    if (handler == null) {
-      return false;
-    }
-    catch_all_handlers_.remove(handler);
-    if (handlers_.remove(name) == null) {
-      return false;
+    boolean evicted = false;
+    synchronized (lock_) {
+      int index = DirectoryNode.indexOf(handlers_, name);
+      if (index < 0) {
+        return false;
+      }
+      if (handlers_[index].isCatchAll()) {
+        catch_all_handlers_ = DirectoryNode.remove(
+            catch_all_handlers_, DirectoryNode.indexOf(catch_all_handlers_, name));
+      }
+      handlers_ = DirectoryNode.remove(handlers_, index);
+      if (handlers_.length == 0) {
+        node_.removeHandler(virtual_handler_.getName());
+        if (parent_ != null) {
+          evicted = parent_.evict(this);
+        }
+      }
     }
-    if (handlers_.isEmpty()) {
-      node_.removeHandler(virtual_handler_.getName());
+    if (evicted) {
+      // The path index may refer to the evicted node.
+      Directory.Instance.invalidatePathIndex();
     }
     return true;
   }
@@ -300,6 +362,16 @@ public class VirtualNode extends Node {
     return node_.unmount(child);
   }
 
+  /**
+   * Returns the DirectoryNode that this virtual node represents.
+   *
+   * @return The DirectoryNode of the underlying node.
+   */
+  @Override
+  protected DirectoryNode getDirectoryNode() {
+    return node_.getDirectoryNode();
+  }
+
   /**
    * Helper method to walk down a directory path while handling a request.
    *
@@ -312,25 +384,124 @@ public class VirtualNode extends Node {
     return node_.handle(request, path_walker);
   }
 
+  /**
+   * Evicts the specified virtual child from the cache and deactivates it if neither the child nor
+   * any of its cached descendants has handlers. If this node becomes unused as a result, evicts
+   * this node from its parent. Must be called with lock_ held.
+   *
+   * The caller must invalidate the path index if the child was evicted, which is done after lock_
+   * has been released.
+   *
+   * @param child The virtual child to evict.
+   * @return True if the child was evicted.
+   */
+  private boolean evict(VirtualNode child) {
+    if (!child.isUnused() || !children_.remove(child.getName(), child)) {
+      return false;
+    }
+    discard(child);
+    if (parent_ != null && isUnused()) {
+      parent_.evict(this);
+    }
+    return true;
+  }
+
+  /**
+   * Marks the specified virtual child, which has been removed from the cache, and all its cached
+   * descendants as evicted and deactivates them. Must be called with lock_ held.
+   *
+   * @param child The evicted virtual child.
+   */
+  private void discard(VirtualNode child) {
+    child.markEvicted();
+    child.deactivate();
+  }
+
+  /**
+   * Checks whether neither this node nor any of its cached descendants has handlers.
+   * Must be called with lock_ held.
+   *
+   * @return True if this virtual node and its cached descendants have no handlers.
+   */
+  private boolean isUnused() {
+    if (handlers_.length > 0) {
+      return false;
+    }
+    for (VirtualNode child : children_.values()) {
+      if (!child.isUnused()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Marks this virtual node and all its cached descendants as evicted, so that no handlers can
+   * be added to any node of the evicted subtree. Must be called with lock_ held.
+   */
+  private void markEvicted() {
+    evicted_ = true;
+    for (VirtualNode child : children_.values()) {
+      child.markEvicted();
+    }
+  }
+
+  /**
+   * Evicts all cached virtual children that are unused and adjusts the sweep threshold to the
+   * number of remaining children. The threshold at least doubles the number of remaining
+   * children, so that the cost of sweeping is amortized over the creation of virtual children.
+   * Must be called with lock_ held.
+   *
+   * The caller must invalidate the path index if a child was evicted, which is done after lock_
+   * has been released.
+   *
+   * @return True if at least one child was evicted.
+   */
+  private boolean sweep() {
+    boolean evicted = false;
+    for (VirtualNode child : children_.values()) {
+      if (child.isUnused() && children_.remove(child.getName(), child)) {
+        discard(child);
+        evicted = true;
+      }
+    }
+    sweep_threshold_ = Math.max(kMinSweepThreshold, 2 * children_.size());
+    return evicted;
+  }
+
   // True if this node serves as an active overlay on top of the underlying node, i.e. requests
   // to the underlying node are relayed to this node.
   private boolean active_;
 
   // Catch-all handlers associated with this virtual node.
-  private ArrayList<Handler> catch_all_handlers_;
+  // The array is never modified. It is replaced when a catch-all handler is added or removed.
+  private volatile Handler[] catch_all_handlers_;
 
   // Virtual nodes representing the children of the underlying node indexed by their name.
   // The child nodes are not true children but used to extend the overlay. A virtual node
   // has only virtual children that represent the actual children of the underlying node. A
   // virtual node cannot have independent children.
-  private HashMap<String, VirtualNode> children_;
+  private ConcurrentHashMap<String, VirtualNode> children_;
+
+  // True if this node has been evicted from the cache of its parent.
+  private boolean evicted_;
 
   // Handler added to the underlying node.
   private VirtualNodeHandler virtual_handler_;
 
-  // List of handlers associated with this virtual node.
-  private HashMap<String, Handler> handlers_;
+  // Handlers associated with this virtual node in the order in which they were added.
+  // The array is never modified. It is replaced when a handler is added or removed.
+  private volatile Handler[] handlers_;
+
+  // Guards modifications. Shared by a top level virtual node and all of its virtual descendants.
+  private final Object lock_;
 
   // Underlying node.
   private Node node_;
+
+  // Parent virtual node or null if this is a top level virtual node.
+  private VirtualNode parent_;
+
+  // Number of cached virtual children at which unused virtual children are evicted.
+  private int sweep_threshold_;
 }
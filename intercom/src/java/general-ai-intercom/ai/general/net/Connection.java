@@ -5,6 +5,11 @@
 
 package ai.general.net;
 
+import ai.general.common.SerialExecutor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
 /**
  * Base class for connections to remote endpoints.
  *
@@ -58,6 +63,8 @@ package ai.general.net;
  * <li>{@link #call(String, RpcCallback, Object...)}</li>
  * <li>{@link #call(Uri, RpcCallback, Object...)}</li>
  * </ul></p>
+ * Subclasses may override {@link #callBatch(String[], RpcCallback[], Object[][])} to send
+ * multiple calls in a single message.
  *
  * Publish and subscribe/unsubscribe methods:
  * <p><ul>
@@ -73,7 +80,8 @@ package ai.general.net;
  *
  * In addition to making requests, the Connection class also processes incoming requests. This
  * is done via the {@link #process(String)} method. The input to the process method is the
- * protocol specific output produced by the remote endpoint.
+ * protocol specific output produced by the remote endpoint. Protocols that support binary messages
+ * process them via the {@link #process(ByteBuffer)} method.
  *
  * Subclasses must call the {@link #setIsReady(boolean)} method to indicate when the connection is
  * ready to receive and send messages. Depending on the connection protocol, a connection may
@@ -160,6 +168,29 @@ public abstract class Connection {
    */
   public abstract boolean call(Uri method_uri, RpcCallback callback, Object ... arguments);
 
+  /**
+   * Makes multiple RPC calls to the remote endpoint at the specified method paths.
+   *
+   * The calls are sent back-to-back without waiting for responses. The RPC's are executed
+   * asynchronously. When completed the provided RpcCallback's will be called in the order in
+   * which the responses are received.
+   *
+   * By default, each call is made via {@link #call(String, RpcCallback, Object...)}. Subclasses
+   * may override this method to send all calls in a single message if the protocol supports it.
+   *
+   * @param method_paths Method URI paths of the RPC methods to call.
+   * @param callbacks The callbacks to invoke when each RPC returns.
+   * @param arguments The RPC method arguments of each call.
+   * @return For each call, true if the call was sent.
+   */
+  public boolean[] callBatch(String[] method_paths, RpcCallback[] callbacks, Object[][] arguments) {
+    boolean[] sent = new boolean[method_paths.length];
+    for (int i = 0; i < method_paths.length; i++) {
+      sent[i] = call(method_paths[i], callbacks[i], arguments[i]);
+    }
+    return sent;
+  }
+
   /**
    * Closes the connection.
    *
@@ -262,6 +293,21 @@ public abstract class Connection {
    */
   public abstract boolean process(String input);
 
+  /**
+   * Processes an incoming binary message. This method processes messages both on the server and
+   * client side.
+   *
+   * This method returns true if the input conforms to the protocol and could successfully be
+   * interpreted. Connections that do not support binary messages return false, which is the
+   * default implementation.
+   *
+   * @param input Binary message received from remote endpoint.
+   * @return True if the input was successfully interpreted.
+   */
+  public boolean process(ByteBuffer input) {
+    return false;
+  }
+
   /**
    * Sends a publish request to the remote endpoint for the specified topic path with the provided
    * data. This method creates the appropriate URI.
@@ -364,6 +410,23 @@ public abstract class Connection {
    */
   public abstract boolean unsubscribe(Uri topic_uri);
 
+  /**
+   * Returns the executor which serializes the plugin notifications of this connection. A new
+   * executor is created if the specified underlying executor differs from the executor of the
+   * current one.
+   *
+   * This method is called by the {@link ConnectionManager}.
+   *
+   * @param executor The underlying executor which delivers the notifications.
+   * @return The serial executor of this connection.
+   */
+  synchronized SerialExecutor getPluginExecutor(Executor executor) {
+    if (plugin_executor_ == null || plugin_executor_.getExecutor() != executor) {
+      plugin_executor_ = new SerialExecutor(executor);
+    }
+    return plugin_executor_;
+  }
+
   /**
    * Sets the local home directory path.
    *
@@ -433,6 +496,7 @@ public abstract class Connection {
 
   private String home_path_;  // The home directory of this user account.
   private boolean is_ready_;  // True if the connection handshake successfully completed.
+  private SerialExecutor plugin_executor_;  // Serializes plugin notifications.
   private String server_id_;  // Server identification received during welcome handshake.
   private String session_id_;  // Session ID of WAMP session.
   private Uri uri_;  // The connection URI.
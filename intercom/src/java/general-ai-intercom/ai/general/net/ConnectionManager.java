@@ -9,7 +9,9 @@ import ai.general.plugin.PluginManager;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * The ConnectionManager manages all {@link Connection} instances.
@@ -18,12 +20,27 @@ import java.util.HashSet;
  * remove themselves when they are closed.
  *
  * The ConnectionManager interacts with the {@link PluginManager} to notify services of new or
- * closed connections.
+ * closed connections. Connections are added and removed without a global lock. The plugins are
+ * notified by the plugin executor, which by default is the thread that adds or removes the
+ * connection. A thread pool can be set as plugin executor via
+ * {@link #setPluginExecutor(Executor)}, so that the plugins of many connections can be notified
+ * concurrently. Notifications for the same connection are always delivered one at a time in the
+ * order in which the connection was added and removed. To guarantee this order, a connection is
+ * added to or removed from the set of connections and its notification is queued while holding
+ * the lock on the connection.
  *
  * ConnectionManager is a singleton class.
  */
 public class ConnectionManager {
 
+  // Notifies plugins in the thread that adds or removes a connection.
+  private static final Executor kDirectExecutor = new Executor() {
+      @Override
+      public void execute(Runnable task) {
+        task.run();
+      }
+    };
+
   /**
    * Singleton instance.
    */
@@ -34,7 +51,8 @@ public class ConnectionManager {
    * The singleton instance can be obtained via {@link #Instance}.
    */
   private ConnectionManager() {
-    connections_ = new HashSet<Connection>();
+    connections_ = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    plugin_executor_ = kDirectExecutor;
   }
 
   /**
@@ -50,18 +68,25 @@ public class ConnectionManager {
    * connection is closed.
    *
    * The ConnectionManager automatically notifes the {@link PluginManager} of the new connection,
-   * which connects all enabled services to the new connection.
+   * which connects all enabled services to the new connection. The PluginManager is notified via
+   * the plugin executor.
    *
    * @param connection The connection to add to the connection manager.
    * @throws IllegalArgumentException if the connection is not connected.
    */
-  public synchronized void add(Connection connection) {
+  public void add(final Connection connection) {
     if (!connection.isReady()) {
       throw new IllegalArgumentException("Connection must be ready.");
     }
-    if (!connections_.contains(connection)) {
-      connections_.add(connection);
-      PluginManager.Instance.connect(connection);
+    synchronized (connection) {
+      if (connections_.add(connection)) {
+        connection.getPluginExecutor(plugin_executor_).execute(new Runnable() {
+            @Override
+            public void run() {
+              PluginManager.Instance.connect(connection);
+            }
+          });
+      }
     }
   }
 
@@ -74,6 +99,15 @@ public class ConnectionManager {
     return Collections.unmodifiableSet(connections_);
   }
 
+  /**
+   * Returns the executor which notifies plugins of new and closed connections.
+   *
+   * @return The plugin executor.
+   */
+  public Executor getPluginExecutor() {
+    return plugin_executor_;
+  }
+
   /**
    * Returns the number of connections.
    *
@@ -90,15 +124,40 @@ public class ConnectionManager {
    * It should not be called by other classes.
    *
    * The ConnectionManager automatically notifes the {@link PluginManager} that the connection has
-   * been closed, which disconnect all enabled services from the connection.
+   * been closed, which disconnect all enabled services from the connection. The PluginManager is
+   * notified via the plugin executor after it has been notified of the addition of the
+   * connection.
    *
    * @param connection The connection to remove from the connection manager.
    */
-  public synchronized void remove(Connection connection) {
-    if (connections_.remove(connection)) {
-      PluginManager.Instance.disconnect(connection);
+  public void remove(final Connection connection) {
+    synchronized (connection) {
+      if (connections_.remove(connection)) {
+        connection.getPluginExecutor(plugin_executor_).execute(new Runnable() {
+            @Override
+            public void run() {
+              PluginManager.Instance.disconnect(connection);
+            }
+          });
+      }
     }
   }
 
-  private HashSet<Connection> connections_;  // All connections.
+  /**
+   * Sets the executor which notifies plugins of new and closed connections.
+   *
+   * The executor should be bounded. If the executor rejects a notification, the notification is
+   * delivered by the thread that adds or removes the connection. The executor should be set
+   * before connections are added, since notifications that are pending when the executor is
+   * changed are not ordered with notifications that are passed to the new executor.
+   *
+   * @param executor The plugin executor or null to notify plugins in the thread that adds or
+   *                 removes a connection.
+   */
+  public void setPluginExecutor(Executor executor) {
+    plugin_executor_ = executor != null ? executor : kDirectExecutor;
+  }
+
+  private Set<Connection> connections_;  // All connections.
+  private volatile Executor plugin_executor_;  // Notifies plugins of connection changes.
 }
@@ -0,0 +1,126 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import java.net.URI;
+
+/**
+ * A {@link Uri} that cannot be modified.
+ *
+ * ImmutableUri is intended for constant URI's, such as topic URI's that are used in every
+ * request, and for cached URI's. Its string form is computed once at construction, so that
+ * converting it to a string does not create a Java URI. Since an ImmutableUri cannot be
+ * modified, it can be shared between threads and requests without copying.
+ *
+ * All methods that modify the URI throw an UnsupportedOperationException. A modifiable copy can
+ * be created via the {@link Uri#Uri(Uri)} copy constructor. The query parameters of an
+ * ImmutableUri are always shared, so copying it does not modify it.
+ */
+public class ImmutableUri extends Uri {
+
+  /**
+   * Constructs an ImmutableUri using the specified URI string.
+   * See {@link Uri#Uri(String)} for details.
+   *
+   * @param uri_string The URI string.
+   * @throws IllegalArgumentException If the URI string is invalid.
+   */
+  public ImmutableUri(String uri_string) throws IllegalArgumentException {
+    super(new Uri(uri_string));
+    shareParameters();
+    toString();
+  }
+
+  /**
+   * Constructs an ImmutableUri from a Java URI.
+   * See {@link Uri#Uri(URI)} for details.
+   *
+   * @param uri The Java URI to convert to an ImmutableUri.
+   */
+  public ImmutableUri(URI uri) {
+    super(new Uri(uri));
+    shareParameters();
+    toString();
+  }
+
+  /**
+   * Constructs an ImmutableUri with the same components as the specified Uri.
+   *
+   * @param uri The Uri to copy.
+   */
+  public ImmutableUri(Uri uri) {
+    super(uri);
+    shareParameters();
+    toString();
+  }
+
+  /**
+   * Not supported.
+   *
+   * @param name The name of the parameter to remove.
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public void removeParameter(String name) {
+    throw new UnsupportedOperationException("ImmutableUri cannot be modified.");
+  }
+
+  /**
+   * Not supported.
+   *
+   * @param fragment The fragment.
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public void setFragment(String fragment) {
+    throw new UnsupportedOperationException("ImmutableUri cannot be modified.");
+  }
+
+  /**
+   * Not supported.
+   *
+   * @param name The name of the parameter.
+   * @param value The value of the parameter.
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public void setParameter(String name, String value) {
+    throw new UnsupportedOperationException("ImmutableUri cannot be modified.");
+  }
+
+  /**
+   * Not supported.
+   *
+   * @param path The resource path.
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public void setPath(String path) {
+    throw new UnsupportedOperationException("ImmutableUri cannot be modified.");
+  }
+
+  /**
+   * Not supported.
+   *
+   * @param port The port.
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public void setPort(int port) {
+    throw new UnsupportedOperationException("ImmutableUri cannot be modified.");
+  }
+
+  /**
+   * Not supported.
+   *
+   * @param user The user information.
+   * @throws UnsupportedOperationException always.
+   */
+  @Override
+  public void setUser(String user) {
+    throw new UnsupportedOperationException("ImmutableUri cannot be modified.");
+  }
+}
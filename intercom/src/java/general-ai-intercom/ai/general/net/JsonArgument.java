@@ -0,0 +1,198 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import ai.general.directory.DeferredArgument;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * A request argument that is kept as a buffer of JSON tokens until it is needed.
+ *
+ * JsonArgument allows binding a JSON value received from a remote endpoint directly to the
+ * type expected by a handler in a single pass, without first decoding the value into generic
+ * maps and lists. Handlers that do not know the expected type can obtain the generic value via
+ * {@link #getValue()}.
+ *
+ * JsonArgument is serializable by Jackson. When a JsonArgument is relayed to another endpoint,
+ * its tokens are copied to the output without decoding the value.
+ *
+ * A JsonArgument can also wrap a value that has already been decoded, such as a POJO published by
+ * a server side service. In either case, the JSON text of the argument can be obtained via
+ * {@link #getJson()}. The JSON text is generated only once, which allows sending the same
+ * argument to many endpoints while serializing it only once.
+ *
+ * JsonArgument is thread-safe.
+ */
+public class JsonArgument implements DeferredArgument, JsonSerializable {
+
+  /**
+   * Creates a JsonArgument from the specified token buffer.
+   * The token buffer must contain exactly one JSON value and must not be modified after
+   * construction.
+   *
+   * @param tokens Buffer that holds the tokens of the JSON value.
+   */
+  public JsonArgument(TokenBuffer tokens) {
+    this.tokens_ = tokens;
+    value_ = null;
+    decoded_ = false;
+    json_ = null;
+  }
+
+  /**
+   * Creates a JsonArgument that wraps an already decoded value.
+   * The value must be serializable by Jackson and must not be modified after construction.
+   *
+   * @param value The value to wrap.
+   * @return A JsonArgument that wraps the value.
+   */
+  public static JsonArgument of(Object value) {
+    JsonArgument argument = new JsonArgument(null);
+    argument.value_ = value;
+    argument.decoded_ = true;
+    return argument;
+  }
+
+  /**
+   * Reads the JSON value at the current token of the specified parser into a new JsonArgument.
+   * After this method returns, the parser is positioned at the last token of the value.
+   *
+   * @param parser The parser positioned at the first token of the value.
+   * @return A JsonArgument that holds the value.
+   * @throws IOException if the value cannot be read.
+   */
+  public static JsonArgument read(JsonParser parser) throws IOException {
+    TokenBuffer tokens = new TokenBuffer(JsonCodec.Instance.getMapper());
+    tokens.copyCurrentStructure(parser);
+    return new JsonArgument(tokens);
+  }
+
+  /**
+   * Decodes the JSON value using the specified reader.
+   *
+   * Each call decodes the value again. The returned value is not shared with other callers.
+   *
+   * @param reader The reader for the expected type.
+   * @return The decoded value.
+   * @throws IllegalArgumentException if the value cannot be decoded into the type of the reader.
+   */
+  public <T> T bind(ObjectReader reader) {
+    try {
+      return reader.readValue(getTokens().asParser());
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Returns the JSON text of the argument.
+   * The JSON text is generated on the first call and the same text is returned on subsequent
+   * calls.
+   *
+   * @return The JSON text of the argument.
+   * @throws JsonProcessingException if the argument cannot be serialized.
+   */
+  public String getJson() throws JsonProcessingException {
+    String json = json_;
+    if (json == null) {
+      json = JsonCodec.Instance.getMapper().writeValueAsString(this);
+      json_ = json;
+    }
+    return json;
+  }
+
+  /**
+   * Returns the generic value of the JSON value.
+   *
+   * If this JsonArgument wraps an already decoded value, returns the wrapped value.
+   * Otherwise, the tokens are decoded once by the first caller. Concurrent callers wait for the
+   * decoded value, so that all callers receive the same instance.
+   *
+   * @return The generic value.
+   * @throws IllegalArgumentException if the tokens cannot be decoded.
+   */
+  @Override
+  public Object getValue() {
+    if (!decoded_) {
+      synchronized (this) {
+        if (!decoded_) {
+          try {
+            value_ = JsonCodec.Instance.getMapper().readValue(tokens_.asParser(), Object.class);
+          } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+          }
+          decoded_ = true;
+        }
+      }
+    }
+    return value_;
+  }
+
+  /**
+   * Writes the JSON value to the specified generator.
+   *
+   * @param generator The generator to which the value is written.
+   * @param provider Serializer provider.
+   * @throws IOException if the value cannot be written.
+   */
+  @Override
+  public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+    TokenBuffer tokens = tokens_;
+    if (tokens != null) {
+      tokens.serialize(generator);
+    } else {
+      provider.defaultSerializeValue(value_, generator);
+    }
+  }
+
+  /**
+   * Writes the JSON value to the specified generator. JsonArgument does not support type
+   * information, so this method is equivalent to {@link #serialize}.
+   *
+   * @param generator The generator to which the value is written.
+   * @param provider Serializer provider.
+   * @param type_serializer Ignored.
+   * @throws IOException if the value cannot be written.
+   */
+  @Override
+  public void serializeWithType(JsonGenerator generator,
+                                SerializerProvider provider,
+                                TypeSerializer type_serializer) throws IOException {
+    serialize(generator, provider);
+  }
+
+  /**
+   * Returns the tokens of the JSON value. If this JsonArgument wraps an already decoded value,
+   * the tokens are generated from the value on first use.
+   *
+   * @return The tokens of the JSON value.
+   * @throws IOException if the wrapped value cannot be serialized.
+   */
+  private TokenBuffer getTokens() throws IOException {
+    TokenBuffer tokens = tokens_;
+    if (tokens == null) {
+      tokens = new TokenBuffer(JsonCodec.Instance.getMapper());
+      JsonCodec.Instance.getMapper().writeValue(tokens, value_);
+      tokens_ = tokens;
+    }
+    return tokens;
+  }
+
+  private volatile boolean decoded_;  // True if value_ has been decoded.
+  private volatile String json_;  // The JSON text once generated.
+  private volatile TokenBuffer tokens_;  // The tokens of the JSON value.
+  private volatile Object value_;  // The generic value once decoded.
+}
@@ -0,0 +1,257 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Process-wide registry of JSON codecs.
+ *
+ * JsonCodec holds a single, shared ObjectMapper and hands out ObjectReader and ObjectWriter
+ * instances per target type. Readers and writers are created once per type and cached, so all
+ * connections, handlers and remote method calls share the same serializer and deserializer caches.
+ *
+ * The shared ObjectMapper must not be reconfigured after it has been created, since it is used
+ * concurrently by all threads. ObjectReader and ObjectWriter instances are immutable and
+ * thread-safe.
+ *
+ * Types that are known to be used frequently can be pre-warmed via {@link #warmUp(Type...)}.
+ * Pre-warming creates and caches the serializers and deserializers for a type, so that the first
+ * message of each new connection does not pay for their construction.
+ *
+ * In addition to JSON text, JsonCodec can read and write Smile, a binary encoding of JSON. Smile
+ * parsers and generators use the shared ObjectMapper as their codec, so JSON and Smile share the
+ * same serializers and deserializers.
+ */
+public class JsonCodec {
+
+  /** Singleton instance. */
+  public static final JsonCodec Instance = new JsonCodec();
+
+  /**
+   * JsonCodec is a singleton.
+   * Pre-warms the types used by the WAMP protocol implementation.
+   */
+  private JsonCodec() {
+    mapper_ = new ObjectMapper();
+    smile_factory_ = new SmileFactory(mapper_);
+    readers_ = new ConcurrentHashMap<JavaType, ObjectReader>();
+    writers_ = new ConcurrentHashMap<JavaType, ObjectWriter>();
+    object_array_type_ = mapper_.getTypeFactory().constructArrayType(Object.class);
+    string_array_list_type_ =
+      mapper_.getTypeFactory().constructCollectionType(ArrayList.class, String.class);
+    warmUp(object_array_type_, string_array_list_type_);
+  }
+
+  /**
+   * Converts the specified value to the specified type.
+   *
+   * Conversion uses the shared ObjectMapper and is typically used to convert generic JSON
+   * data, such as maps and lists, to a POJO.
+   *
+   * @param value The value to convert.
+   * @param type The target type.
+   * @return The converted value.
+   * @throws IllegalArgumentException if the value cannot be converted to the specified type.
+   */
+  public <T> T convert(Object value, Class<T> type) {
+    return mapper_.convertValue(value, type);
+  }
+
+  /**
+   * Converts the specified value to the specified type.
+   *
+   * @param value The value to convert.
+   * @param type The target type.
+   * @return The converted value.
+   * @throws IllegalArgumentException if the value cannot be converted to the specified type.
+   */
+  public <T> T convert(Object value, JavaType type) {
+    return mapper_.convertValue(value, type);
+  }
+
+  /**
+   * Creates a streaming parser for the specified JSON content.
+   * The parser uses the shared ObjectMapper as its codec.
+   *
+   * @param content JSON content to parse.
+   * @return A new parser for the content.
+   * @throws IOException if the parser cannot be created.
+   */
+  public JsonParser createParser(String content) throws IOException {
+    return mapper_.getFactory().createParser(content);
+  }
+
+  /**
+   * Creates a streaming parser for the specified Smile content.
+   * The parser uses the shared ObjectMapper as its codec.
+   *
+   * @param content Buffer that holds the Smile content.
+   * @param offset Offset of the first byte of the content.
+   * @param length Length of the content in bytes.
+   * @return A new parser for the content.
+   * @throws IOException if the parser cannot be created.
+   */
+  public JsonParser createSmileParser(byte[] content, int offset, int length) throws IOException {
+    return smile_factory_.createParser(content, offset, length);
+  }
+
+  /**
+   * Returns the shared ObjectMapper.
+   *
+   * The returned ObjectMapper must not be reconfigured.
+   *
+   * @return The shared ObjectMapper.
+   */
+  public ObjectMapper getMapper() {
+    return mapper_;
+  }
+
+  /**
+   * Returns the Object[] type used to parse generic JSON arrays.
+   *
+   * @return The Object[] type.
+   */
+  public JavaType getObjectArrayType() {
+    return object_array_type_;
+  }
+
+  /**
+   * Returns a thread-safe ObjectReader for the specified type.
+   *
+   * @param type The type of the values to read.
+   * @return An ObjectReader for the specified type.
+   */
+  public ObjectReader getReader(Type type) {
+    return getReader(mapper_.getTypeFactory().constructType(type));
+  }
+
+  /**
+   * Returns a thread-safe ObjectReader for the specified type.
+   * Readers are created on first use and cached.
+   *
+   * @param type The type of the values to read.
+   * @return An ObjectReader for the specified type.
+   */
+  public ObjectReader getReader(JavaType type) {
+    ObjectReader reader = readers_.get(type);
+    if (reader == null) {
+      reader = mapper_.reader(type);
+      ObjectReader existing = readers_.putIfAbsent(type, reader);
+      if (existing != null) {
+        reader = existing;
+      }
+    }
+    return reader;
+  }
+
+  /**
+   * Returns the ArrayList<String> type used to parse lists of strings.
+   *
+   * @return The ArrayList<String> type.
+   */
+  public JavaType getStringArrayListType() {
+    return string_array_list_type_;
+  }
+
+  /**
+   * Returns a thread-safe ObjectWriter for the specified type.
+   *
+   * @param type The type of the values to write.
+   * @return An ObjectWriter for the specified type.
+   */
+  public ObjectWriter getWriter(Type type) {
+    return getWriter(mapper_.getTypeFactory().constructType(type));
+  }
+
+  /**
+   * Returns a thread-safe ObjectWriter for the specified type.
+   * Writers are created on first use and cached.
+   *
+   * @param type The type of the values to write.
+   * @return An ObjectWriter for the specified type.
+   */
+  public ObjectWriter getWriter(JavaType type) {
+    ObjectWriter writer = writers_.get(type);
+    if (writer == null) {
+      writer = mapper_.writerWithType(type);
+      ObjectWriter existing = writers_.putIfAbsent(type, writer);
+      if (existing != null) {
+        writer = existing;
+      }
+    }
+    return writer;
+  }
+
+  /**
+   * Pre-warms the specified types.
+   *
+   * Creates readers and writers for the specified types and constructs the serializers and
+   * deserializers for the types in the shared ObjectMapper. Types that cannot be serialized or
+   * deserialized are ignored. Types that have already been pre-warmed are skipped.
+   *
+   * @param types The types to pre-warm.
+   */
+  public void warmUp(Type ... types) {
+    for (Type type : types) {
+      warmUp(mapper_.getTypeFactory().constructType(type));
+    }
+  }
+
+  /**
+   * Pre-warms the specified types.
+   *
+   * @param types The types to pre-warm.
+   */
+  public void warmUp(JavaType ... types) {
+    for (JavaType type : types) {
+      if (readers_.containsKey(type)) {
+        continue;
+      }
+      getReader(type);
+      getWriter(type);
+      mapper_.canDeserialize(type);
+      mapper_.canSerialize(type.getRawClass());
+    }
+  }
+
+  /**
+   * Serializes the specified value as Smile.
+   *
+   * @param value The value to serialize.
+   * @return The Smile encoded value.
+   * @throws IOException if the value cannot be serialized.
+   */
+  public byte[] writeValueAsSmile(Object value) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    JsonGenerator generator = smile_factory_.createGenerator(output);
+    try {
+      mapper_.writeValue(generator, value);
+    } finally {
+      generator.close();
+    }
+    return output.toByteArray();
+  }
+
+  private ObjectMapper mapper_;  // Shared JSON parser and generator.
+  private JavaType object_array_type_;  // Object[] type used in JSON parsing.
+  private ConcurrentHashMap<JavaType, ObjectReader> readers_;  // Readers by type.
+  private SmileFactory smile_factory_;  // Creates Smile parsers and generators.
+  private JavaType string_array_list_type_;  // ArrayList<String> type used in JSON parsing.
+  private ConcurrentHashMap<JavaType, ObjectWriter> writers_;  // Writers by type.
+}
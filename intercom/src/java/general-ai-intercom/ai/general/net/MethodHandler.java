@@ -9,11 +9,16 @@ import ai.general.directory.Handler;
 import ai.general.directory.Request;
 import ai.general.directory.Result;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
@@ -25,6 +30,17 @@ import org.apache.logging.log4j.LogManager;
  * The method is specified via a Method object. MethodHandler checks whether the request
  * data matches the method signature and converts the request data to method arguments.
  *
+ * The method is compiled into an invoker when the MethodHandler is created. The invoker is a
+ * MethodHandle that is bound to the instance and accepts the arguments as an array, so that each
+ * request is handled via a single exact invocation without the access checks and argument
+ * unwrapping of reflective calls. Readers for the parameters are built from the full generic
+ * parameter types, so that parameters such as lists of beans are converted to their declared
+ * element types.
+ *
+ * Alternatively, a MethodHandler can be created with a {@link MethodInvoker} that calls the
+ * method directly. Such invokers are generated at compile time for service classes. See
+ * {@link ai.general.plugin.ServiceBinding}.
+ *
  * MethodHandler can handle both event methods and RPC methods. Event methods have no return
  * value and process incoming publish or event messages. RPC methods process RPC calls and
  * may return values or errors.
@@ -35,6 +51,33 @@ import org.apache.logging.log4j.LogManager;
  */
 public class MethodHandler extends Handler {
 
+  /**
+   * Calls a method via a MethodHandle of type (Object[])Object.
+   */
+  private static class MethodHandleInvoker implements MethodInvoker {
+
+    /**
+     * @param handle The MethodHandle that calls the method.
+     */
+    public MethodHandleInvoker(MethodHandle handle) {
+      this.handle_ = handle;
+    }
+
+    /**
+     * Calls the method with the specified arguments.
+     *
+     * @param arguments The method arguments.
+     * @return The return value of the method or null if the method has no return value.
+     * @throws Throwable any exception thrown by the method.
+     */
+    @Override
+    public Object invoke(Object[] arguments) throws Throwable {
+      return (Object) handle_.invokeExact(arguments);
+    }
+
+    private final MethodHandle handle_;  // Calls the method.
+  }
+
   /**
    * The specified instance must be an instance of the class that defines the method or a
    * subclass of that class. It may be null for static methods.
@@ -67,10 +110,27 @@ public class MethodHandler extends Handler {
         throw new IllegalArgumentException("Incompatible instance object.");
       }
     }
-    this.instance_ = instance;
-    this.method_ = method;
-    parameter_types_ = method.getParameterTypes();
-    json_parser_ = new ObjectMapper();
+    initializeParameters(method.getGenericParameterTypes());
+    invoker_ = createInvoker(instance, method);
+  }
+
+  /**
+   * Creates a MethodHandler that calls a method via the specified invoker.
+   *
+   * The parameter types must be the generic parameter types of the method called by the invoker.
+   * The same restrictions apply to the method as for
+   * {@link #MethodHandler(String, boolean, Object, Method)}.
+   *
+   * @param name A unique name for the MethodHandler.
+   * @param catchall True if this a catch-all handler.
+   * @param invoker Calls the method.
+   * @param parameter_types The generic parameter types of the method.
+   */
+  public MethodHandler(String name, boolean catchall, MethodInvoker invoker,
+                       Type[] parameter_types) {
+    super(name, catchall);
+    initializeParameters(parameter_types);
+    invoker_ = invoker;
   }
 
   /**
@@ -82,28 +142,36 @@ public class MethodHandler extends Handler {
    */
   public void handle(Request request) {
     log.entry(request.getUri().toString());
+    if (invoker_ == null) {
+      request.getResult().addError(
+          new Result.Error("cannot call method with specified arguments", null));
+      log.exit("method not accessible");
+      return;
+    }
     try {
-      Object[] raw_args = request.getArguments().toArray();
-      if (raw_args.length != parameter_types_.length) {
+      int num_args = request.numArguments();
+      if (num_args != parameter_types_.length) {
         request.getResult().addError(
             new Result.Error("invalid number of method arguments",
-                             "got " + raw_args.length + " arguments for method with " +
+                             "got " + num_args + " arguments for method with " +
                              parameter_types_.length + " arguments"));
         log.exit("invalid number of arguments");
         return;
       }
-      Object[] args = new Object[raw_args.length];
-      for (int i = 0; i < raw_args.length; i++) {
-        args[i] = json_parser_.convertValue(raw_args[i], parameter_types_[i]);
-      }
-      Object result = method_.invoke(instance_, args);
-      if (result != null) {
-        request.getResult().addValue(result);
+      Object[] args = new Object[num_args];
+      for (int i = 0; i < num_args; i++) {
+        Object raw_arg = request.getUndecodedArgument(i);
+        if (raw_arg instanceof JsonArgument) {
+          args[i] = ((JsonArgument) raw_arg).bind(parameter_readers_[i]);
+        } else {
+          args[i] = JsonCodec.Instance.convert(request.getArgument(i), parameter_types_[i]);
+        }
       }
-    } catch (InvocationTargetException e) {
-      log.catching(Level.TRACE, e);
-      Throwable cause = e.getCause();
-      if (cause != null) {
+      Object result;
+      try {
+        result = invoker_.invoke(args);
+      } catch (Throwable cause) {
+        log.catching(Level.TRACE, cause);
         if (cause instanceof RpcException) {
           request.getResult().addError(
               new Result.Error(cause.getMessage(), ((RpcException) cause).getDetails()));
@@ -111,14 +179,12 @@ public class MethodHandler extends Handler {
           request.getResult().addError(
               new Result.Error(cause.getClass().getName(), cause.getMessage()));
         }
-      } else {
-        request.getResult().addError(
-            new Result.Error("unspecified exception thrown by RPC method", null));
+        log.exit("method exception");
+        return;
+      }
+      if (result != null) {
+        request.getResult().addValue(result);
       }
-    } catch (ReflectiveOperationException e) {
-      log.catching(Level.TRACE, e);
-      request.getResult().addError(
-          new Result.Error("cannot call method with specified arguments", null));
     } catch (Exception e) {
       log.catching(Level.TRACE, e);
       request.getResult().addError(new Result.Error(e.getClass().getName(), e.getMessage()));
@@ -126,10 +192,52 @@ public class MethodHandler extends Handler {
     log.exit();
   }
 
+  /**
+   * Creates an invoker that calls the specified method with the specified instance via a
+   * MethodHandle. The MethodHandle has the type (Object[])Object. It accepts the method arguments
+   * as an array and returns null for void methods.
+   *
+   * @param instance Instance associated with method. Ignored for static methods.
+   * @param method The method to be called.
+   * @return The invoker or null if the method is not accessible.
+   */
+  private static MethodInvoker createInvoker(Object instance, Method method) {
+    MethodHandle handle;
+    try {
+      handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+    } catch (IllegalAccessException e) {
+      log.catching(Level.DEBUG, e);
+      return null;
+    }
+    if (!Modifier.isStatic(method.getModifiers())) {
+      handle = handle.bindTo(instance);
+    }
+    return new MethodHandleInvoker(
+        handle.asSpreader(Object[].class, method.getParameterTypes().length)
+        .asType(MethodType.methodType(Object.class, Object[].class)));
+  }
+
+  /**
+   * Creates the parameter types and readers for the specified generic parameter types.
+   *
+   * @param parameter_types The generic parameter types of the method.
+   */
+  private void initializeParameters(Type[] parameter_types) {
+    TypeFactory type_factory = JsonCodec.Instance.getMapper().getTypeFactory();
+    parameter_types_ = new JavaType[parameter_types.length];
+    for (int i = 0; i < parameter_types.length; i++) {
+      parameter_types_[i] = type_factory.constructType(parameter_types[i]);
+    }
+    JsonCodec.Instance.warmUp(parameter_types_);
+    parameter_readers_ = new ObjectReader[parameter_types_.length];
+    for (int i = 0; i < parameter_types_.length; i++) {
+      parameter_readers_[i] = JsonCodec.Instance.getReader(parameter_types_[i]);
+    }
+  }
+
   private static Logger log = LogManager.getLogger();
 
-  private Object instance_;  // The object instance that is associated with the method call.
-  private ObjectMapper json_parser_;  // JSON parser.
-  private Method method_;  // The method to be called.
-  private Class<?>[] parameter_types_;  // The parameter types of the method.
+  private MethodInvoker invoker_;  // Calls the method. Null if the method is not accessible.
+  private ObjectReader[] parameter_readers_;  // Readers for each parameter type.
+  private JavaType[] parameter_types_;  // The generic parameter types of the method.
 }
@@ -0,0 +1,26 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+/**
+ * Calls a method with arguments that have already been converted to the method parameter types.
+ *
+ * MethodInvokers are used by {@link MethodHandler} to call service methods. Service bindings
+ * generated at compile time implement MethodInvoker with a direct call of the service method.
+ * See {@link ai.general.plugin.ServiceBinding}.
+ */
+public interface MethodInvoker {
+
+  /**
+   * Calls the method with the specified arguments.
+   *
+   * @param arguments The method arguments. Each argument matches the corresponding parameter
+   *                  type. Primitive arguments are boxed.
+   * @return The return value of the method or null if the method has no return value.
+   * @throws Throwable any exception thrown by the method.
+   */
+  Object invoke(Object[] arguments) throws Throwable;
+}
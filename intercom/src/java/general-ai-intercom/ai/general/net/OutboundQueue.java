@@ -0,0 +1,383 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Bounded outbound message queue for asynchronous transports.
+ *
+ * Messages are added to a bounded queue and the send methods return immediately. At most one
+ * message is in flight at any time. Subclasses start the transmission of a message in
+ * {@link #transmitText(String)} or {@link #transmitBinary(ByteBuffer)} and report its
+ * completion via {@link #transmitted(Throwable)}, which sends the next queued message. Messages
+ * are therefore delivered in order and a slow remote endpoint does not block the threads that
+ * send messages to it.
+ *
+ * When the queue is full, messages are handled according to the {@link OverflowPolicy} passed
+ * along with them. Messages sent via the plain {@link OutputSender} methods, such as RPC
+ * results, use the {@link OverflowPolicy#NeverDrop} policy. NeverDrop messages may grow the queue
+ * beyond its maximum size up to {@link #kHardLimitFactor} times the maximum size. If the remote
+ * endpoint falls further behind, the queue fails as if a transmission had failed.
+ *
+ * Transmissions that complete within {@link #transmitText(String)} or
+ * {@link #transmitBinary(ByteBuffer)} do not recurse into the next transmission. Instead, the
+ * thread that started the transmission sends the next message in a loop.
+ *
+ * If a transmission fails, the queue is closed, all queued and subsequent messages are dropped
+ * and {@link #onFailure(Throwable)} is called once, so that the subclass can close the
+ * underlying connection.
+ *
+ * OutboundQueue keeps counters of the current queue depth and of dropped and conflated messages.
+ *
+ * OutboundQueue is thread-safe.
+ */
+public abstract class OutboundQueue implements TopicOutputSender {
+
+  /** Default maximum number of queued messages. */
+  public static final int kDefaultMaxQueueSize = 256;
+
+  /** Factor by which NeverDrop messages may grow the queue beyond its maximum size. */
+  public static final int kHardLimitFactor = 4;
+
+  /**
+   * Represents a queued outbound message.
+   */
+  private static class OutboundMessage {
+
+    /**
+     * @param text Text message or null.
+     * @param binary Binary message or null.
+     * @param topic Topic URI of the message or null.
+     * @param policy The overflow policy of the message.
+     */
+    public OutboundMessage(String text, ByteBuffer binary, String topic, OverflowPolicy policy) {
+      this.text = text;
+      this.binary = binary;
+      this.topic = topic;
+      this.policy = policy;
+    }
+
+    public ByteBuffer binary;  // Binary message or null.
+    public OverflowPolicy policy;  // Overflow policy of the message.
+    public String text;  // Text message or null.
+    public String topic;  // Topic URI of the message or null.
+  }
+
+  /**
+   * @param max_queue_size The maximum number of messages that may be queued.
+   */
+  public OutboundQueue(int max_queue_size) {
+    this.max_queue_size_ = max_queue_size;
+    this.username_ = "[null]";
+    this.session_id_ = "[null]";
+    queue_ = new ArrayDeque<OutboundMessage>();
+    sending_ = false;
+    transmitting_ = false;
+    completed_ = false;
+    closed_ = false;
+    conflated_count_ = 0;
+    dropped_count_ = 0;
+  }
+
+  /**
+   * Returns the number of messages that have been replaced by a newer message of the same topic.
+   *
+   * @return The number of conflated messages.
+   */
+  public synchronized long getConflatedCount() {
+    return conflated_count_;
+  }
+
+  /**
+   * Returns the number of messages that have been dropped because the queue was full or a
+   * transmission has failed.
+   *
+   * @return The number of dropped messages.
+   */
+  public synchronized long getDroppedCount() {
+    return dropped_count_;
+  }
+
+  /**
+   * Returns the number of messages that are waiting to be sent.
+   * The message in flight is not included.
+   *
+   * @return The current queue depth.
+   */
+  public synchronized int getQueueDepth() {
+    return queue_.size();
+  }
+
+  /**
+   * Returns true if a transmission has failed. A closed queue drops all messages.
+   *
+   * @return True if the queue is closed.
+   */
+  public synchronized boolean isClosed() {
+    return closed_;
+  }
+
+  /**
+   * Queues a binary message to be sent to the remote endpoint.
+   * The message is never dropped.
+   *
+   * @param data Binary data to send.
+   * @return True if the data was queued.
+   */
+  @Override
+  public boolean sendBinary(ByteBuffer data) {
+    return enqueue(new OutboundMessage(null, data, null, OverflowPolicy.NeverDrop));
+  }
+
+  /**
+   * Queues a binary publish or event message to be sent to the remote endpoint.
+   *
+   * @param data Binary data to send.
+   * @param topic The topic URI of the message.
+   * @param policy The overflow policy of the topic.
+   * @return True if the data was queued.
+   */
+  @Override
+  public boolean sendBinary(ByteBuffer data, String topic, OverflowPolicy policy) {
+    return enqueue(new OutboundMessage(null, data, topic, policy));
+  }
+
+  /**
+   * Queues a text message to be sent to the remote endpoint.
+   * The message is never dropped.
+   *
+   * @param text Text message to send.
+   * @return True if the message was queued.
+   */
+  @Override
+  public boolean sendText(String text) {
+    return enqueue(new OutboundMessage(text, null, null, OverflowPolicy.NeverDrop));
+  }
+
+  /**
+   * Queues a text publish or event message to be sent to the remote endpoint.
+   *
+   * @param text Text message to send.
+   * @param topic The topic URI of the message.
+   * @param policy The overflow policy of the topic.
+   * @return True if the message was queued.
+   */
+  @Override
+  public boolean sendText(String text, String topic, OverflowPolicy policy) {
+    return enqueue(new OutboundMessage(text, null, topic, policy));
+  }
+
+  /**
+   * Sets information about the user account that is used for logging.
+   *
+   * @param username The username of the user at the remote end.
+   * @param session_id The session with which this OutboundQueue is associated.
+   */
+  public void setUserInfo(String username, String session_id) {
+    this.username_ = username != null ? username : "[null]";
+    this.session_id_ = session_id != null ? session_id : "[null]";
+  }
+
+  /**
+   * Called once when a transmission has failed and the queue has been closed.
+   * Subclasses should close the underlying connection.
+   *
+   * @param cause The cause of the failure.
+   */
+  protected abstract void onFailure(Throwable cause);
+
+  /**
+   * Starts the transmission of a binary message. Once the transmission is complete,
+   * {@link #transmitted(Throwable)} must be called.
+   *
+   * @param data The binary message.
+   */
+  protected abstract void transmitBinary(ByteBuffer data);
+
+  /**
+   * Starts the transmission of a text message. Once the transmission is complete,
+   * {@link #transmitted(Throwable)} must be called.
+   *
+   * @param text The text message.
+   */
+  protected abstract void transmitText(String text);
+
+  /**
+   * Reports the completion of the message in flight and sends the next queued message.
+   * If the transmission has failed, the queue is closed.
+   *
+   * @param error The cause of the failure or null if the message was sent successfully.
+   */
+  protected void transmitted(Throwable error) {
+    if (error != null) {
+      fail(error);
+      return;
+    }
+    synchronized (this) {
+      if (transmitting_) {
+        // The thread that started the transmission sends the next message.
+        completed_ = true;
+        return;
+      }
+    }
+    sendNext();
+  }
+
+  /**
+   * Adds a message to the outbound queue and starts sending if no message is in flight.
+   *
+   * @param message The message to queue.
+   * @return True if the message was queued.
+   */
+  private boolean enqueue(OutboundMessage message) {
+    boolean overflow = false;
+    synchronized (this) {
+      if (closed_) {
+        dropped_count_++;
+        return false;
+      }
+      if (message.policy == OverflowPolicy.ConflateLatest) {
+        for (OutboundMessage queued : queue_) {
+          if (message.topic.equals(queued.topic)) {
+            queued.text = message.text;
+            queued.binary = message.binary;
+            conflated_count_++;
+            return true;
+          }
+        }
+      }
+      if (queue_.size() >= max_queue_size_) {
+        if (!dropOldest()) {
+          if (message.policy != OverflowPolicy.NeverDrop) {
+            dropped_count_++;
+            log.debug("({}/{}) queue full, dropped message", username_, session_id_);
+            return false;
+          }
+          overflow = queue_.size() >= max_queue_size_ * kHardLimitFactor;
+        }
+      }
+      if (!overflow) {
+        queue_.add(message);
+        if (sending_) {
+          return true;
+        }
+        sending_ = true;
+      } else {
+        dropped_count_++;
+      }
+    }
+    if (overflow) {
+      fail(new IllegalStateException("Outbound queue exceeded its hard limit."));
+      return false;
+    }
+    sendNext();
+    return true;
+  }
+
+  /**
+   * Removes the oldest queued message that may be dropped.
+   * Must be called while holding the lock on this instance.
+   *
+   * @return True if a message was dropped.
+   */
+  private boolean dropOldest() {
+    Iterator<OutboundMessage> iterator = queue_.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().policy != OverflowPolicy.NeverDrop) {
+        iterator.remove();
+        dropped_count_++;
+        log.debug("({}/{}) queue full, dropped oldest message", username_, session_id_);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Closes the queue after a failed transmission and discards all queued messages.
+   * Calls {@link #onFailure(Throwable)} if the queue was not closed yet.
+   *
+   * @param cause The cause of the failure.
+   */
+  private void fail(Throwable cause) {
+    log.catching(Level.DEBUG, cause);
+    synchronized (this) {
+      // The failed message in flight is counted as dropped.
+      dropped_count_ += queue_.size() + 1;
+      queue_.clear();
+      sending_ = false;
+      transmitting_ = false;
+      if (closed_) {
+        return;
+      }
+      closed_ = true;
+    }
+    log.debug("({}/{}) send failed, closing", username_, session_id_);
+    onFailure(cause);
+  }
+
+  /**
+   * Sends the queued messages until the queue is empty or a transmission does not complete
+   * immediately. If the queue is empty, marks the queue as idle.
+   *
+   * This method is called when a message has been queued while the queue was idle and after the
+   * message in flight has been transmitted asynchronously.
+   */
+  private void sendNext() {
+    while (true) {
+      OutboundMessage message;
+      synchronized (this) {
+        message = queue_.poll();
+        if (message == null) {
+          sending_ = false;
+          return;
+        }
+        transmitting_ = true;
+        completed_ = false;
+      }
+      try {
+        if (message.text != null) {
+          transmitText(message.text);
+          log.debug("({}/{}) << {}", username_, session_id_, message.text);
+        } else {
+          int size = message.binary.remaining();
+          transmitBinary(message.binary);
+          log.debug("({}/{}) << (binary {} bytes)", username_, session_id_, size);
+        }
+      } catch (RuntimeException e) {
+        fail(e);
+        return;
+      }
+      synchronized (this) {
+        transmitting_ = false;
+        if (!completed_ || closed_) {
+          // The completion of the transmission sends the next message.
+          return;
+        }
+      }
+    }
+  }
+
+  private static Logger log = LogManager.getLogger();
+
+  private boolean closed_;  // True if a transmission has failed.
+  private boolean completed_;  // True if the message in flight completed during transmission.
+  private long conflated_count_;  // Number of conflated messages.
+  private long dropped_count_;  // Number of dropped messages.
+  private int max_queue_size_;  // Maximum number of queued messages.
+  private ArrayDeque<OutboundMessage> queue_;  // Messages waiting to be sent.
+  private boolean sending_;  // True if a message is in flight.
+  private boolean transmitting_;  // True while a transmission is being started.
+  private volatile String session_id_;  // Session ID used for logging.
+  private volatile String username_;  // Username used for logging.
+}
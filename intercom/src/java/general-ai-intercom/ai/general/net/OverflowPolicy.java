@@ -0,0 +1,30 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+/**
+ * Specifies how messages of a topic are handled when an outbound queue is full.
+ */
+public enum OverflowPolicy {
+  /**
+   * A new message replaces a queued message of the same topic that has not been sent yet.
+   * Suitable for topics where only the latest value matters, such as velocity commands.
+   * If there is no queued message of the same topic, the message is handled like DropOldest.
+   */
+  ConflateLatest,
+
+  /**
+   * When the queue is full, the oldest queued message that may be dropped is removed.
+   * Suitable for telemetry.
+   */
+  DropOldest,
+
+  /**
+   * Messages are never dropped. The queue may grow beyond its maximum size to hold these
+   * messages.
+   */
+  NeverDrop,
+}
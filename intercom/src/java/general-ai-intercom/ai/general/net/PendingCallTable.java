@@ -0,0 +1,200 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import ai.general.common.HashedWheelTimer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of RPC calls that have been sent to a remote endpoint and await a response.
+ *
+ * Each pending call is identified by a numeric call ID that is unique within the table. Calls that
+ * do not receive a response within the expiry time are removed from the table and their callback
+ * is invoked with a timeout error. This ensures that calls do not leak if the remote endpoint
+ * never responds.
+ *
+ * The expiry time should be longer than the time callers wait for a call to complete, since
+ * callers may continue to wait for a call after a wait has timed out. Expiry is approximate and
+ * may occur up to a few hundred milliseconds late. Calls are expired by the shared
+ * {@link HashedWheelTimer}.
+ *
+ * When the connection is closed, all outstanding calls can be failed at once via
+ * {@link #failAll(Uri, String)}.
+ *
+ * PendingCallTable provides gauges for the number of outstanding calls in the table and in all
+ * tables of the process, and a counter of expired calls.
+ *
+ * PendingCallTable is thread-safe.
+ */
+public class PendingCallTable {
+
+  /** Default time in milliseconds after which a pending call expires. */
+  public static final long kDefaultExpiryMillis = 4 * RemoteMethodCall.kDefaultCallTimeoutMillis;
+
+  /** Description of the error reported to the callbacks of calls of a closed connection. */
+  public static final String kClosedErrorDescription = "connection closed";
+
+  /** Description of the error reported to the callback of an expired call. */
+  public static final String kTimeoutErrorDescription = "timeout";
+
+  /**
+   * Represents a pending call.
+   */
+  private class PendingCall implements Runnable {
+
+    /**
+     * @param call_id The call ID.
+     * @param callback The callback of the call.
+     */
+    public PendingCall(long call_id, RpcCallback callback) {
+      this.call_id_ = call_id;
+      this.callback_ = callback;
+      timeout_ = null;
+    }
+
+    /**
+     * Expires the call if it is still pending.
+     */
+    @Override
+    public void run() {
+      if (calls_.remove(call_id_, this)) {
+        total_count_.decrementAndGet();
+        expired_count_.incrementAndGet();
+        callback_.onError(timeout_error_uri_, kTimeoutErrorDescription, null);
+      }
+    }
+
+    private long call_id_;  // The call ID.
+    private RpcCallback callback_;  // The callback of the call.
+    private volatile HashedWheelTimer.Timeout timeout_;  // The expiry timeout.
+  }
+
+  /**
+   * Creates an empty PendingCallTable that uses the default expiry time.
+   *
+   * @param timeout_error_uri The error URI reported to callbacks of expired calls. May be null.
+   */
+  public PendingCallTable(Uri timeout_error_uri) {
+    this.timeout_error_uri_ = timeout_error_uri;
+    calls_ = new ConcurrentHashMap<Long, PendingCall>();
+    call_counter_ = new AtomicLong();
+    expired_count_ = new AtomicLong();
+    expiry_millis_ = kDefaultExpiryMillis;
+  }
+
+  /**
+   * Returns the total number of pending calls in all PendingCallTable instances.
+   *
+   * @return The number of pending calls in the process.
+   */
+  public static long getTotalSize() {
+    return total_count_.get();
+  }
+
+  /**
+   * Adds a call to the table and returns its call ID. The call expires after the expiry time
+   * unless it is removed from the table before.
+   *
+   * @param callback The callback of the call.
+   * @return The call ID.
+   */
+  public long add(RpcCallback callback) {
+    long call_id = call_counter_.incrementAndGet();
+    PendingCall call = new PendingCall(call_id, callback);
+    calls_.put(call_id, call);
+    total_count_.incrementAndGet();
+    call.timeout_ = HashedWheelTimer.Instance.schedule(call, expiry_millis_);
+    return call_id;
+  }
+
+  /**
+   * Removes all pending calls from the table and invokes their callbacks with the specified
+   * error. This method is called when the connection is closed, so that callers do not wait for
+   * calls to expire.
+   *
+   * @param error_uri The error URI reported to the callbacks. May be null.
+   * @param error_description The error description reported to the callbacks.
+   * @return The number of failed calls.
+   */
+  public int failAll(Uri error_uri, String error_description) {
+    int count = 0;
+    for (Long call_id : calls_.keySet()) {
+      RpcCallback callback = remove(call_id);
+      if (callback != null) {
+        callback.onError(error_uri, error_description, null);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of calls that have expired.
+   *
+   * @return The number of expired calls.
+   */
+  public long getExpiredCount() {
+    return expired_count_.get();
+  }
+
+  /**
+   * Returns the time in milliseconds after which a pending call expires.
+   *
+   * @return The expiry time in milliseconds.
+   */
+  public long getExpiryMillis() {
+    return expiry_millis_;
+  }
+
+  /**
+   * Removes the call with the specified ID from the table and returns its callback.
+   *
+   * @param call_id The call ID.
+   * @return The callback of the call or null if there is no pending call with the ID.
+   */
+  public RpcCallback remove(long call_id) {
+    PendingCall call = calls_.remove(call_id);
+    if (call == null) {
+      return null;
+    }
+    total_count_.decrementAndGet();
+    HashedWheelTimer.Timeout timeout = call.timeout_;
+    if (timeout != null) {
+      timeout.cancel();
+    }
+    return call.callback_;
+  }
+
+  /**
+   * Sets the time in milliseconds after which a pending call expires.
+   * The new expiry time applies to calls that are added after this method returns.
+   *
+   * @param expiry_millis The expiry time in milliseconds.
+   */
+  public void setExpiryMillis(long expiry_millis) {
+    this.expiry_millis_ = expiry_millis;
+  }
+
+  /**
+   * Returns the number of pending calls.
+   *
+   * @return The number of calls in the table.
+   */
+  public int size() {
+    return calls_.size();
+  }
+
+  // Number of pending calls in all tables.
+  private static AtomicLong total_count_ = new AtomicLong();
+
+  private AtomicLong call_counter_;  // Last assigned call ID.
+  private ConcurrentHashMap<Long, PendingCall> calls_;  // Pending calls by call ID.
+  private AtomicLong expired_count_;  // Number of expired calls.
+  private volatile long expiry_millis_;  // Time after which calls expire.
+  private Uri timeout_error_uri_;  // Error URI reported on expiry.
+}
@@ -8,6 +8,8 @@ package ai.general.net;
 import ai.general.directory.Handler;
 import ai.general.directory.Request;
 
+import java.util.Set;
+
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -21,6 +23,13 @@ import org.apache.logging.log4j.LogManager;
  *
  * RelayHandler includes the path remainder in relayed catchall requests providing the receiver
  * with the full context of the request.
+ *
+ * Publish requests are relayed only if the session of the relay connection is eligible and not
+ * excluded. RelayHandlers are associated with the session of their connection, so that nodes
+ * with many subscribers dispatch requests for eligible sessions only to their relays.
+ *
+ * Deferred request arguments are relayed without being decoded. The data of a publish request is
+ * serialized only once, regardless of how many RelayHandlers relay the request.
  */
 public class RelayHandler extends Handler {
 
@@ -38,11 +47,21 @@ public class RelayHandler extends Handler {
     this.connection_ = connection;
     if (isCatchAll()) {
       // remove the final '*';
-      this.relay_uri_ =
+      relay_uri =
         changePath(relay_uri, relay_uri.getPath().substring(0, relay_uri.getPath().length() - 1));
-    } else {
-      this.relay_uri_ = relay_uri;
     }
+    // The relay URI is used in every relayed message and never changes.
+    this.relay_uri_ = new ImmutableUri(relay_uri);
+  }
+
+  /**
+   * Returns the session ID of the connection through which requests are relayed.
+   *
+   * @return The session ID of the relay connection.
+   */
+  @Override
+  public String getSessionId() {
+    return connection_.getSessionId();
   }
 
   /**
@@ -75,30 +94,43 @@ public class RelayHandler extends Handler {
    */
   private void handle(Uri relay_uri, Request request) {
     if (request.getRequestType() != Request.RequestType.Publish ||
-        request.getArguments().size() != 1) {
+        request.numArguments() != 1) {
       return;
     }
-    Uri request_uri = request.getUri();
-    if (request_uri.hasParameter("eligible")) {
-      String eligible = request_uri.getParameter("eligible");
-      if (!(eligible.equals(connection_.getSessionId()) ||
-            eligible.startsWith(connection_.getSessionId() + ",") ||
-            eligible.indexOf("," + connection_.getSessionId()) > 0)) {
-        log.trace("not eligible: {}", relay_uri.toString());
-        return;
-      }
+    Set<String> eligible_sessions = request.getEligibleSessions();
+    if (eligible_sessions != null && !eligible_sessions.contains(connection_.getSessionId())) {
+      log.trace("not eligible: {}", relay_uri.toString());
+      return;
     }
-    if (request_uri.hasParameter("exclude")) {
-      String exclude = request_uri.getParameter("exclude");
-      if (exclude.equals(connection_.getSessionId()) ||
-          exclude.startsWith(connection_.getSessionId() + ",") ||
-          exclude.indexOf("," + connection_.getSessionId()) > 0) {
-        log.trace("exclude relay: {}", relay_uri.toString());
-        return;
-      }
+    Set<String> excluded_sessions = request.getExcludedSessions();
+    if (excluded_sessions != null && excluded_sessions.contains(connection_.getSessionId())) {
+      log.trace("exclude relay: {}", relay_uri.toString());
+      return;
     }
     log.trace("relay: {}", relay_uri.toString());
-    connection_.publish(relay_uri, request.getArgument(0));
+    connection_.publish(relay_uri, getPublishData(request));
+  }
+
+  /**
+   * Returns the data of a publish request as a {@link JsonArgument}.
+   *
+   * If the data is not a JsonArgument, the data is wrapped into a JsonArgument that replaces the
+   * original data in the request. All RelayHandlers that relay the same request share the
+   * JsonArgument and thus its serialized form.
+   *
+   * @param request The publish request.
+   * @return The data of the publish request as a JsonArgument.
+   */
+  private static JsonArgument getPublishData(Request request) {
+    synchronized (request) {
+      Object data = request.getUndecodedArgument(0);
+      if (data instanceof JsonArgument) {
+        return (JsonArgument) data;
+      }
+      JsonArgument json_data = JsonArgument.of(request.getArgument(0));
+      request.setArgument(0, json_data);
+      return json_data;
+    }
   }
 
   /**
@@ -122,5 +154,5 @@ public class RelayHandler extends Handler {
   private static Logger log = LogManager.getLogger();
 
   private Connection connection_;  // The connection to use to relay messages.
-  private Uri relay_uri_;  // The outgoing URI to use in relayed messages.
+  private ImmutableUri relay_uri_;  // The outgoing URI to use in relayed messages.
 }
@@ -8,7 +8,8 @@ package ai.general.net;
 /**
  * Represents a remote method that can be called via a {@link Connection}.
  *
- * RemoteMethod offers methods for making an RPC call synchronously or asynchronously.
+ * RemoteMethod offers methods for making an RPC call synchronously or asynchronously. Multiple
+ * calls can be pipelined by adding them to a {@link RemoteMethodBatch}.
  *
  * The generic argument TReturnType specifies the return type of the RemoteMethod.
  * If the return type is void, Void can be specified as TReturnType.
@@ -68,7 +69,9 @@ public class RemoteMethod<TReturnType> {
    * Makes an asynchronous remote method call and immediately returns.
    *
    * The returned {@link RemoteMethodCall} object can be used to track the progress of the call
-   * and obtain the final result.
+   * and obtain the final result. It is a {@link java.util.concurrent.Future} of the result and
+   * accepts callbacks that are called on completion, so that callers do not need to block a
+   * thread per call.
    *
    * @param arguments The method arguments.
    * @return The {@link RemoteMethodCall} object which represents the call.
@@ -80,6 +83,40 @@ public class RemoteMethod<TReturnType> {
     return method_call;
   }
 
+  /**
+   * Adds a call to this remote method to the specified batch. The call is made when the batch is
+   * sent.
+   *
+   * @param batch The batch to which to add the call.
+   * @param arguments The method arguments.
+   * @return The {@link RemoteMethodCall} object which represents the call.
+   */
+  public RemoteMethodCall<TReturnType> callBatched(RemoteMethodBatch batch,
+                                                   Object ... arguments) {
+    return batch.add(method_path_, return_type_, arguments);
+  }
+
+  /**
+   * Makes an asynchronous remote method call that expires after the specified time.
+   *
+   * This method is like {@link #callAsync(Object...)}, except that the call completes with a
+   * timeout error if no response is received within the timeout. The timeout does not block a
+   * thread.
+   *
+   * @param timeout_millis The maximum duration of the call in milliseconds.
+   * @param arguments The method arguments.
+   * @return The {@link RemoteMethodCall} object which represents the call.
+   */
+  public RemoteMethodCall<TReturnType> callWithTimeout(long timeout_millis,
+                                                       Object ... arguments) {
+    RemoteMethodCall<TReturnType> method_call =
+      new RemoteMethodCall<TReturnType>(connection_, method_path_, return_type_);
+    if (method_call.callAsync(arguments)) {
+      method_call.expireAfter(timeout_millis);
+    }
+    return method_call;
+  }
+
   private Connection connection_;  // Connection with which the RPC is made.
   private String method_path_;  // The directory path of the method.
   private Class<TReturnType> return_type_;  // The return type of the remote method.
@@ -0,0 +1,328 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Represents a batch of remote method calls that are sent together over one {@link Connection}.
+ *
+ * Calls are added to the batch via {@link #add(String, Class, Object...)} or
+ * {@link RemoteMethod#callBatched(RemoteMethodBatch, Object...)} and are sent back-to-back by
+ * {@link #call()} without waiting for the responses of previous calls. If the connection
+ * supports it, all calls are sent in a single message. See
+ * {@link Connection#callBatch(String[], RpcCallback[], Object[][])}.
+ *
+ * RemoteMethodBatch is a {@link Future} that completes when all calls of the batch have
+ * completed, regardless of the order in which the responses are received. The results of the
+ * individual calls can be obtained from the {@link RemoteMethodCall} objects returned when the
+ * calls are added or from the list returned by {@link #get()}.
+ *
+ * Each RemoteMethodBatch instance can be sent only once. A batch that is cancelled before it is
+ * sent is done immediately and is never sent.
+ */
+public class RemoteMethodBatch implements Future<List<Object>> {
+
+  /**
+   * Counts the completed calls of the batch.
+   */
+  private class CompletionCounter implements RpcCallback {
+
+    /**
+     * Counts an unsuccessful call.
+     *
+     * @param error_uri The returned error URI.
+     * @param error_description Description of the error.
+     * @param error_details Optional error details.
+     */
+    @Override
+    public void onError(Uri error_uri, String error_description, Object error_details) {
+      callCompleted();
+    }
+
+    /**
+     * Counts a successful call.
+     *
+     * @param result The result of the call.
+     */
+    @Override
+    public void onSuccess(Object result) {
+      callCompleted();
+    }
+  }
+
+  /**
+   * Creates an empty batch of calls that will be made with the specified connection.
+   *
+   * @param connection The Connection with which the calls will be made.
+   */
+  public RemoteMethodBatch(Connection connection) {
+    this.connection_ = connection;
+    calls_ = new ArrayList<RemoteMethodCall<?>>();
+    arguments_ = new ArrayList<Object[]>();
+    counter_ = new CompletionCounter();
+    pending_count_ = 0;
+    sent_ = false;
+    cancelled_ = false;
+  }
+
+  /**
+   * Adds a call to the batch. The call is made when the batch is sent.
+   *
+   * @param method_path The URI of the remote method.
+   * @param return_type The method return type.
+   * @param arguments The method arguments.
+   * @return The {@link RemoteMethodCall} object which represents the call or null if the batch
+   *         has already been sent.
+   */
+  public synchronized <TReturnType> RemoteMethodCall<TReturnType> add(
+      String method_path, Class<TReturnType> return_type, Object ... arguments) {
+    if (sent_) {
+      return null;
+    }
+    RemoteMethodCall<TReturnType> method_call =
+      new RemoteMethodCall<TReturnType>(connection_, method_path, return_type);
+    calls_.add(method_call);
+    arguments_.add(arguments);
+    return method_call;
+  }
+
+  /**
+   * Sends all calls of the batch and immediately returns.
+   *
+   * Calls that cannot be sent complete with a call error. Calls that have been cancelled
+   * individually before the batch is sent are not sent. The batch completes once all sent calls
+   * have completed.
+   *
+   * @return True if all calls were sent.
+   */
+  public boolean call() {
+    ArrayList<RemoteMethodCall<?>> started = new ArrayList<RemoteMethodCall<?>>();
+    ArrayList<Object[]> arguments = new ArrayList<Object[]>();
+    synchronized (this) {
+      if (sent_) {
+        return false;
+      }
+      sent_ = true;
+      for (int i = 0; i < calls_.size(); i++) {
+        RemoteMethodCall<?> method_call = calls_.get(i);
+        if (method_call.begin()) {
+          started.add(method_call);
+          arguments.add(arguments_.get(i));
+        }
+      }
+      arguments_ = null;
+      pending_count_ = started.size();
+      if (pending_count_ == 0) {
+        notifyAll();
+        return calls_.isEmpty();
+      }
+    }
+    String[] method_paths = new String[started.size()];
+    RpcCallback[] callbacks = new RpcCallback[started.size()];
+    for (int i = 0; i < started.size(); i++) {
+      RemoteMethodCall<?> method_call = started.get(i);
+      method_call.addCallback(counter_);
+      method_paths[i] = method_call.getMethodPath();
+      callbacks[i] = method_call;
+    }
+    boolean[] sent = connection_.callBatch(
+        method_paths, callbacks, arguments.toArray(new Object[started.size()][]));
+    boolean all_sent = started.size() == calls_.size();
+    for (int i = 0; i < sent.length; i++) {
+      if (!sent[i]) {
+        started.get(i).fail();
+        all_sent = false;
+      }
+    }
+    return all_sent;
+  }
+
+  /**
+   * Cancels all calls of the batch that have not completed yet.
+   *
+   * If the batch has not been sent yet, the batch is done after this method returns and will
+   * never be sent.
+   *
+   * @param may_interrupt_if_running Ignored.
+   * @return True if the batch had not been sent or at least one call was cancelled.
+   */
+  @Override
+  public boolean cancel(boolean may_interrupt_if_running) {
+    boolean cancelled = false;
+    synchronized (this) {
+      if (!sent_) {
+        sent_ = true;
+        arguments_ = null;
+        pending_count_ = 0;
+        cancelled_ = true;
+        cancelled = true;
+        notifyAll();
+      }
+    }
+    for (RemoteMethodCall<?> method_call : getCalls()) {
+      cancelled |= method_call.cancel(may_interrupt_if_running);
+    }
+    if (cancelled) {
+      synchronized (this) {
+        cancelled_ = true;
+      }
+    }
+    return cancelled;
+  }
+
+  /**
+   * Waits for all calls of the batch to complete and returns their results.
+   *
+   * @return The results of the calls in the order in which the calls were added.
+   * @throws CancellationException if the batch was cancelled.
+   * @throws ExecutionException if a call completed with an error. The cause is a
+   *         {@link RemoteMethodCallException} for the first call that failed.
+   * @throws InterruptedException if the thread was interrupted while waiting.
+   */
+  @Override
+  public List<Object> get() throws InterruptedException, ExecutionException {
+    synchronized (this) {
+      while (!isDone()) {
+        wait();
+      }
+    }
+    return getResults();
+  }
+
+  /**
+   * Waits for all calls of the batch to complete up to the specified time and returns their
+   * results.
+   *
+   * @param timeout Maximum time to wait.
+   * @param unit Unit of the timeout.
+   * @return The results of the calls in the order in which the calls were added.
+   * @throws CancellationException if the batch was cancelled.
+   * @throws ExecutionException if a call completed with an error. The cause is a
+   *         {@link RemoteMethodCallException} for the first call that failed.
+   * @throws InterruptedException if the thread was interrupted while waiting.
+   * @throws TimeoutException if not all calls have completed within the timeout.
+   */
+  @Override
+  public List<Object> get(long timeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    if (!waitUntilCompletion(unit.toMillis(timeout))) {
+      throw new TimeoutException();
+    }
+    return getResults();
+  }
+
+  /**
+   * Returns the calls of the batch in the order in which they were added.
+   *
+   * @return The calls of the batch.
+   */
+  public synchronized List<RemoteMethodCall<?>> getCalls() {
+    return new ArrayList<RemoteMethodCall<?>>(calls_);
+  }
+
+  /**
+   * Checks whether the batch has been cancelled.
+   *
+   * @return True if the batch was cancelled before all calls completed.
+   */
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled_;
+  }
+
+  /**
+   * Checks whether all calls of the batch have completed.
+   *
+   * @return True if the batch has been sent and all calls have completed or if the batch was
+   *         cancelled before it was sent.
+   */
+  @Override
+  public synchronized boolean isDone() {
+    return sent_ && pending_count_ == 0;
+  }
+
+  /**
+   * Returns the number of calls in the batch.
+   *
+   * @return The number of calls.
+   */
+  public synchronized int size() {
+    return calls_.size();
+  }
+
+  /**
+   * Waits until all calls of the batch have completed.
+   *
+   * If the calls do not complete within the specified timeout, aborts waiting and returns false.
+   * A timeout does not cancel the calls.
+   *
+   * @param timeout_millis Wait timeout in milliseconds.
+   * @return True if all calls have completed.
+   * @throws InterruptedException if the thread was interrupted while waiting.
+   */
+  public boolean waitUntilCompletion(long timeout_millis) throws InterruptedException {
+    long deadline_millis = System.currentTimeMillis() + timeout_millis;
+    synchronized (this) {
+      while (!isDone()) {
+        long wait_millis = deadline_millis - System.currentTimeMillis();
+        if (wait_millis <= 0) {
+          return false;
+        }
+        wait(wait_millis);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Called when a call of the batch completes. Wakes up waiting threads once all calls have
+   * completed.
+   */
+  private synchronized void callCompleted() {
+    pending_count_--;
+    if (pending_count_ == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Returns the results of the completed calls or throws the exception that corresponds to the
+   * first failed call.
+   *
+   * @return The results of the calls in the order in which the calls were added.
+   * @throws CancellationException if the batch was cancelled.
+   * @throws ExecutionException if a call completed with an error.
+   */
+  private List<Object> getResults() throws ExecutionException {
+    if (isCancelled()) {
+      throw new CancellationException();
+    }
+    ArrayList<Object> results = new ArrayList<Object>(calls_.size());
+    for (RemoteMethodCall<?> method_call : calls_) {
+      try {
+        results.add(method_call.get());
+      } catch (InterruptedException e) {
+        // Not thrown since the call has completed.
+      }
+    }
+    return results;
+  }
+
+  private ArrayList<Object[]> arguments_;  // Arguments of the calls until the batch is sent.
+  private ArrayList<RemoteMethodCall<?>> calls_;  // Calls of the batch.
+  private boolean cancelled_;  // True if the batch was cancelled.
+  private Connection connection_;  // Connection with which the calls are made.
+  private CompletionCounter counter_;  // Counts completed calls.
+  private int pending_count_;  // Number of calls that have not completed.
+  private boolean sent_;  // True if the batch has been sent.
+}
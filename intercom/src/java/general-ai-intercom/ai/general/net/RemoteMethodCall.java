@@ -5,7 +5,14 @@
 
 package ai.general.net;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ai.general.common.HashedWheelTimer;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Represents a remote method call.
@@ -16,16 +23,35 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * RemoteMethodCall provides methods for synchronization and allows waiting for the call to
  * complete.
  *
+ * RemoteMethodCall is also a {@link Future} of the call result. Instead of waiting for the call
+ * to complete, callers can register an {@link RpcCallback} via {@link #addCallback(RpcCallback)},
+ * which is called on the network thread when the call completes. This allows making many
+ * concurrent calls without blocking a thread per call. A call can be limited to a maximum
+ * duration via {@link #expireAfter(long)}, which completes the call with a timeout error without
+ * blocking a thread.
+ *
  * Each RemoteMethodCall instance is associated with exactly one call and can only be used for that
  * one call.
  *
  * If the remote method returns void, TReturnType may be Void. The call result will be null.
  */
-public class RemoteMethodCall<TReturnType> implements RpcCallback {
+public class RemoteMethodCall<TReturnType> implements RpcCallback, Future<TReturnType> {
 
   /** Default synchronous method call timeout in milliseconds. */
   public static final long kDefaultCallTimeoutMillis = 120000;
 
+  /** Error description of calls that could not be made. */
+  public static final String kCallErrorDescription = "call error";
+
+  /** Error description of calls whose result does not match the return type. */
+  public static final String kConversionErrorDescription = "invalid result";
+
+  /** Error description of cancelled calls. */
+  public static final String kCancelledErrorDescription = "cancelled";
+
+  /** Error description of calls that have expired. */
+  public static final String kTimeoutErrorDescription = "timeout";
+
   /**
    * Indicates the stage of the RemoteMethodCall.
    */
@@ -55,12 +81,127 @@ public class RemoteMethodCall<TReturnType> implements RpcCallback {
     this.return_type_ = return_type;
     state_ = State.Initialized;
     call_timeout_millis_ = kDefaultCallTimeoutMillis;
-    json_parser_ = new ObjectMapper();
     successful_ = false;
     result_ = null;
     error_uri_ = null;
     error_description_ = null;
     error_details_ = null;
+    error_reason_ = null;
+    callbacks_ = null;
+    timeout_ = null;
+  }
+
+  /**
+   * Registers a callback that is called when the call completes.
+   *
+   * The callback receives the converted result of the call or the error of the call. If the call
+   * has already completed, the callback is called immediately on the calling thread. Otherwise,
+   * it is called on the thread that completes the call, which is typically the network thread.
+   * Callbacks must not block.
+   *
+   * @param callback The callback to call on completion.
+   */
+  public void addCallback(RpcCallback callback) {
+    synchronized (this) {
+      if (state_ != State.Completed) {
+        if (callbacks_ == null) {
+          callbacks_ = new ArrayList<RpcCallback>();
+        }
+        callbacks_.add(callback);
+        return;
+      }
+    }
+    notifyCallback(callback);
+  }
+
+  /**
+   * Cancels the call if it has not completed yet.
+   *
+   * A cancelled call completes with an error. Any response received from the remote endpoint
+   * after cancellation is ignored. Cancellation does not interrupt the remote method.
+   *
+   * @param may_interrupt_if_running Ignored.
+   * @return True if the call was cancelled.
+   */
+  @Override
+  public boolean cancel(boolean may_interrupt_if_running) {
+    return complete(false, null, null, kCancelledErrorDescription, null,
+                    RemoteMethodCallException.Reason.CallError);
+  }
+
+  /**
+   * Completes this call with a timeout error if it has not completed within the specified time.
+   *
+   * The expiry does not block a thread. It is approximate and may occur up to a few hundred
+   * milliseconds late. Waiting callers are woken up and registered callbacks are called when
+   * the call expires.
+   *
+   * @param timeout_millis The maximum duration of the call in milliseconds.
+   * @return This call.
+   */
+  public RemoteMethodCall<TReturnType> expireAfter(long timeout_millis) {
+    HashedWheelTimer.Timeout timeout = HashedWheelTimer.Instance.schedule(new Runnable() {
+        @Override
+        public void run() {
+          complete(false, null, null, kTimeoutErrorDescription, null,
+                   RemoteMethodCallException.Reason.Timeout);
+        }
+      }, timeout_millis);
+    synchronized (this) {
+      if (state_ == State.Completed) {
+        timeout.cancel();
+      } else {
+        timeout_ = timeout;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Waits for the call to complete and returns its result.
+   *
+   * @return The result of the call.
+   * @throws CancellationException if the call was cancelled.
+   * @throws ExecutionException if the call completed with an error. The cause is a
+   *         {@link RemoteMethodCallException}.
+   * @throws InterruptedException if the thread was interrupted while waiting.
+   */
+  @Override
+  public TReturnType get() throws InterruptedException, ExecutionException {
+    synchronized (this) {
+      while (state_ != State.Completed) {
+        wait();
+      }
+    }
+    return getCompletedResult();
+  }
+
+  /**
+   * Waits for the call to complete up to the specified time and returns its result.
+   *
+   * @param timeout Maximum time to wait.
+   * @param unit Unit of the timeout.
+   * @return The result of the call.
+   * @throws CancellationException if the call was cancelled.
+   * @throws ExecutionException if the call completed with an error. The cause is a
+   *         {@link RemoteMethodCallException}.
+   * @throws InterruptedException if the thread was interrupted while waiting.
+   * @throws TimeoutException if the call has not completed within the timeout.
+   */
+  @Override
+  public TReturnType get(long timeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline_millis = System.currentTimeMillis() + unit.toMillis(timeout);
+    synchronized (this) {
+      while (state_ != State.Completed) {
+        long wait_millis = deadline_millis - System.currentTimeMillis();
+        if (wait_millis <= 0) {
+          throw new TimeoutException();
+        }
+        wait(wait_millis);
+      }
+    }
+    return getCompletedResult();
   }
 
   /**
@@ -145,11 +286,35 @@ public class RemoteMethodCall<TReturnType> implements RpcCallback {
    * @return True if the call was made.
    */
   public boolean callAsync(Object ... arguments) {
-    if (state_ != State.Initialized) {
+    if (!begin()) {
       return false;
     }
-    state_ = State.InProgress;
-    return connection_.call(method_path_, this, arguments);
+    if (connection_.call(method_path_, this, arguments)) {
+      return true;
+    }
+    fail();
+    return false;
+  }
+
+  /**
+   * Checks whether the call has been cancelled.
+   *
+   * @return True if the call was cancelled before it completed.
+   */
+  @Override
+  public synchronized boolean isCancelled() {
+    return error_reason_ == RemoteMethodCallException.Reason.CallError &&
+      kCancelledErrorDescription.equals(error_description_);
+  }
+
+  /**
+   * Checks whether the call has completed.
+   *
+   * @return True if the call has completed with a result or an error.
+   */
+  @Override
+  public boolean isDone() {
+    return state_ == State.Completed;
   }
 
   /**
@@ -163,35 +328,28 @@ public class RemoteMethodCall<TReturnType> implements RpcCallback {
 
   /**
    * RpcCallback implementation. Called on an RPC error.
+   * Ignored if the call has already completed.
    *
    * @param error_uri The returned error URI. Maybe null if the URI is invalid.
    * @param error_description Description of the error.
    * @param error_details Optional error details. Null if no details were provided.
    */
   @Override
-  public synchronized void onError(Uri error_uri, String error_description, Object error_details) {
-    state_ = State.Completed;
-    successful_ = false;
-    this.error_uri_ = error_uri;
-    this.error_description_ = error_description;
-    this.error_details_ = error_details;
-    notifyAll();
+  public void onError(Uri error_uri, String error_description, Object error_details) {
+    complete(false, null, error_uri, error_description, error_details,
+             RemoteMethodCallException.Reason.RemoteError);
   }
 
   /**
    * RpcCallback implementation. Called by the network thread on successful execution of the RPC
    * method.
+   * Ignored if the call has already completed.
    *
    * @param result The result of the RPC method or null if the method did not return a value.
    */
   @Override
-  public synchronized void onSuccess(Object result) {
-    state_ = State.Completed;
-    successful_ = true;
-    if (result != null) {
-      result_ = json_parser_.convertValue(result, return_type_);
-    }
-    notifyAll();
+  public void onSuccess(Object result) {
+    complete(true, result, null, null, null, null);
   }
 
   /**
@@ -237,15 +395,140 @@ public class RemoteMethodCall<TReturnType> implements RpcCallback {
     }
   }
 
+  /**
+   * Moves the call into the InProgress state before it is sent.
+   * Used by {@link RemoteMethodBatch} to send calls via the connection.
+   *
+   * @return True if the call was in the Initialized state.
+   */
+  synchronized boolean begin() {
+    if (state_ != State.Initialized) {
+      return false;
+    }
+    state_ = State.InProgress;
+    return true;
+  }
+
+  /**
+   * Completes the call with a call error because it could not be sent.
+   * Used by {@link RemoteMethodBatch} to fail calls that could not be sent.
+   */
+  void fail() {
+    complete(false, null, null, kCallErrorDescription, null,
+             RemoteMethodCallException.Reason.CallError);
+  }
+
+  /**
+   * Returns the URI path of the remote method.
+   *
+   * @return The method path.
+   */
+  String getMethodPath() {
+    return method_path_;
+  }
+
+  /**
+   * Completes the call with the specified result or error if it has not completed yet.
+   * Wakes up waiting threads and calls registered callbacks.
+   *
+   * The result of a successful call is converted to the return type before the call is completed.
+   * If the result cannot be converted, the call is completed as failed with a call error.
+   *
+   * @param successful True if the call completed successfully.
+   * @param result The unconverted result of a successful call or null.
+   * @param error_uri The error URI of a failed call or null.
+   * @param error_description The error description of a failed call or null.
+   * @param error_details The error details of a failed call or null.
+   * @param error_reason The cause of a failed call or null.
+   * @return True if the call was completed by this method or false if it had already completed.
+   */
+  private boolean complete(boolean successful,
+                           Object result,
+                           Uri error_uri,
+                           String error_description,
+                           Object error_details,
+                           RemoteMethodCallException.Reason error_reason) {
+    TReturnType converted_result = null;
+    if (successful && result != null) {
+      try {
+        converted_result = JsonCodec.Instance.convert(result, return_type_);
+      } catch (IllegalArgumentException e) {
+        successful = false;
+        error_description = kConversionErrorDescription;
+        error_details = e.getMessage();
+        error_reason = RemoteMethodCallException.Reason.CallError;
+      }
+    }
+    ArrayList<RpcCallback> callbacks;
+    synchronized (this) {
+      if (state_ == State.Completed) {
+        return false;
+      }
+      result_ = converted_result;
+      successful_ = successful;
+      this.error_uri_ = error_uri;
+      this.error_description_ = error_description;
+      this.error_details_ = error_details;
+      this.error_reason_ = error_reason;
+      state_ = State.Completed;
+      if (timeout_ != null) {
+        timeout_.cancel();
+        timeout_ = null;
+      }
+      callbacks = callbacks_;
+      callbacks_ = null;
+      notifyAll();
+    }
+    if (callbacks != null) {
+      for (RpcCallback callback : callbacks) {
+        notifyCallback(callback);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the result of a completed call or throws the exception that corresponds to the error
+   * of the call.
+   *
+   * @return The result of the call.
+   * @throws CancellationException if the call was cancelled.
+   * @throws ExecutionException if the call completed with an error.
+   */
+  private TReturnType getCompletedResult() throws ExecutionException {
+    if (successful_) {
+      return result_;
+    }
+    if (isCancelled()) {
+      throw new CancellationException(method_path_);
+    }
+    throw new ExecutionException(new RemoteMethodCallException(this, error_reason_));
+  }
+
+  /**
+   * Passes the outcome of the completed call to the specified callback.
+   *
+   * @param callback The callback to notify.
+   */
+  private void notifyCallback(RpcCallback callback) {
+    if (successful_) {
+      callback.onSuccess(result_);
+    } else {
+      callback.onError(error_uri_, error_description_, error_details_);
+    }
+  }
+
+  private ArrayList<RpcCallback> callbacks_;  // Callbacks to call on completion.
   private long call_timeout_millis_;  // The RPC timeout in milliseconds.
   private Connection connection_;  // Connection with which the RPC is made.
   private String error_description_;  // Error description.
   private Object error_details_;  // Optional error details.
+  private RemoteMethodCallException.Reason error_reason_;  // Cause of the error.
   private Uri error_uri_;  // Returned error URI if the RPC was not successful.
-  private ObjectMapper json_parser_;  // JSON parser.
   private String method_path_;  // The directory path of the method.
   private TReturnType result_;  // The return value of the RPC method.
   private Class<TReturnType> return_type_;  // The return type of the RPC method.
-  private State state_;  // The current state of the RPC.
+  private volatile State state_;  // The current state of the RPC.
   private boolean successful_;  // True if the RPC was successful.
+  private HashedWheelTimer.Timeout timeout_;  // Expiry timeout set by expireAfter or null.
 }
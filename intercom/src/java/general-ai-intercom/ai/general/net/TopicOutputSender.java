@@ -0,0 +1,39 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * OutputSender that accepts the topic and overflow policy of publish and event messages.
+ *
+ * Connections pass the topic URI and the {@link OverflowPolicy} of a message along with its
+ * encoded form, so that the sender can conflate or drop messages when its outbound queue is
+ * full without decoding them. Messages sent via the plain {@link OutputSender} methods are never
+ * dropped.
+ */
+public interface TopicOutputSender extends OutputSender {
+
+  /**
+   * Sends a binary publish or event message to the remote endpoint.
+   *
+   * @param data Binary data to send.
+   * @param topic The topic URI of the message.
+   * @param policy The overflow policy of the topic.
+   * @return True if the data was successfully sent.
+   */
+  boolean sendBinary(ByteBuffer data, String topic, OverflowPolicy policy);
+
+  /**
+   * Sends a text publish or event message to the remote endpoint.
+   *
+   * @param text Text message to send.
+   * @param topic The topic URI of the message.
+   * @param policy The overflow policy of the topic.
+   * @return True if the message was successfully sent.
+   */
+  boolean sendText(String text, String topic, OverflowPolicy policy);
+}
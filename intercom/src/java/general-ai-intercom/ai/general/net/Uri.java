@@ -20,6 +20,14 @@ import java.util.Map;
  * It is typically also associated with a protocol and a server.
  * The Uri can be fruther extended with a set of query parameters, a network port, a fragment and
  * user information.
+ *
+ * Query parameters that are shared are never modified. A Uri copies shared parameters before it
+ * modifies them. Copies of an {@link ImmutableUri} and of a Uri without parameters share the
+ * parameters of the original, which makes copying them cheap. Copies of other Uri's copy the
+ * parameters, so that copying never modifies the original Uri.
+ *
+ * The string form of a Uri is computed when it is first needed and cached until the Uri is
+ * modified. URI's that never change should be represented by an {@link ImmutableUri}.
  */
 public class Uri {
 
@@ -45,6 +53,10 @@ public class Uri {
   /**
    * Copy constructor.
    *
+   * If the query parameters of the original Uri are shared, the copy shares them as well until
+   * it modifies them. Otherwise, the parameters are copied. The original Uri is not modified, so
+   * that Uri's that are shared between threads can be copied concurrently.
+   *
    * @param uri The Uri to copy.
    */
   public Uri(Uri uri) {
@@ -53,8 +65,15 @@ public class Uri {
     this.port_ = uri.port_;
     this.path_ = uri.path_;
     this.user_ = uri.user_;
-    this.parameters_ = new HashMap<String, String>(uri.parameters_);
+    if (uri.shared_parameters_) {
+      this.parameters_ = uri.parameters_;
+      this.shared_parameters_ = true;
+    } else {
+      this.parameters_ = new HashMap<String, String>(uri.parameters_);
+      this.shared_parameters_ = false;
+    }
     this.fragment_ = uri.fragment_;
+    this.string_ = uri.string_;
   }
 
   /**
@@ -84,8 +103,11 @@ public class Uri {
     if (user_ == null) {
       user_ = "";
     }
-    parameters_ = new HashMap<String, String>();
+    parameters_ = Collections.emptyMap();
+    shared_parameters_ = true;
     if (uri.getQuery() != null && uri.getQuery().length() > 0) {
+      parameters_ = new HashMap<String, String>();
+      shared_parameters_ = false;
       String[] query = uri.getQuery().split("&");
       for (String param : query) {
         String[] name_value = param.split("=");
@@ -140,7 +162,8 @@ public class Uri {
     }
     setPath(path);
     user_ = "";
-    parameters_ = new HashMap<String, String>();
+    parameters_ = Collections.emptyMap();
+    shared_parameters_ = true;
     fragment_ = "";
   }
 
@@ -227,7 +250,11 @@ public class Uri {
    * @param name The name of the parameter to remove.
    */
   public void removeParameter(String name) {
-    parameters_.remove(name);
+    if (!parameters_.containsKey(name)) {
+      return;
+    }
+    ownParameters().remove(name);
+    string_ = null;
   }
 
   /**
@@ -237,6 +264,7 @@ public class Uri {
    */
   public void setFragment(String fragment) {
     this.fragment_ = fragment != null ? fragment : "";
+    string_ = null;
   }
 
   /**
@@ -251,7 +279,8 @@ public class Uri {
     if (value == null) {
       value = "";
     }
-    parameters_.put(name, value);
+    ownParameters().put(name, value);
+    string_ = null;
   }
 
   /**
@@ -268,6 +297,7 @@ public class Uri {
       path = "/" + path;
     }
     this.path_ = path;
+    string_ = null;
   }
 
   /**
@@ -278,6 +308,7 @@ public class Uri {
    */
   public void setPort(int port) {
     this.port_ = port;
+    string_ = null;
   }
 
   /**
@@ -287,20 +318,24 @@ public class Uri {
    */
   public void setUser(String user) {
     this.user_ = user != null ? user : "";
+    string_ = null;
   }
 
   /**
    * Returns a string representation of the URI.
+   * The string is cached until the Uri is modified.
    *
    * @return A string representation of the URI.
    */
   @Override
   public String toString() {
-    URI uri = toUri();
-    if (uri == null) {
-      return "";
+    String string = string_;
+    if (string == null) {
+      URI uri = toUri();
+      string = uri != null ? uri.toString() : "";
+      string_ = string;
     }
-    return uri.toString();
+    return string;
   }
 
   /**
@@ -325,6 +360,32 @@ public class Uri {
     }
   }
 
+  /**
+   * Marks the query parameters of this Uri as shared, so that copies of this Uri share them.
+   * The parameters are wrapped in an unmodifiable map. Used by {@link ImmutableUri} during
+   * construction.
+   */
+  void shareParameters() {
+    if (!shared_parameters_) {
+      parameters_ = Collections.unmodifiableMap(parameters_);
+      shared_parameters_ = true;
+    }
+  }
+
+  /**
+   * Returns the query parameters for modification. If the parameters are shared with another
+   * Uri, they are copied first.
+   *
+   * @return The query parameters of this Uri.
+   */
+  private Map<String, String> ownParameters() {
+    if (shared_parameters_) {
+      parameters_ = new HashMap<String, String>(parameters_);
+      shared_parameters_ = false;
+    }
+    return parameters_;
+  }
+
   /**
    * Parses a URI string and returns it as a Java URI.
    *
@@ -361,10 +422,12 @@ public class Uri {
   }
 
   private String fragment_;  // Optional fragment string.
-  private HashMap<String, String> parameters_;  // Query parameters.
+  private Map<String, String> parameters_;  // Query parameters.
   private int port_;  // The network port. -1 if default port is used.
   private String protocol_;  // The network protocol name.
   private String path_;  // Path to the resource.
   private String server_;  // The server hostname or IP address.
+  private boolean shared_parameters_;  // True if parameters_ may be shared with another Uri.
+  private String string_;  // Cached string form or null if not computed.
   private String user_;  // Optional user information.
 }
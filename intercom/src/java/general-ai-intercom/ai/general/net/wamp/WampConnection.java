@@ -5,6 +5,7 @@
 
 package ai.general.net.wamp;
 
+import ai.general.common.LruCache;
 import ai.general.common.RandomString;
 import ai.general.common.Strings;
 import ai.general.directory.Directory;
@@ -12,23 +13,42 @@ import ai.general.directory.Handler;
 import ai.general.directory.Request;
 import ai.general.directory.Result;
 import ai.general.net.Connection;
+import ai.general.net.ImmutableUri;
+import ai.general.net.JsonArgument;
+import ai.general.net.JsonCodec;
 import ai.general.net.OutputSender;
+import ai.general.net.OverflowPolicy;
+import ai.general.net.PendingCallTable;
 import ai.general.net.RelayHandler;
 import ai.general.net.RpcCallback;
+import ai.general.net.TopicOutputSender;
 import ai.general.net.Uri;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
@@ -60,13 +80,21 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
  * allowing communication between assymetric clients.</li>
  * <li>WampConnection can forward requests to another server allowing a network of servers that
  * route message.</li>
+ * <li>WampConnection can send multiple call requests in a single batch message, which is a JSON
+ * array of WAMP messages. Batch messages are only sent to Intercom servers that support them.
+ * The receiver processes the messages of a batch in order.</li>
  * </ul></p>
  *
+ * WampConnection sends messages either as JSON text or as binary Smile data, depending on the
+ * {@link WampEncoding} of the connection. Incoming messages are accepted in both encodings. JSON
+ * text messages are processed via {@link #process(String)} and binary Smile messages via
+ * {@link #process(ByteBuffer)}.
+ *
  * WampConnection must be closed by calling the {@link #close()} method in order to properly
  * remove all Node handlers.
  *
- * WampConnection is thread-safe. The {@link #process(String)} method can be executed by a
- * thread pool.
+ * WampConnection is thread-safe. The {@link #process(String)} and {@link #process(ByteBuffer)}
+ * methods can be executed by a thread pool.
  */
 public class WampConnection extends Connection {
 
@@ -76,11 +104,27 @@ public class WampConnection extends Connection {
   // The URI protocol.
   private static final String kProtocol = "wamp";
 
+  // Maximum number of cached publish message headers.
+  private static final int kMaxPublishHeaders = 64;
+
+  // Maximum number of cached parsed URI's.
+  private static final int kMaxParsedUris = 256;
+
   // Length of session ID strings.
   private static final int kSessionIdLength = 16;
 
+  // Server name and version sent in welcome messages.
+  private static final String kServerName = "general.ai-Intercom/";
+  private static final String kServerVersion = "2014.06.01";
+
   // Server ID string sent in welcome messages.
-  private static final String kServerId = "general.ai-Intercom/2014.01.15";
+  private static final String kServerId = kServerName + kServerVersion;
+
+  // First server version that accepts batch messages.
+  private static final String kBatchServerVersion = "2014.06.01";
+
+  // Keep-alive time of idle batch call threads in seconds.
+  private static final long kBatchThreadKeepAliveSeconds = 60;
 
   // Required by protocol.
   private static final int kWampVersion = 1;
@@ -96,6 +140,61 @@ public class WampConnection extends Connection {
   private static final int kPublish = 7;
   private static final int kEvent = 8;
 
+  /**
+   * Represents an incoming call request that has been decoded but not executed yet.
+   */
+  private class IncomingCall implements Runnable {
+
+    /**
+     * @param call_id The call ID supplied by the caller.
+     * @param method_uri The method URI as received from the caller.
+     * @param uri The parsed method URI or null if the method URI is invalid.
+     * @param request The call request or null if the method URI is invalid.
+     */
+    public IncomingCall(String call_id, String method_uri, Uri uri, Request request) {
+      this.call_id_ = call_id;
+      this.method_uri_ = method_uri;
+      this.uri_ = uri;
+      this.request_ = request;
+    }
+
+    /**
+     * Executes the call and sends the call result or call error message via the output sender.
+     */
+    @Override
+    public void run() {
+      if (uri_ == null) {
+        sendCallError(createUriFromPath("/error"),
+                      call_id_,
+                      "rpc_error",
+                      "undefined method",
+                      null);
+        return;
+      }
+      if (Directory.Instance.handle(getHomePath(), request_) > 0) {
+        Result result = request_.getResult();
+        if (!result.hasErrors()) {
+          sendCallResult(uri_, call_id_, result.getValues());
+          log.trace("processed RPC call with success: '{}'", method_uri_);
+        } else {
+          // WAMP supports returning only one error. Thus, only the first error is returned to the
+          // caller.
+          Result.Error error = result.getError(0);
+          sendCallError(uri_, call_id_, "logic_error", error.getDescription(), error.getDetails());
+          log.trace("processed RPC call with error: '{}'", method_uri_);
+        }
+      } else {
+        sendCallError(uri_, call_id_, "rpc_error", "undefined method", null);
+        log.trace("call to undefined method: '{}'", method_uri_);
+      }
+    }
+
+    private String call_id_;  // Call ID supplied by the caller.
+    private String method_uri_;  // Method URI as received from the caller.
+    private Request request_;  // Call request.
+    private Uri uri_;  // Method URI.
+  }
+
   /**
    * By default the WampConnection starts in client mode. To switch the connection to server
    * mode, the {@link #welcome()} method needs to be called.
@@ -123,19 +222,41 @@ public class WampConnection extends Connection {
                         String user_account,
                         String home_path,
                         OutputSender sender) {
+    this(uri, user_account, home_path, sender, WampEncoding.Json);
+  }
+
+  /**
+   * Creates a WampConnection that sends messages in the specified encoding.
+   *
+   * The encoding is typically determined by the negotiated WebSocket subprotocol.
+   * See {@link #WampConnection(Uri, String, String, OutputSender)} for details on the other
+   * parameters.
+   *
+   * @param uri The URI of the server endpoint associated with this connection.
+   * @param user_account Account name associated with this connection or null if none.
+   * @param home_path Home directory path for user account. Must be absolute.
+   * @param sender OutputSender to be used to send output to the remote endpoint.
+   * @param encoding The encoding of messages sent to the remote endpoint.
+   */
+  public WampConnection(Uri uri,
+                        String user_account,
+                        String home_path,
+                        OutputSender sender,
+                        WampEncoding encoding) {
     super(uri, user_account, home_path);
     this.sender_ = sender;
+    this.topic_sender_ = sender instanceof TopicOutputSender ? (TopicOutputSender) sender : null;
+    this.encoding_ = encoding;
     is_server_ = false;
     setSessionId("0");
-    json_mapper_ = new ObjectMapper();
-    object_array_type_ = json_mapper_.getTypeFactory().constructArrayType(Object.class);
-    string_array_list_type_ =
-      json_mapper_.getTypeFactory().constructCollectionType(ArrayList.class, String.class);
+    json_mapper_ = JsonCodec.Instance.getMapper();
     client_subscribed_uris_ = new ArrayList<Uri>();
     server_subscribed_paths_ = new ArrayList<String>();
-    pending_rpc_calls_ = new HashMap<String, RpcCallback>();
-    rpc_call_counter_ = 0;
+    pending_rpc_calls_ = new PendingCallTable(createErrorUri("timeout"));
     prefix_ = new HashMap<String, String>();
+    publish_headers_ = new LruCache<String, String>(kMaxPublishHeaders);
+    parsed_uris_ = new LruCache<String, ImmutableUri>(kMaxParsedUris);
+    overflow_policies_ = new ConcurrentHashMap<String, OverflowPolicy>();
   }
 
   /**
@@ -151,23 +272,19 @@ public class WampConnection extends Connection {
    */
   @Override
   public boolean call(String method_path, RpcCallback callback, Object ... arguments) {
-    if (method_path.length() == 0) {
-      return false;
-    }
-    if (method_path.charAt(0) != '/') {
-      method_path = "/" + method_path;
-    }
-    try {
-      return call(createUriFromPath(method_path), callback, arguments);
-    } catch (IllegalArgumentException e) {
+    Uri method_uri = createMethodUri(method_path);
+    if (method_uri == null) {
       return false;
     }
+    return call(method_uri, callback, arguments);
   }
 
   /**
    * Makes an RPC call to the remote endpoint at the specified method URI.
    *
    * The RPC is executed asynchronously. When completed the provided RpcCallback will be called.
+   * If no response is received within the expiry time of the pending call table, the callback
+   * is called with a timeout error. See {@link #getPendingCalls()}.
    *
    * @param method_uri Method URI of the RPC method to call.
    * @param callback The callback to invoke when the RPC returns.
@@ -176,24 +293,62 @@ public class WampConnection extends Connection {
    */
   @Override
   public boolean call(Uri method_uri, RpcCallback callback, Object ... arguments) {
-    String call_id;
-    synchronized (pending_rpc_calls_) {
-      rpc_call_counter_++;
-      call_id = getSessionId() + ":" + rpc_call_counter_ + ":" + System.currentTimeMillis();
-      pending_rpc_calls_.put(call_id, callback);
+    long call_id = pending_rpc_calls_.add(callback);
+    try {
+      if (send(createCallMessage(call_id, method_uri, arguments))) {
+        return true;
+      }
+    } catch (IOException e) {}
+    pending_rpc_calls_.remove(call_id);
+    return false;
+  }
+
+  /**
+   * Makes multiple RPC calls to the remote endpoint.
+   *
+   * If the remote endpoint is an Intercom server that supports batch messages, all calls are sent
+   * in a single batch message, which saves a round trip per call. The server executes the calls
+   * in order. Otherwise, each call is sent as a separate call message.
+   *
+   * The RPC's are executed asynchronously. When completed the provided RpcCallback's will be
+   * called in the order in which the responses are received.
+   *
+   * @param method_paths Method URI paths of the RPC methods to call.
+   * @param callbacks The callbacks to invoke when each RPC returns.
+   * @param arguments The RPC method arguments of each call.
+   * @return For each call, true if the call was sent.
+   */
+  @Override
+  public boolean[] callBatch(String[] method_paths, RpcCallback[] callbacks, Object[][] arguments) {
+    if (!isBatchSupported()) {
+      return super.callBatch(method_paths, callbacks, arguments);
     }
-    ArrayNode request = json_mapper_.createArrayNode();
-    request.add(kCall);
-    request.add(call_id);
-    request.add(method_uri.toString());
-    for (Object argument : arguments) {
-      request.addPOJO(argument);
+    boolean[] sent = new boolean[method_paths.length];
+    long[] call_ids = new long[method_paths.length];
+    ArrayNode batch = json_mapper_.createArrayNode();
+    for (int i = 0; i < method_paths.length; i++) {
+      Uri method_uri = createMethodUri(method_paths[i]);
+      if (method_uri != null) {
+        call_ids[i] = pending_rpc_calls_.add(callbacks[i]);
+        batch.add(createCallMessage(call_ids[i], method_uri, arguments[i]));
+        sent[i] = true;
+      }
+    }
+    if (batch.size() == 0) {
+      return sent;
     }
     try {
-      return sender_.sendText(json_mapper_.writeValueAsString(request));
-    } catch (JsonProcessingException e) {
-      return false;
+      if (send(batch)) {
+        return sent;
+      }
+    } catch (IOException e) {}
+    for (int i = 0; i < sent.length; i++) {
+      if (sent[i]) {
+        pending_rpc_calls_.remove(call_ids[i]);
+        sent[i] = false;
+      }
     }
+    return sent;
   }
 
   /**
@@ -207,12 +362,14 @@ public class WampConnection extends Connection {
   /**
    * This method must be called in order to properly clean up when the WampConnection is
    * closed.
-   * Removes all handlers added by this instance.
+   * Removes all handlers added by this instance and fails all outstanding RPC calls with a
+   * connection closed error.
    */
   @Override
   public void close() {
     super.close();
     unsubscribeAll();
+    pending_rpc_calls_.failAll(createErrorUri("closed"), PendingCallTable.kClosedErrorDescription);
   }
 
   /**
@@ -251,6 +408,27 @@ public class WampConnection extends Connection {
     return publish(topic_uri, data, false, null, null);
   }
 
+  /**
+   * Returns the encoding of messages sent to the remote endpoint.
+   *
+   * @return The encoding of outgoing messages.
+   */
+  public WampEncoding getEncoding() {
+    return encoding_;
+  }
+
+  /**
+   * Returns the table of RPC calls made by this connection that await a response.
+   *
+   * The table provides the number of outstanding and expired calls and allows changing the
+   * time after which calls expire.
+   *
+   * @return The pending RPC calls.
+   */
+  public PendingCallTable getPendingCalls() {
+    return pending_rpc_calls_;
+  }
+
   /**
    * Whether this connection acts as a WAMP server or WAMP client.
    *
@@ -273,8 +451,8 @@ public class WampConnection extends Connection {
     request.add(prefix);
     request.add(uri.toString());
     try {
-      return sender_.sendText(json_mapper_.writeValueAsString(request));
-    } catch (JsonProcessingException e) {
+      return send(request);
+    } catch (IOException e) {
       return false;
     }
   }
@@ -287,6 +465,11 @@ public class WampConnection extends Connection {
    * interpreted. The method does return true even if the processing of the request has resulted
    * in a logic error as long as the input conforms to the protocol.
    *
+   * The message is decoded with a streaming parser. The WAMP type ID is read first and the
+   * remainder of the message is decoded by the processor for the message type. Call arguments
+   * and publish or event data are not decoded, but kept as {@link JsonArgument} instances until
+   * a handler binds them to its expected types.
+   *
    * @param input Message received from remote endpoint.
    * @return True if the input was successfully interpreted.
    */
@@ -296,25 +479,38 @@ public class WampConnection extends Connection {
       return false;
     }
     try {
-      Object[] request = json_mapper_.readValue(input, object_array_type_);
-      if (request.length < 1) {
-        log.trace("invalid request");
-        return false;
-      }
-      int type_id = (Integer) request[0];
-      switch (type_id) {
-        case kWelcome: return processWelcome(request);
-        case kPrefix: return processPrefix(request);
-        case kCall: return processCall(request);
-        case kCallResult: return processCallResult(request);
-        case kCallError: return processCallError(request);
-        case kSubscribe: return processSubscribe(request);
-        case kUnsubscribe: return processUnsubscribe(request);
-        case kPublish: return processPublish(request);
-        case kEvent: return processEvent(request);
-        default: return false;
+      return process(JsonCodec.Instance.createParser(input));
+    } catch (IOException e) {
+      log.catching(Level.TRACE, e);
+      return false;
+    }
+  }
+
+  /**
+   * Processes an incoming WAMP message encoded as Smile. This method processes both server and
+   * client messages. Any response is sent to the caller via the output sender in the encoding of
+   * this connection.
+   *
+   * Smile messages have the same structure as JSON messages and are processed in exactly the same
+   * way as messages passed to {@link #process(String)}.
+   *
+   * @param input Binary message received from remote endpoint.
+   * @return True if the input was successfully interpreted.
+   */
+  @Override
+  public boolean process(ByteBuffer input) {
+    if (input == null) {
+      return false;
+    }
+    try {
+      if (input.hasArray()) {
+        return process(JsonCodec.Instance.createSmileParser(
+            input.array(), input.arrayOffset() + input.position(), input.remaining()));
       }
-    } catch (Exception e) {
+      byte[] content = new byte[input.remaining()];
+      input.duplicate().get(content);
+      return process(JsonCodec.Instance.createSmileParser(content, 0, content.length));
+    } catch (IOException e) {
       log.catching(Level.TRACE, e);
       return false;
     }
@@ -397,6 +593,34 @@ public class WampConnection extends Connection {
     return publish(topic_path, data, false, exclude, eligible);
   }
 
+  /**
+   * Sets the encoding of messages sent to the remote endpoint.
+   *
+   * On the client side, the encoding is typically set once the WebSocket subprotocol has been
+   * negotiated and before the welcome message is received.
+   *
+   * @param encoding The encoding of outgoing messages.
+   */
+  public void setEncoding(WampEncoding encoding) {
+    this.encoding_ = encoding;
+  }
+
+  /**
+   * Sets the overflow policy for all topics whose URI path ends with the specified path.
+   * Topics without an overflow policy use {@link OverflowPolicy#NeverDrop}. If the paths of
+   * several overflow policies match a topic, the policy with the longest path applies.
+   *
+   * If the OutputSender of this connection is a {@link TopicOutputSender}, publish and event
+   * messages are passed to it along with their topic URI and overflow policy in both encodings.
+   * Otherwise, overflow policies have no effect.
+   *
+   * @param topic_path The topic path.
+   * @param policy The overflow policy of the topic.
+   */
+  public void setOverflowPolicy(String topic_path, OverflowPolicy policy) {
+    overflow_policies_.put(topic_path, policy);
+  }
+
   /**
    * Sends a subscribe request to the remote endpoint for the specified topic path.
    * This method generates the appropriate URI for the request based on information provided
@@ -433,7 +657,7 @@ public class WampConnection extends Connection {
     request.add(kSubscribe);
     request.add(topic_uri.toString());
     try {
-      if (sender_.sendText(json_mapper_.writeValueAsString(request))) {
+      if (send(request)) {
         synchronized (client_subscribed_uris_) {
           client_subscribed_uris_.add(topic_uri);
         }
@@ -441,7 +665,7 @@ public class WampConnection extends Connection {
       } else {
         return false;
       }
-    } catch (JsonProcessingException e) {
+    } catch (IOException e) {
       // Exception will not be thrown due to construction.
       return false;
     }
@@ -483,7 +707,7 @@ public class WampConnection extends Connection {
     request.add(kUnsubscribe);
     request.add(topic_uri.toString());
     try {
-      if (sender_.sendText(json_mapper_.writeValueAsString(request))) {
+      if (send(request)) {
         synchronized (client_subscribed_uris_) {
           client_subscribed_uris_.remove(topic_uri);
         }
@@ -491,7 +715,7 @@ public class WampConnection extends Connection {
       } else {
         return false;
       }
-    } catch (JsonProcessingException e) {
+    } catch (IOException e) {
       // Exception will not be thrown due to construction.
       return false;
     }
@@ -527,21 +751,106 @@ public class WampConnection extends Connection {
   public boolean welcome(String session_id) {
     setSessionId(session_id);
     is_server_ = true;
+    synchronized (publish_headers_) {
+      publish_headers_.clear();
+    }
     ArrayNode response = json_mapper_.createArrayNode();
     response.add(kWelcome);
     response.add(session_id);
     response.add(kWampVersion);
     response.add(kServerId);
     try {
-      if (sender_.sendText(json_mapper_.writeValueAsString(response))) {
+      if (send(response)) {
         setIsReady(true);
         log.trace("connected as server with session ID '{}'", getSessionId());
         return true;
       }
-    } catch (JsonProcessingException e) { /* Exception will not be thrown due to construction. */ }
+    } catch (IOException e) { /* Exception will not be thrown due to construction. */ }
     return false;
   }
 
+  /**
+   * Creates the thread pool that executes the calls of batch messages concurrently.
+   * The pool has one daemon thread per processor. Idle threads terminate.
+   *
+   * @return The batch call thread pool.
+   */
+  private static ThreadPoolExecutor createBatchExecutor() {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        threads, threads,
+        kBatchThreadKeepAliveSeconds, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "wamp-batch");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates a call message.
+   *
+   * @param call_id The call ID.
+   * @param method_uri Method URI of the RPC method to call.
+   * @param arguments RPC method arguments.
+   * @return The call message.
+   */
+  private ArrayNode createCallMessage(long call_id, Uri method_uri, Object[] arguments) {
+    ArrayNode request = json_mapper_.createArrayNode();
+    request.add(kCall);
+    request.add(Long.toString(call_id));
+    request.add(method_uri.toString());
+    for (Object argument : arguments) {
+      request.addPOJO(argument);
+    }
+    return request;
+  }
+
+  /**
+   * Creates the URI of an error reported to the callbacks of RPC calls that did not receive a
+   * response.
+   *
+   * @param fragment The fragment that identifies the error.
+   * @return The error URI or null if the URI cannot be created.
+   */
+  private Uri createErrorUri(String fragment) {
+    try {
+      Uri error_uri = createUriFromPath("/error");
+      error_uri.setFragment(fragment);
+      return error_uri;
+    } catch (IllegalArgumentException e) {
+      // The error is reported without a URI.
+      return null;
+    }
+  }
+
+  /**
+   * Creates a method URI for the specified method path. A leading '/' is added to the path if
+   * necessary.
+   *
+   * @param method_path Method URI path of an RPC method.
+   * @return The method URI or null if the method path is invalid.
+   */
+  private Uri createMethodUri(String method_path) {
+    if (method_path.length() == 0) {
+      return null;
+    }
+    if (method_path.charAt(0) != '/') {
+      method_path = "/" + method_path;
+    }
+    try {
+      return createUriFromPath(method_path);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
   /**
    * Creates a Uri object from the given URI string. Verifies that the URI string conforms to the
    * expected format and normalizes the URI string as necessary.
@@ -549,6 +858,10 @@ public class WampConnection extends Connection {
    * This method also expands any WAMP CURIE to a full URI if an applicable CURIE prefix has
    * been defined via a previous prefix request.
    *
+   * Parsed URI's are cached by their expanded URI string as {@link ImmutableUri} instances. This
+   * method returns the cached instance without copying it. Callers that need to modify the
+   * returned Uri must modify a copy.
+   *
    * @param uri_string The unprocessed URI as a string.
    * @return The URI if the uri_string is valid or null if it is invalid.
    */
@@ -562,13 +875,24 @@ public class WampConnection extends Connection {
         }
       }
     }
+    synchronized (parsed_uris_) {
+      Uri uri = parsed_uris_.get(uri_string);
+      if (uri != null) {
+        return uri;
+      }
+    }
+    ImmutableUri uri;
     try {
-      return new Uri(new URI(uri_string).normalize());
+      uri = new ImmutableUri(new URI(uri_string).normalize());
     } catch (URISyntaxException e) {
       return null;
     } catch (IllegalArgumentException e) {
       return null;
     }
+    synchronized (parsed_uris_) {
+      parsed_uris_.put(uri_string, uri);
+    }
+    return uri;
   }
 
   /**
@@ -587,71 +911,163 @@ public class WampConnection extends Connection {
   }
 
   /**
-   * Creates a call error message that can be sent to the caller of an RPC method.
-   *
-   * If any error_details are provided, they are included in the message.
-   * The call URI is modified by setting the error code as its fragment.
+   * Returns the overflow policy for the specified topic URI. The policy with the longest path
+   * that matches the end of the topic path applies.
    *
-   * @param uri The URI of the original RPC method call.
-   * @param call_id The call ID supplied by the original caller.
-   * @param error_code An error code that is added as a fragment to the error URI.
-   * @param error_description The description of the error (mandatory).
-   * @param error_detals Additional details about the error (optional). May be null.
-   * @return The call error message to be returned to the caller.
+   * @param topic_uri The topic URI.
+   * @return The overflow policy of the topic.
    */
-  private String makeCallError(Uri uri,
-                               String call_id,
-                               String error_code,
-                               String error_description,
-                               Object error_details) {
-    try {
-      uri.setFragment(error_code);
-      ArrayNode response = json_mapper_.createArrayNode();
-      response.add(kCallError);
-      response.add(call_id);
-      response.add(uri.toUri().toString());
-      response.add(error_description);
-      if (error_details != null) {
-        response.addPOJO(error_details);
+  private OverflowPolicy getOverflowPolicy(Uri topic_uri) {
+    if (overflow_policies_.isEmpty()) {
+      return OverflowPolicy.NeverDrop;
+    }
+    String path = topic_uri.getPath();
+    OverflowPolicy policy = OverflowPolicy.NeverDrop;
+    int match_length = -1;
+    for (Map.Entry<String, OverflowPolicy> entry : overflow_policies_.entrySet()) {
+      String suffix = entry.getKey();
+      if (suffix.length() > match_length && path.endsWith(suffix)) {
+        policy = entry.getValue();
+        match_length = suffix.length();
       }
-      return json_mapper_.writeValueAsString(response);
-    } catch (JsonProcessingException e) {  // handled below
-      // Revert to manual message generation if there is a secondary exception during exception
-      // handling.
-      return "[" + kCallError + ", " + call_id +
-        ", \"wamp://" + getHostname() + "/error#runtime_error\", \"runtime error\"]";
     }
+    return policy;
   }
 
   /**
-   * Creates a call result message that can be sent to the caller of an RPC method.
+   * Checks whether the remote endpoint accepts batch messages. Only Intercom servers of
+   * version {@link #kBatchServerVersion} or later accept batch messages.
    *
-   * If the result array has only one item, that item will be returned as the RPC result.
-   * If the result array has multiple items, the entire array is returned as a JSON array.
-   * If the result array has no items, null is returned.
-   * If there is an error while generating the call result, a call error will be returned.
+   * @return True if batch messages can be sent to the remote endpoint.
+   */
+  private boolean isBatchSupported() {
+    String server_id = getServerId();
+    return !is_server_ &&
+      server_id != null &&
+      server_id.startsWith(kServerName) &&
+      server_id.substring(kServerName.length()).compareTo(kBatchServerVersion) >= 0;
+  }
+
+  /**
+   * Advances the parser to the next element of a WAMP message.
    *
-   * @param uri The URI of the original RPC method call.
-   * @param call_id The call ID supplied by the original caller.
-   * @param result The RPC method results.
-   * @return The call result message to be returned to the caller.
+   * @param parser Parser positioned at the last token of the previous message element.
+   * @return True if the message has another element or false if the end of the message has been
+   *         reached.
+   * @throws IOException if the message is malformed.
    */
-  private String makeCallResult(Uri uri, String call_id, Collection<Object> result) {
+  private static boolean nextElement(JsonParser parser) throws IOException {
+    JsonToken token = parser.nextToken();
+    if (token == null) {
+      throw new JsonParseException("unexpected end of message", parser.getCurrentLocation());
+    }
+    return token != JsonToken.END_ARRAY;
+  }
+
+  /**
+   * Reads the next element of a WAMP message, which must be a string.
+   *
+   * @param parser Parser positioned at the last token of the previous message element.
+   * @return The string or null if the end of the message has been reached.
+   * @throws IOException if the element is not a string or the message is malformed.
+   */
+  private static String nextString(JsonParser parser) throws IOException {
+    if (!nextElement(parser)) {
+      return null;
+    }
+    if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+      throw new JsonParseException("string expected", parser.getCurrentLocation());
+    }
+    return parser.getText();
+  }
+
+  /**
+   * Processes an incoming WAMP message using the specified parser.
+   *
+   * The WAMP type ID is read first and the remainder of the message is decoded by the processor
+   * for the message type. The parser is closed when this method returns.
+   *
+   * If the message is a batch message, each message in the batch is processed in order.
+   *
+   * @param parser Parser positioned before the first token of the message.
+   * @return True if the input was successfully interpreted.
+   */
+  private boolean process(JsonParser parser) {
     try {
-      ArrayNode response = json_mapper_.createArrayNode();
-      response.add(kCallResult);
-      response.add(call_id);
-      switch (result.size()) {
-        case 0: response.addNull(); break;
-        case 1: response.addPOJO(result.iterator().next()); break;
-        default: response.addPOJO(result); break;
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        log.trace("invalid request");
+        return false;
       }
-      return json_mapper_.writeValueAsString(response);
-    } catch (JsonProcessingException e) {
-      return makeCallError(uri, call_id, "runtime_error", "runtime error", null);
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_ARRAY) {
+        return processBatch(parser);
+      }
+      if (token != JsonToken.VALUE_NUMBER_INT) {
+        log.trace("invalid request");
+        return false;
+      }
+      return processMessage(parser);
+    } catch (Exception e) {
+      log.catching(Level.TRACE, e);
+      return false;
+    } finally {
+      try {
+        parser.close();
+      } catch (IOException e) {}
     }
   }
 
+  /**
+   * Processes an incoming batch message.
+   *
+   * A batch message is a JSON array of WAMP messages. Consecutive call requests are independent
+   * of each other and are executed concurrently by the batch thread pool and the calling thread.
+   * Calls that are waiting to be executed by the pool are executed by the calling thread, so that
+   * a busy pool does not delay the batch. All other messages, such as prefix, subscribe and
+   * publish requests, are processed in order after all preceding calls have completed, and calls
+   * that follow them are decoded only after they have been processed. Thus, calls observe the
+   * prefixes and subscriptions defined before them exactly as if the messages had been received
+   * individually. Only the order in which the results of consecutive calls are sent is not
+   * defined. This method does not return until all calls of the batch have completed.
+   *
+   * If a message in the batch is invalid, the remainder of the batch is ignored. Calls decoded
+   * before the invalid message are still executed.
+   *
+   * @param parser Parser positioned at the start of the first message in the batch.
+   * @return True if all messages in the batch have been successfully processed.
+   * @throws IOException if the batch is malformed.
+   */
+  private boolean processBatch(JsonParser parser) throws IOException {
+    ArrayList<IncomingCall> calls = new ArrayList<IncomingCall>();
+    int count = 0;
+    try {
+      do {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY ||
+            parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+          log.trace("invalid batch request");
+          return false;
+        }
+        if (parser.getIntValue() == kCall) {
+          IncomingCall call = readCall(parser);
+          if (call == null) {
+            return false;
+          }
+          calls.add(call);
+        } else {
+          runCalls(calls);
+          if (!processMessage(parser)) {
+            return false;
+          }
+        }
+        count++;
+      } while (nextElement(parser));
+    } finally {
+      runCalls(calls);
+    }
+    log.trace("processed batch with {} messages", count);
+    return true;
+  }
+
   /**
    * Processes an incoming call request.
    *
@@ -661,57 +1077,16 @@ public class WampConnection extends Connection {
    * The method handler is run synchronously on the calling thread. This method does not return
    * until the method handler returns.
    *
-   * wamp_request[1] = call ID
-   * wamp_request[2] = method URI
-   * wamp_request[3..] = arguments
-   *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully processed.
-   * @throws ClassCastException if the request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processCall(Object[] wamp_request) {
-    final int kIndexCallId = 1;
-    final int kIndexMethodUri = 2;
-
-    if (wamp_request.length < 3) {
-      // Protocol violation, do not respond.
-      log.trace("invalid call request");
+  private boolean processCall(JsonParser parser) throws IOException {
+    IncomingCall call = readCall(parser);
+    if (call == null) {
       return false;
     }
-    String call_id = (String) wamp_request[kIndexCallId];
-    Uri uri = createUri((String) wamp_request[kIndexMethodUri]);
-    if (uri == null) {
-      log.trace("invalid method uri: {}", wamp_request[kIndexMethodUri]);
-      return sender_.sendText(makeCallError(createUriFromPath("/error"),
-                                            call_id,
-                                            "rpc_error",
-                                            "undefined method",
-                                            null));
-    }
-    Request request = new Request(uri, Request.RequestType.Call);
-    for (int i = 3; i < wamp_request.length; i++) {
-      request.addArgument(wamp_request[i]);
-    }
-    if (Directory.Instance.handle(getHomePath(), request) > 0) {
-      Result result = request.getResult();
-      if (!result.hasErrors()) {
-        sender_.sendText(makeCallResult(uri, call_id, result.getValues()));
-        log.trace("processed RPC call with success: '{}'", wamp_request[kIndexMethodUri]);
-      } else {
-        // WAMP supports returning only one error. Thus, only the first error is returned to the
-        // caller.
-        Result.Error error = result.getError(0);
-        sender_.sendText(makeCallError(uri,
-                                       call_id,
-                                       "logic_error",
-                                       error.getDescription(),
-                                       error.getDetails()));
-        log.trace("processed RPC call with error: '{}'", wamp_request[kIndexMethodUri]);
-      }
-    } else {
-      sender_.sendText(makeCallError(uri, call_id, "rpc_error", "undefined method", null));
-      log.trace("call to undefined method: '{}'", wamp_request[kIndexMethodUri]);
-    }
+    call.run();
     return true;
   }
 
@@ -725,40 +1100,33 @@ public class WampConnection extends Connection {
    * wamp_request[3] = error description
    * wamp_request[4] = error details (optional)
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully processed.
-   * @throws ClassCastException if the request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processCallError(Object[] wamp_request) {
-    final int kIndexCallId = 1;
-    final int kIndexErrorUri = 2;
-    final int kIndexErrorDescription = 3;
-    final int kIndexErrorDetails = 4;
-
-    if (wamp_request.length < 4) {
+  private boolean processCallError(JsonParser parser) throws IOException {
+    String call_id = nextString(parser);
+    String error_uri = nextString(parser);
+    String error_description = nextString(parser);
+    if (error_description == null) {
       log.trace("invalid call error request");
       return false;
     }
-    String call_id = (String) wamp_request[kIndexCallId];
     Object error_details = null;
-    if (wamp_request.length > 4) {
-      error_details = wamp_request[kIndexErrorDetails];
+    if (nextElement(parser)) {
+      error_details = json_mapper_.readValue(parser, Object.class);
+      skipToEnd(parser);
     }
-    RpcCallback callback = pending_rpc_calls_.get(call_id);
+    RpcCallback callback = removePendingCall(call_id);
     if (callback == null) {
       log.trace("call error with no callback");
       return true;
     }
-    synchronized (pending_rpc_calls_) {
-      pending_rpc_calls_.remove(call_id);
-    }
     try {
-      callback.onError(new Uri((String) wamp_request[kIndexErrorUri]),
-                       (String) wamp_request[kIndexErrorDescription],
-                       error_details);
+      callback.onError(new Uri(error_uri), error_description, error_details);
     } catch (IllegalArgumentException e) {
       // On URI error make the callback without the URI.
-      callback.onError(null, (String) wamp_request[kIndexErrorDescription], error_details);
+      callback.onError(null, error_description, error_details);
     }
     log.trace("processed call error");
     return true;
@@ -772,28 +1140,24 @@ public class WampConnection extends Connection {
    * wamp_request[1] = call ID
    * wamp_request[2] = call result
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully processed.
-   * @throws ClassCastException if the request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processCallResult(Object[] wamp_request) {
-    final int kIndexCallId = 1;
-    final int kIndexCallResult = 2;
-
-    if (wamp_request.length < 3) {
+  private boolean processCallResult(JsonParser parser) throws IOException {
+    String call_id = nextString(parser);
+    if (call_id == null || !nextElement(parser)) {
       log.trace("invalid call result request");
       return false;
     }
-    String call_id = (String) wamp_request[kIndexCallId];
-    RpcCallback callback = pending_rpc_calls_.get(call_id);
+    Object call_result = json_mapper_.readValue(parser, Object.class);
+    skipToEnd(parser);
+    RpcCallback callback = removePendingCall(call_id);
     if (callback == null) {
       log.trace("call result with no callback");
       return true;
     }
-    synchronized (pending_rpc_calls_) {
-      pending_rpc_calls_.remove(call_id);
-    }
-    callback.onSuccess(wamp_request[kIndexCallResult]);
+    callback.onSuccess(call_result);
     log.trace("processed call result");
     return true;
   }
@@ -807,52 +1171,74 @@ public class WampConnection extends Connection {
    * wamp_request[1] = topic URI
    * wamp_request[2] = event data
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully processed.
-   * @throws ClassCastException if the request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processEvent(Object[] wamp_request) {
-    final int kIndexTopicUri = 1;
-    final int kIndexEventData = 2;
-
-    if (wamp_request.length < 3) {
+  private boolean processEvent(JsonParser parser) throws IOException {
+    String topic_uri = nextString(parser);
+    if (topic_uri == null || !nextElement(parser)) {
       log.trace("invalid event request");
       return false;
     }
-    Uri uri = createUri((String) wamp_request[kIndexTopicUri]);
+    JsonArgument event_data = JsonArgument.read(parser);
+    skipToEnd(parser);
+    Uri uri = createUri(topic_uri);
     if (uri == null) {
-      log.trace("invalid topic uri: {}", wamp_request[kIndexTopicUri]);
+      log.trace("invalid topic uri: {}", topic_uri);
       return false;
     }
-    Request request = new Request(uri, Request.RequestType.Publish, wamp_request[kIndexEventData]);
+    Request request = new Request(uri, Request.RequestType.Publish, event_data);
     Directory.Instance.handle(getHomePath(), request);
-    log.trace("processed event '{}'", wamp_request[kIndexTopicUri]);
+    log.trace("processed event '{}'", topic_uri);
     return true;
   }
 
+  /**
+   * Processes an incoming WAMP message whose type ID has been read.
+   *
+   * @param parser Parser positioned at the WAMP type ID of the message.
+   * @return True if the message has been successfully processed.
+   * @throws IOException if the message is malformed.
+   */
+  private boolean processMessage(JsonParser parser) throws IOException {
+    int type_id = parser.getIntValue();
+    switch (type_id) {
+      case kWelcome: return processWelcome(parser);
+      case kPrefix: return processPrefix(parser);
+      case kCall: return processCall(parser);
+      case kCallResult: return processCallResult(parser);
+      case kCallError: return processCallError(parser);
+      case kSubscribe: return processSubscribe(parser);
+      case kUnsubscribe: return processUnsubscribe(parser);
+      case kPublish: return processPublish(parser);
+      case kEvent: return processEvent(parser);
+      default: return false;
+    }
+  }
+
   /**
    * Processes an incoming prefix request.
    *
    * wamp_request[1] = prefix
    * wamp_request[2] = URI to be prefixed
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully procesed.
-   * @throws ClassCastException if request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processPrefix(Object[] wamp_request) {
-    final int kIndexPrefix = 1;
-    final int kIndexUri = 2;
-
-    if (wamp_request.length < 3) {
+  private boolean processPrefix(JsonParser parser) throws IOException {
+    String prefix = nextString(parser);
+    String uri = nextString(parser);
+    if (uri == null) {
       log.trace("invalid prefix request");
       return false;
     }
+    skipToEnd(parser);
     synchronized (prefix_) {
-      prefix_.put((String) wamp_request[kIndexPrefix], (String) wamp_request[kIndexUri]);
+      prefix_.put(prefix, uri);
     }
-    log.trace("processed prefix '{}' -> '{}'",
-              wamp_request[kIndexPrefix], wamp_request[kIndexUri]);
+    log.trace("processed prefix '{}' -> '{}'", prefix, uri);
     return true;
   }
 
@@ -864,48 +1250,61 @@ public class WampConnection extends Connection {
    * wamp_request[3] = exclude_me or exclude list (optional)
    * wamp_request[4] = eligible list (optional)
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully procesed.
-   * @throws ClassCastException if request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processPublish(Object[] wamp_request) {
-    final int kIndexTopicUri = 1;
-    final int kIndexEventData = 2;
-    final int kIndexExclude = 3;
-    final int kIndexElligible = 4;
-
-    if (wamp_request.length < 3) {
+  private boolean processPublish(JsonParser parser) throws IOException {
+    String topic_uri = nextString(parser);
+    if (topic_uri == null || !nextElement(parser)) {
       log.trace("invalid publish request");
       return false;
     }
-    Uri uri = createUri((String) wamp_request[kIndexTopicUri]);
-    if (uri == null) {
-      log.trace("invalid topic uri: {}", wamp_request[kIndexTopicUri]);
-      return false;
-    }
-    Request request = new Request(uri, Request.RequestType.Publish, wamp_request[kIndexEventData]);
-    if (wamp_request.length > kIndexExclude) {
-      if (wamp_request[kIndexExclude] instanceof Boolean) {
-        uri.setParameter("exclude", getSessionId());
-      } else if (wamp_request[kIndexExclude] instanceof ArrayList) {
-        ArrayList<String> exclude =
-          json_mapper_.convertValue(wamp_request[kIndexExclude], string_array_list_type_);
-        if (exclude.size() > 0) {
-          uri.setParameter("exclude", Strings.join(exclude, ","));
-        }
+    JsonArgument event_data = JsonArgument.read(parser);
+    ArrayList<String> exclude = null;
+    boolean exclude_me = false;
+    ArrayList<String> eligible = null;
+    if (nextElement(parser)) {
+      JsonToken token = parser.getCurrentToken();
+      if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+        exclude_me = true;
+      } else if (token == JsonToken.START_ARRAY) {
+        exclude = JsonCodec.Instance.getReader(
+            JsonCodec.Instance.getStringArrayListType()).readValue(parser);
+      } else {
+        parser.skipChildren();
       }
-      if (wamp_request.length > kIndexElligible) {
-        if (wamp_request[kIndexElligible] instanceof ArrayList) {
-          ArrayList<String> eligible =
-            json_mapper_.convertValue(wamp_request[kIndexElligible], string_array_list_type_);
-          if (eligible.size() > 0) {
-            uri.setParameter("eligible", Strings.join(eligible, ","));
-          }
+      if (nextElement(parser)) {
+        if (parser.getCurrentToken() == JsonToken.START_ARRAY) {
+          eligible = JsonCodec.Instance.getReader(
+              JsonCodec.Instance.getStringArrayListType()).readValue(parser);
+        } else {
+          parser.skipChildren();
         }
+        skipToEnd(parser);
       }
     }
+    Uri uri = createUri(topic_uri);
+    if (uri == null) {
+      log.trace("invalid topic uri: {}", topic_uri);
+      return false;
+    }
+    if (exclude_me || (exclude != null && exclude.size() > 0) ||
+        (eligible != null && eligible.size() > 0)) {
+      // The cached topic URI is immutable.
+      uri = new Uri(uri);
+    }
+    Request request = new Request(uri, Request.RequestType.Publish, event_data);
+    if (exclude_me) {
+      uri.setParameter(Request.kExcludedSessions, getSessionId());
+    } else if (exclude != null && exclude.size() > 0) {
+      uri.setParameter(Request.kExcludedSessions, Strings.join(exclude, ","));
+    }
+    if (eligible != null && eligible.size() > 0) {
+      uri.setParameter(Request.kEligibleSessions, Strings.join(eligible, ","));
+    }
     Directory.Instance.handle(getHomePath(), request);
-    log.trace("processed publish '{}'", wamp_request[kIndexTopicUri]);
+    log.trace("processed publish '{}'", topic_uri);
     return true;
   }
 
@@ -914,20 +1313,20 @@ public class WampConnection extends Connection {
    *
    * wamp_request[1] = topic URI
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully procesed.
-   * @throws ClassCastException if request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processSubscribe(Object[] wamp_request) {
-    final int kIndexTopicUri = 1;
-
-    if (wamp_request.length < 2) {
+  private boolean processSubscribe(JsonParser parser) throws IOException {
+    String topic_uri = nextString(parser);
+    if (topic_uri == null) {
       log.trace("invalid subscribe request");
       return false;
     }
-    Uri uri = createUri((String) wamp_request[kIndexTopicUri]);
+    skipToEnd(parser);
+    Uri uri = createUri(topic_uri);
     if (uri == null) {
-      log.trace("invalid topic uri: {}", wamp_request[kIndexTopicUri]);
+      log.trace("invalid topic uri: {}", topic_uri);
       return false;
     }
     String path = getHomePath() + uri.getPath();
@@ -949,20 +1348,20 @@ public class WampConnection extends Connection {
    *
    * wamp_request[1] = topic URI
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully procesed.
-   * @throws ClassCastException if request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processUnsubscribe(Object[] wamp_request) {
-    final int kIndexTopicUri = 1;
-
-    if (wamp_request.length < 2) {
+  private boolean processUnsubscribe(JsonParser parser) throws IOException {
+    String topic_uri = nextString(parser);
+    if (topic_uri == null) {
       log.trace("invalid unsubscribe request");
       return false;
     }
-    Uri uri = createUri((String) wamp_request[kIndexTopicUri]);
+    skipToEnd(parser);
+    Uri uri = createUri(topic_uri);
     if (uri == null) {
-      log.trace("invalid topic uri: {}", wamp_request[kIndexTopicUri]);
+      log.trace("invalid topic uri: {}", topic_uri);
       return false;
     }
     String path = getHomePath() + uri.getPath();
@@ -981,21 +1380,25 @@ public class WampConnection extends Connection {
    * wamp_request[2] = protocol version
    * wamp_request[3] = server ID
    *
-   * @param wamp_request The WAMP request arguments.
+   * @param parser Parser positioned at the WAMP type ID of the request.
    * @return True if the request has been successfully procesed.
-   * @throws ClassCastException if request arguments are invalid.
+   * @throws IOException if the request is malformed.
    */
-  private boolean processWelcome(Object[] wamp_request) {
-    final int kIndexSessionId = 1;
-    //  final int kProtocolVersion = 2;  // ignored
-    final int kIndexServerId = 3;
-
-    if (wamp_request.length < 4) {
+  private boolean processWelcome(JsonParser parser) throws IOException {
+    String session_id = nextString(parser);
+    if (session_id == null || !nextElement(parser)) {
+      log.trace("invalid welcome request");
+      return false;
+    }
+    parser.skipChildren();  // protocol version is ignored
+    String server_id = nextString(parser);
+    if (server_id == null) {
       log.trace("invalid welcome request");
       return false;
     }
-    setSessionId((String) wamp_request[kIndexSessionId]);
-    setServerId((String) wamp_request[kIndexServerId]);
+    skipToEnd(parser);
+    setSessionId(session_id);
+    setServerId(server_id);
     setIsReady(true);
     log.trace("received server welcome from {} for session {}", getServerId(), getSessionId());
     return true;
@@ -1048,6 +1451,11 @@ public class WampConnection extends Connection {
    * exclude_me, exclude and eligible parameters on the server side. So, on the server side
    * these values should be always set to false and null.
    *
+   * If the data is a {@link JsonArgument}, the connection uses the JSON encoding and none of the
+   * optional parameters are specified, the message is assembled from a cached message header and
+   * the cached JSON text of the data. This allows relaying the same data to many connections
+   * while serializing it only once.
+   *
    * @param topic_uri The topic URI to publish to.
    * @param data The data to publish.
    * @param exclude_me Optional value of exclude_me argument (only included if true).
@@ -1060,6 +1468,18 @@ public class WampConnection extends Connection {
                           boolean exclude_me,
                           String[] exclude,
                           String[] eligible) {
+    if (data instanceof JsonArgument && encoding_ == WampEncoding.Json &&
+        !exclude_me && exclude == null && eligible == null) {
+      try {
+        String text = publishHeader(topic_uri) + ((JsonArgument) data).getJson() + "]";
+        if (topic_sender_ != null) {
+          return topic_sender_.sendText(text, topic_uri.toString(), getOverflowPolicy(topic_uri));
+        }
+        return sender_.sendText(text);
+      } catch (IOException e) {
+        return false;
+      }
+    }
     ArrayNode request = json_mapper_.createArrayNode();
     request.add(is_server_ ? kEvent : kPublish);
     request.add(topic_uri.toString());
@@ -1076,12 +1496,71 @@ public class WampConnection extends Connection {
       request.addPOJO(eligible);
     }
     try {
-      return sender_.sendText(json_mapper_.writeValueAsString(request));
-    } catch (JsonProcessingException e) {
+      if (topic_sender_ != null) {
+        return send(request, topic_uri.toString(), getOverflowPolicy(topic_uri));
+      }
+      return send(request);
+    } catch (IOException e) {
       return false;
     }
   }
 
+  /**
+   * Returns the header of a publish or event message for the specified topic URI. The header
+   * consists of the opening bracket, the WAMP type ID and the topic URI, followed by a comma.
+   *
+   * Headers of recently used topic URI's are cached.
+   *
+   * @param topic_uri The topic URI of the message.
+   * @return The message header.
+   */
+  private String publishHeader(Uri topic_uri) {
+    String uri = topic_uri.toString();
+    synchronized (publish_headers_) {
+      String header = publish_headers_.get(uri);
+      if (header == null) {
+        header = "[" + (is_server_ ? kEvent : kPublish) + ",\"" +
+          new String(JsonStringEncoder.getInstance().quoteAsString(uri)) + "\",";
+        publish_headers_.put(uri, header);
+      }
+      return header;
+    }
+  }
+
+  /**
+   * Decodes an incoming call request.
+   *
+   * If the method URI is invalid, the returned call sends an error message when it is run.
+   *
+   * wamp_request[1] = call ID
+   * wamp_request[2] = method URI
+   * wamp_request[3..] = arguments
+   *
+   * @param parser Parser positioned at the WAMP type ID of the request.
+   * @return The decoded call or null if the request violates the protocol.
+   * @throws IOException if the request is malformed.
+   */
+  private IncomingCall readCall(JsonParser parser) throws IOException {
+    String call_id = nextString(parser);
+    String method_uri = nextString(parser);
+    if (method_uri == null) {
+      // Protocol violation, do not respond.
+      log.trace("invalid call request");
+      return null;
+    }
+    Uri uri = createUri(method_uri);
+    if (uri == null) {
+      log.trace("invalid method uri: {}", method_uri);
+      skipToEnd(parser);
+      return new IncomingCall(call_id, method_uri, null, null);
+    }
+    Request request = new Request(uri, Request.RequestType.Call);
+    while (nextElement(parser)) {
+      request.addArgument(JsonArgument.read(parser));
+    }
+    return new IncomingCall(call_id, method_uri, uri, request);
+  }
+
   /**
    * Creates and returns a unique name for the relay handler for the specified path.
    *
@@ -1095,6 +1574,195 @@ public class WampConnection extends Connection {
     }
   }
 
+  /**
+   * Removes the pending RPC call with the specified call ID and returns its callback.
+   *
+   * @param call_id The call ID as received from the remote endpoint.
+   * @return The callback of the call or null if there is no pending call with the ID.
+   */
+  private RpcCallback removePendingCall(String call_id) {
+    try {
+      return pending_rpc_calls_.remove(Long.parseLong(call_id));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Executes the specified calls concurrently, waits until all calls have completed and clears
+   * the list of calls.
+   *
+   * The calls are submitted to the batch thread pool. The calling thread then runs all calls that
+   * have not been started by the pool.
+   *
+   * @param calls The calls to execute.
+   */
+  private void runCalls(ArrayList<IncomingCall> calls) {
+    if (calls.size() <= 1) {
+      if (calls.size() == 1) {
+        calls.get(0).run();
+        calls.clear();
+      }
+      return;
+    }
+    ArrayList<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(calls.size());
+    for (IncomingCall call : calls) {
+      FutureTask<Void> task = new FutureTask<Void>(call, null);
+      tasks.add(task);
+      try {
+        batch_executor_.execute(task);
+      } catch (RejectedExecutionException e) { /* The task is run below. */ }
+    }
+    calls.clear();
+    // Run all calls that the pool has not started before waiting for any call.
+    for (FutureTask<Void> task : tasks) {
+      task.run();
+    }
+    boolean interrupted = false;
+    for (FutureTask<Void> task : tasks) {
+      while (true) {
+        try {
+          task.get();
+          break;
+        } catch (ExecutionException e) {
+          log.catching(Level.TRACE, e.getCause());
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sends the specified message to the remote endpoint in the encoding of this connection.
+   * JSON messages are sent as text messages and Smile messages as binary messages.
+   *
+   * @param message The message to send.
+   * @return True if the message was sent.
+   * @throws IOException if the message cannot be serialized.
+   */
+  private boolean send(ArrayNode message) throws IOException {
+    switch (encoding_) {
+      case Smile:
+        return sender_.sendBinary(ByteBuffer.wrap(JsonCodec.Instance.writeValueAsSmile(message)));
+      default:
+        return sender_.sendText(json_mapper_.writeValueAsString(message));
+    }
+  }
+
+  /**
+   * Sends the specified publish or event message to the remote endpoint in the encoding of this
+   * connection along with its topic and overflow policy.
+   * Must only be called if the OutputSender of this connection is a {@link TopicOutputSender}.
+   *
+   * @param message The message to send.
+   * @param topic The topic URI of the message.
+   * @param policy The overflow policy of the topic.
+   * @return True if the message was sent.
+   * @throws IOException if the message cannot be serialized.
+   */
+  private boolean send(ArrayNode message, String topic, OverflowPolicy policy)
+      throws IOException {
+    switch (encoding_) {
+      case Smile:
+        return topic_sender_.sendBinary(
+            ByteBuffer.wrap(JsonCodec.Instance.writeValueAsSmile(message)), topic, policy);
+      default:
+        return topic_sender_.sendText(json_mapper_.writeValueAsString(message), topic, policy);
+    }
+  }
+
+  /**
+   * Sends a call error message to the caller of an RPC method.
+   *
+   * If any error_details are provided, they are included in the message.
+   * The call URI is modified by setting the error code as its fragment.
+   *
+   * @param uri The URI of the original RPC method call.
+   * @param call_id The call ID supplied by the original caller.
+   * @param error_code An error code that is added as a fragment to the error URI.
+   * @param error_description The description of the error (mandatory).
+   * @param error_detals Additional details about the error (optional). May be null.
+   * @return True if the message was sent.
+   */
+  private boolean sendCallError(Uri uri,
+                                String call_id,
+                                String error_code,
+                                String error_description,
+                                Object error_details) {
+    ArrayNode response = json_mapper_.createArrayNode();
+    try {
+      uri = new Uri(uri);
+      uri.setFragment(error_code);
+      response.add(kCallError);
+      response.add(call_id);
+      response.add(uri.toUri().toString());
+      response.add(error_description);
+      if (error_details != null) {
+        response.addPOJO(error_details);
+      }
+      return send(response);
+    } catch (IOException e) {  // handled below
+      // Revert to a generic error message if there is a secondary exception during exception
+      // handling.
+      response.removeAll();
+      response.add(kCallError);
+      response.add(call_id);
+      response.add("wamp://" + getHostname() + "/error#runtime_error");
+      response.add("runtime error");
+      try {
+        return send(response);
+      } catch (IOException e2) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Sends a call result message to the caller of an RPC method.
+   *
+   * If the result array has only one item, that item will be returned as the RPC result.
+   * If the result array has multiple items, the entire array is returned as a JSON array.
+   * If the result array has no items, null is returned.
+   * If there is an error while generating the call result, a call error will be returned.
+   *
+   * @param uri The URI of the original RPC method call.
+   * @param call_id The call ID supplied by the original caller.
+   * @param result The RPC method results.
+   * @return True if the message was sent.
+   */
+  private boolean sendCallResult(Uri uri, String call_id, Collection<Object> result) {
+    try {
+      ArrayNode response = json_mapper_.createArrayNode();
+      response.add(kCallResult);
+      response.add(call_id);
+      switch (result.size()) {
+        case 0: response.addNull(); break;
+        case 1: response.addPOJO(result.iterator().next()); break;
+        default: response.addPOJO(result); break;
+      }
+      return send(response);
+    } catch (IOException e) {
+      return sendCallError(uri, call_id, "runtime_error", "runtime error", null);
+    }
+  }
+
+  /**
+   * Skips all remaining elements of a WAMP message.
+   *
+   * @param parser Parser positioned at the last token of a message element.
+   * @throws IOException if the message is malformed.
+   */
+  private static void skipToEnd(JsonParser parser) throws IOException {
+    while (nextElement(parser)) {
+      parser.skipChildren();
+    }
+  }
+
   /**
    * Executes both client and server unsubscription.
    * As client, unsubscribes from all subscribed topics.
@@ -1120,14 +1788,20 @@ public class WampConnection extends Connection {
 
   private static Logger log = LogManager.getLogger();
 
+  // Executes the calls of batch messages.
+  private static ThreadPoolExecutor batch_executor_ = createBatchExecutor();
+
   private ArrayList<Uri> client_subscribed_uris_;  // All URI's subscribed to as client.
+  private volatile WampEncoding encoding_;  // Encoding of outgoing messages.
   private boolean is_server_;  // If true, use server protocol.
-  private ObjectMapper json_mapper_;  // JSON parser and generator.
-  private JavaType object_array_type_;  // Object[] type used in JSON parsing.
-  private HashMap<String, RpcCallback> pending_rpc_calls_;  // RPC calls in progress.
+  private ObjectMapper json_mapper_;  // Shared JSON parser and generator.
+  // Overflow policies by topic path suffix.
+  private ConcurrentHashMap<String, OverflowPolicy> overflow_policies_;
+  private LruCache<String, ImmutableUri> parsed_uris_;  // Parsed URI's by expanded URI string.
+  private PendingCallTable pending_rpc_calls_;  // RPC calls in progress.
   private HashMap<String, String> prefix_;  // WAMP prefix directory.
-  private long rpc_call_counter_;  // Counter used to keep track of RPC calls.
+  private LruCache<String, String> publish_headers_;  // Cached publish headers by topic URI.
   private OutputSender sender_;  // Used to send messages to the remote endpoint.
   private ArrayList<String> server_subscribed_paths_;  // All paths subscribed to by clients.
-  private JavaType string_array_list_type_;  // ArrayList<String> type used in JSON parsing.
+  private TopicOutputSender topic_sender_;  // sender_ if it accepts topics or null.
 }
@@ -0,0 +1,57 @@
+/* General AI - WAMP Server and Client
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net.wamp;
+
+/**
+ * Wire format of WAMP messages.
+ *
+ * The wire format is negotiated via the WebSocket subprotocol. JSON is the standard WAMP wire
+ * format and is supported by all WAMP clients, including Web browsers. Smile is a compact binary
+ * encoding of JSON that has the same data model as JSON. WAMP messages encoded in Smile have
+ * exactly the same structure as WAMP messages encoded in JSON, but are sent as binary WebSocket
+ * messages.
+ */
+public enum WampEncoding {
+  /** Standard WAMP messages encoded as JSON text. */
+  Json("wamp"),
+
+  /** WAMP messages encoded as binary Smile data. */
+  Smile("wamp.smile");
+
+  /**
+   * @param subprotocol The WebSocket subprotocol that selects the encoding.
+   */
+  private WampEncoding(String subprotocol) {
+    this.subprotocol_ = subprotocol;
+  }
+
+  /**
+   * Returns the encoding that corresponds to the specified WebSocket subprotocol.
+   * If the subprotocol is null or unknown, returns the JSON encoding.
+   *
+   * @param subprotocol The negotiated WebSocket subprotocol.
+   * @return The encoding selected by the subprotocol.
+   */
+  public static WampEncoding fromSubprotocol(String subprotocol) {
+    for (WampEncoding encoding : values()) {
+      if (encoding.subprotocol_.equals(subprotocol)) {
+        return encoding;
+      }
+    }
+    return Json;
+  }
+
+  /**
+   * Returns the WebSocket subprotocol that selects this encoding.
+   *
+   * @return The WebSocket subprotocol name.
+   */
+  public String getSubprotocol() {
+    return subprotocol_;
+  }
+
+  private String subprotocol_;  // WebSocket subprotocol name.
+}
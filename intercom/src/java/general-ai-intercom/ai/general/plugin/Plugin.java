@@ -8,7 +8,7 @@ package ai.general.plugin;
 import ai.general.net.Connection;
 import ai.general.net.ConnectionManager;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -31,7 +31,9 @@ import org.apache.logging.log4j.LogManager;
  * The PluginManager calls the {@link #onConnect(Connection)} method when a new connection is
  * created and becomes ready. The onConnect method can be used to initialize and register
  * connection specific data structures and services. When the connection is closed, the
- * {@link #onDisconnect(Connection)} method is called.
+ * {@link #onDisconnect(Connection)} method is called. The onConnect and onDisconnect methods of
+ * different connections may be called concurrently. Services can be registered and unregistered
+ * concurrently.
  *
  * A concrete subclass of Plugin must be public and define a public constructor that takes no
  * arguments.
@@ -51,7 +53,7 @@ public abstract class Plugin {
     this.version_ = version;
     this.description_ = description;
     this.publisher_ = publisher;
-    services_ = new HashMap<String, ServiceDefinition>();
+    services_ = new ConcurrentHashMap<String, ServiceDefinition>();
     enabled_ = false;
   }
 
@@ -227,10 +229,7 @@ public abstract class Plugin {
                                     Object service,
                                     String service_home_path,
                                     boolean auto_connect) {
-    if (services_.containsKey(service_name)) {
-      throw new IllegalArgumentException(
-          "Duplicate service name: " + getName() + "/" + service_name);
-    }
+    // The ServiceManager atomically rejects duplicate names.
     ServiceDefinition service_def =
       ServiceManager.Instance.addService(getName() + "/" + service_name,
                                          service,
@@ -332,10 +331,9 @@ public abstract class Plugin {
    * Unregisters all registered services of this plugin.
    */
   protected void unregisterAllServices() {
-    for (ServiceDefinition service_def : services_.values()) {
-      ServiceManager.Instance.removeService(service_def.getName());
+    for (String service_name : services_.keySet()) {
+      unregisterService(service_name);
     }
-    services_.clear();
   }
 
   /**
@@ -345,10 +343,9 @@ public abstract class Plugin {
    * @return True if the service has been unregistered.
    */
   protected boolean unregisterService(String service_name) {
-    ServiceDefinition service_def = services_.get(service_name);
+    ServiceDefinition service_def = services_.remove(service_name);
     if (service_def != null) {
       ServiceManager.Instance.removeService(service_def.getName());
-      services_.remove(service_name);
     }
     return true;
   }
@@ -411,7 +408,7 @@ public abstract class Plugin {
   private String publisher_;  // Publisher information.
 
   // Services associated with plugin (service name, service definition)
-  private HashMap<String, ServiceDefinition> services_;
+  private ConcurrentHashMap<String, ServiceDefinition> services_;
 
   private double version_;  // Plugin version.
 }
@@ -7,19 +7,30 @@ package ai.general.plugin;
 
 import ai.general.net.Connection;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
@@ -31,10 +42,26 @@ import org.apache.logging.log4j.LogManager;
  * The PluginManager loads plugins from a jar file, initializes the plugins and unitializes them
  * before shutdown.
  *
+ * A plugin jar declares its plugin classes either in the {@link #kManifestAttribute} attribute
+ * of its manifest or in the {@link #kServiceIndex} file, so that only the declared classes are
+ * loaded. The manifest attribute lists the fully qualified class names separated by whitespace
+ * or commas. The service index lists one class name per line in the format of
+ * {@link java.util.ServiceLoader}. Jars that declare no plugin classes are scanned for plugin
+ * classes, which requires loading every class in the jar.
+ *
+ * The class loader of a jar remains open while plugins from the jar are loaded, so that plugins
+ * can load further classes from the jar when they are enabled or connected.
+ *
  * PluginManager is a singleton class.
  */
 public class PluginManager {
 
+  /** Name of the manifest attribute that lists the plugin classes of a jar. */
+  public static final String kManifestAttribute = "Plugin-Classes";
+
+  /** Path of the service index that lists the plugin classes of a jar. */
+  public static final String kServiceIndex = "META-INF/services/ai.general.plugin.Plugin";
+
   /**
    * Singleton instance.
    */
@@ -45,7 +72,8 @@ public class PluginManager {
    * The singleton instance can be obtained via {@link #Instance}.
    */
   private PluginManager() {
-    plugins_ = new HashMap<String, Plugin>();
+    plugins_ = new ConcurrentHashMap<String, Plugin>();
+    class_loaders_ = new ArrayList<URLClassLoader>();
   }
 
   /**
@@ -184,6 +212,9 @@ public class PluginManager {
   /**
    * Loads all plugins in the specified jar file.
    *
+   * Only the plugin classes declared in the manifest or service index of the jar are loaded. If
+   * the jar declares no plugin classes, all classes in the jar are checked.
+   *
    * This plugins must enabled after they have been loaded.
    *
    * @param jar_filepath Path to a jar file.
@@ -192,18 +223,17 @@ public class PluginManager {
   public int load(String jar_filepath) {
     log.debug("loading {}", jar_filepath);
     try {
+      List<String> class_names;
       JarFile jar = new JarFile(jar_filepath);
-      Enumeration<JarEntry> entries = jar.entries();
-      ArrayList<String> class_names = new ArrayList<String>();
-      while (entries.hasMoreElements()) {
-        JarEntry entry = entries.nextElement();
-        if (entry.getName().endsWith(".class")) {
-          class_names.add(
-              entry.getName().substring(0, entry.getName().length() - 6).
-              replace('/', '.'));
+      try {
+        class_names = getPluginClassNames(jar);
+        if (class_names == null) {
+          log.debug("{} declares no plugins, scanning all classes", jar_filepath);
+          class_names = getClassNames(jar);
         }
+      } finally {
+        jar.close();
       }
-      jar.close();
       final File file = new File(jar_filepath);
       URLClassLoader class_loader =
         AccessController.doPrivileged(new PrivilegedAction<URLClassLoader>() {
@@ -226,9 +256,19 @@ public class PluginManager {
             if (load(class_def)) {
               plugin_count++;
             }
-          } catch (ClassNotFoundException e) { /* cannot be thrown by construction */ }
+          } catch (ClassNotFoundException e) {
+            log.warn("Plugin class {} not found in {}", class_name, jar_filepath);
+          } catch (LinkageError e) {
+            log.catching(Level.DEBUG, e);
+          }
+        }
+        if (plugin_count > 0) {
+          synchronized (class_loaders_) {
+            class_loaders_.add(class_loader);
+          }
+        } else {
+          class_loader.close();
         }
-        class_loader.close();
       }
       log.debug("Loaded {} plugins from {}", plugin_count, jar_filepath);
       return plugin_count;
@@ -243,7 +283,7 @@ public class PluginManager {
    * The class definition must be a subclass of {@link Plugin}.
    *
    * The name of the plugin must be unique. This method returns false if the a plugin with
-   * the same name has already been loaded.
+   * the same name has already been loaded. This method may be called concurrently.
    *
    * The plugin must be enabled after it has been loaded.
    *
@@ -260,7 +300,11 @@ public class PluginManager {
         if (!plugin.onLoad()) {
           return false;
         }
-        plugins_.put(plugin.getName(), plugin);
+        if (plugins_.putIfAbsent(plugin.getName(), plugin) != null) {
+          // A plugin with the same name has been loaded concurrently.
+          plugin.unload();
+          return false;
+        }
         log.debug("loaded plugin {}", plugin.getName());
         return true;
       } catch (ReflectiveOperationException e) {}
@@ -271,8 +315,10 @@ public class PluginManager {
   /**
    * Loads all plugins in the specified directory.
    *
-   * This method scans all jar files in the directory and loads all plugin classes in those
-   * jar files.
+   * This method loads the plugins of all jar files in the directory. The jar files are opened
+   * and their plugins are instantiated in parallel, with up to one thread per processor. If
+   * loading a jar file fails, the failure is logged and the plugins of the other jar files are
+   * still counted.
    *
    * @return The total number of plugins loaded.
    */
@@ -284,12 +330,41 @@ public class PluginManager {
           return name.endsWith(".jar");
         }
       });
-    if (list == null) {
+    if (list == null || list.length == 0) {
       return 0;
     }
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(list.length, Runtime.getRuntime().availableProcessors()),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "plugin-loader");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>(list.length);
+    for (final File file : list) {
+      results.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() {
+            return load(file.getAbsolutePath());
+          }
+        }));
+    }
+    executor.shutdown();
     int plugin_count = 0;
-    for (File file : list) {
-      plugin_count += load(file.getAbsolutePath());
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        plugin_count += Math.max(results.get(i).get(), 0);
+      } catch (ExecutionException e) {
+        // A failed jar does not affect the plugins loaded from other jars.
+        log.warn("Failed to load plugins from {}", list[i].getAbsolutePath());
+        log.catching(Level.WARN, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
     }
     return plugin_count;
   }
@@ -302,9 +377,92 @@ public class PluginManager {
       plugin.unload();
     }
     plugins_.clear();
+    synchronized (class_loaders_) {
+      for (URLClassLoader class_loader : class_loaders_) {
+        try {
+          class_loader.close();
+        } catch (IOException e) {
+          log.catching(Level.DEBUG, e);
+        }
+      }
+      class_loaders_.clear();
+    }
+  }
+
+  /**
+   * Returns the names of all classes in the specified jar file.
+   *
+   * @param jar An open jar file.
+   * @return The fully qualified names of all classes in the jar.
+   */
+  private static List<String> getClassNames(JarFile jar) {
+    Enumeration<JarEntry> entries = jar.entries();
+    ArrayList<String> class_names = new ArrayList<String>();
+    while (entries.hasMoreElements()) {
+      JarEntry entry = entries.nextElement();
+      if (entry.getName().endsWith(".class")) {
+        class_names.add(
+            entry.getName().substring(0, entry.getName().length() - 6).
+            replace('/', '.'));
+      }
+    }
+    return class_names;
+  }
+
+  /**
+   * Returns the plugin classes declared by the specified jar file.
+   *
+   * The classes are declared in the {@link #kManifestAttribute} attribute of the manifest or in
+   * the {@link #kServiceIndex} file. If both exist, the manifest attribute is used.
+   *
+   * @param jar An open jar file.
+   * @return The fully qualified names of the declared plugin classes or null if the jar declares
+   *         no plugin classes.
+   * @throws IOException if the manifest or service index cannot be read.
+   */
+  private static List<String> getPluginClassNames(JarFile jar) throws IOException {
+    Manifest manifest = jar.getManifest();
+    if (manifest != null) {
+      String declared = manifest.getMainAttributes().getValue(kManifestAttribute);
+      if (declared != null) {
+        ArrayList<String> class_names = new ArrayList<String>();
+        for (String class_name : declared.split("[\\s,]+")) {
+          if (!class_name.isEmpty()) {
+            class_names.add(class_name);
+          }
+        }
+        return class_names;
+      }
+    }
+    JarEntry index = jar.getJarEntry(kServiceIndex);
+    if (index == null) {
+      return null;
+    }
+    ArrayList<String> class_names = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(jar.getInputStream(index), StandardCharsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int comment = line.indexOf('#');
+        if (comment >= 0) {
+          line = line.substring(0, comment);
+        }
+        line = line.trim();
+        if (!line.isEmpty()) {
+          class_names.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return class_names;
   }
 
   private static Logger log = LogManager.getLogger();
 
-  private HashMap<String, Plugin> plugins_;  // All plugins. (name, plugin).
+  // Class loaders of the jars from which plugins have been loaded. Closed when unloading.
+  private ArrayList<URLClassLoader> class_loaders_;
+
+  private ConcurrentHashMap<String, Plugin> plugins_;  // All plugins. (name, plugin).
 }
@@ -0,0 +1,37 @@
+/* General AI - Plugin Support
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.plugin;
+
+/**
+ * Adds the handlers of a service class to a {@link ServiceDefinition} without reflection.
+ *
+ * ServiceBindings are generated at compile time by the ServiceBindingProcessor of the
+ * general-ai-intercom-processor library for each service class that declares
+ * {@link ai.general.plugin.annotation.RpcMethod} or {@link ai.general.plugin.annotation.Subscribe}
+ * methods, if the processor library is on the processor path of the compiler. A generated
+ * binding knows the handler paths, request types and parameter types of the service methods and
+ * calls each service method directly via a {@link ai.general.net.MethodInvoker}.
+ *
+ * The binding of a service class is named after the class with the '$' characters of nested
+ * classes replaced by '_' and the suffix {@link #kClassNameSuffix}. For example, the binding of
+ * ai.general.web.User is ai.general.web.User_ServiceBinding. A binding applies only to the exact
+ * class for which it has been generated. The {@link ServiceManager} uses the binding of a service
+ * class if one exists and scans the service class via reflection otherwise.
+ */
+public interface ServiceBinding {
+
+  /** Suffix appended to the name of the service class to form the name of the binding class. */
+  public static final String kClassNameSuffix = "_ServiceBinding";
+
+  /**
+   * Adds handlers for all service methods of the specified service instance to the specified
+   * service definition.
+   *
+   * @param service_def The service definition to which to add the handlers.
+   * @param service The service instance. Must be an instance of the bound class.
+   */
+  void bind(ServiceDefinition service_def, Object service);
+}
@@ -10,8 +10,10 @@ import ai.general.directory.Handler;
 import ai.general.directory.Request;
 import ai.general.net.Connection;
 import ai.general.net.MethodHandler;
+import ai.general.net.MethodInvoker;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 
 import org.apache.logging.log4j.Logger;
@@ -143,21 +145,36 @@ public class ServiceDefinition {
    */
   public boolean addHandler(String handler_path, Request.RequestType request_type, Method method) {
     String handler_name = name_ + ":" + request_type.name() + ":" + method.toString();
-    ServiceHandlerDefinition handler_def =
-      new ServiceHandlerDefinition(handler_path,
-                                   request_type,
-                                   new MethodHandler(handler_name,
-                                                     handler_path.endsWith("/*"),
-                                                     service_,
-                                                     method));
-    if (Directory.Instance.createPath(handler_def.getNodePath()) &&
-        Directory.Instance.addHandler(handler_def.getNodePath(), handler_def.getHandler())) {
-      handler_definitions_.add(handler_def);
-      log.trace("Added service handler {} @ {}", handler_name, handler_def.getNodePath());
-      return true;
-    } else {
-      return false;
-    }
+    return addHandler(handler_path,
+                      request_type,
+                      new MethodHandler(handler_name,
+                                        handler_path.endsWith("/*"),
+                                        service_,
+                                        method));
+  }
+
+  /**
+   * Adds a handler for a service method that is called via the specified invoker. This method is
+   * used by generated {@link ServiceBinding} classes.
+   *
+   * If necessary, this method creates the directory path to the handler node.
+   *
+   * @param handler_path The directory path to the handler node relative to the service home path.
+   * @param request_type The type of requests handled by the service method.
+   * @param method_name The name of the service method in the format of {@link Method#toString()}.
+   * @param parameter_types The generic parameter types of the service method.
+   * @param invoker Calls the service method of the service instance.
+   * @return True if the handler was successfully added.
+   */
+  public boolean addHandler(String handler_path, Request.RequestType request_type,
+                            String method_name, Type[] parameter_types, MethodInvoker invoker) {
+    String handler_name = name_ + ":" + request_type.name() + ":" + method_name;
+    return addHandler(handler_path,
+                      request_type,
+                      new MethodHandler(handler_name,
+                                        handler_path.endsWith("/*"),
+                                        invoker,
+                                        parameter_types));
   }
 
   /**
@@ -270,6 +287,29 @@ public class ServiceDefinition {
   public void setAutoConnect(boolean auto_connect) {
   }
 
+  /**
+   * Adds the specified handler to the directory.
+   *
+   * @param handler_path The directory path to the handler node relative to the service home path.
+   * @param request_type The type of requests handled by the handler.
+   * @param handler The handler to add.
+   * @return True if the handler was successfully added.
+   */
+  private boolean addHandler(String handler_path, Request.RequestType request_type,
+                             Handler handler) {
+    ServiceHandlerDefinition handler_def =
+      new ServiceHandlerDefinition(handler_path, request_type, handler);
+    String handler_name = handler.getName();
+    if (Directory.Instance.createPath(handler_def.getNodePath()) &&
+        Directory.Instance.addHandler(handler_def.getNodePath(), handler_def.getHandler())) {
+      handler_definitions_.add(handler_def);
+      log.trace("Added service handler {} @ {}", handler_name, handler_def.getNodePath());
+      return true;
+    } else {
+      return false;
+    }
+  }
+
   private static Logger log = LogManager.getLogger();
 
   private boolean auto_connect_;  // Whether to automatically connect to new connections.
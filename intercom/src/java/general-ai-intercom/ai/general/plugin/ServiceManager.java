@@ -10,8 +10,9 @@ import ai.general.plugin.annotation.RpcMethod;
 import ai.general.plugin.annotation.Subscribe;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
@@ -26,10 +27,26 @@ import org.apache.logging.log4j.LogManager;
  * Each Service instance is associated with a home path. The RPC methods and subscriptions
  * declared in a class are interpreted with respected to the home path of the Service instance.
  *
- * ServiceManager is a singleton class.
+ * If a {@link ServiceBinding} has been generated for the class of a service instance, the
+ * binding is used to add the handlers of the service. Otherwise, the class is scanned for
+ * annotated methods via reflection. Whether a class has a binding is looked up once per class.
+ * The lookup result is associated with the class itself, so that the cache does not prevent
+ * plugin classes and their class loaders from being unloaded.
+ *
+ * Services may be added and removed concurrently, for example by plugins that register
+ * connection specific services while the plugins of several connections are notified in
+ * parallel.
+ *
+ * ServiceManager is a thread-safe singleton class.
  */
 public class ServiceManager {
 
+  // Marks classes without a generated binding in the binding cache.
+  private static final ServiceBinding kNoBinding = new ServiceBinding() {
+      @Override
+      public void bind(ServiceDefinition service_def, Object service) {}
+    };
+
   /**
    * Singleton instance.
    */
@@ -40,7 +57,13 @@ public class ServiceManager {
    * The singleton instance can be obtained via {@link #Instance}.
    */
   private ServiceManager() {
-    services_ = new HashMap<String, ServiceDefinition>();
+    services_ = new ConcurrentHashMap<String, ServiceDefinition>();
+    bindings_ = new ClassValue<ServiceBinding>() {
+        @Override
+        protected ServiceBinding computeValue(Class<?> service_class) {
+          return loadServiceBinding(service_class);
+        }
+      };
   }
 
   /**
@@ -49,7 +72,8 @@ public class ServiceManager {
    *
    * This method scans the service instance for service annotations and automatically generates
    * handlers for annotated methods. The class of the service instance and all of its super
-   * classes are scanned.
+   * classes are scanned. If a {@link ServiceBinding} has been generated for the class of the
+   * service instance, the binding adds the handlers without scanning.
    *
    * Multiple services can shares the same service home path. The service home path is typically
    * the home path of the user account or the root of the directory.
@@ -67,14 +91,19 @@ public class ServiceManager {
    * @throws IllegalArgumentException if a service with the same name already exists.
    */
   public ServiceDefinition addService(String service_name, Object service, String home_path) {
-    if (services_.containsKey(service_name)) {
-      throw new IllegalArgumentException("Duplicate service name: " + service_name);
-    }
     if (!home_path.endsWith("/")) {
       home_path = home_path + "/";
     }
     ServiceDefinition service_def = new ServiceDefinition(service_name, service, home_path);
-    services_.put(service_name, service_def);
+    if (services_.putIfAbsent(service_name, service_def) != null) {
+      throw new IllegalArgumentException("Duplicate service name: " + service_name);
+    }
+    ServiceBinding binding = getServiceBinding(service.getClass());
+    if (binding != null) {
+      binding.bind(service_def, service);
+      log.trace("Added service {} @ {} via binding", service_name, home_path);
+      return service_def;
+    }
     for (Method method : service.getClass().getMethods()) {
       Subscribe subscription = method.getAnnotation(Subscribe.class);
       if (subscription != null) {
@@ -139,17 +168,55 @@ public class ServiceManager {
    * @param service_name The service name.
    */
   public void removeService(String service_name) {
-    ServiceDefinition service_def = services_.get(service_name);
+    ServiceDefinition service_def = services_.remove(service_name);
     if (service_def == null) {
       return;
     }
     service_def.removeAllHandlers();
-    services_.remove(service_name);
     log.trace("Removed service {}", service_name);
   }
 
+  /**
+   * Returns the generated binding for the specified service class.
+   * The result is cached, so that the binding class is looked up only once per service class.
+   *
+   * @param service_class The class of a service instance.
+   * @return The binding of the service class or null if no binding has been generated.
+   */
+  ServiceBinding getServiceBinding(Class<?> service_class) {
+    ServiceBinding binding = bindings_.get(service_class);
+    return binding != kNoBinding ? binding : null;
+  }
+
+  /**
+   * Loads and instantiates the generated binding for the specified service class.
+   *
+   * @param service_class The class of a service instance.
+   * @return The binding of the service class or kNoBinding if no binding has been generated.
+   */
+  private static ServiceBinding loadServiceBinding(Class<?> service_class) {
+    String binding_name = service_class.getName().replace('$', '_') +
+      ServiceBinding.kClassNameSuffix;
+    try {
+      Class<?> binding_class =
+        Class.forName(binding_name, true, service_class.getClassLoader());
+      return (ServiceBinding) binding_class.newInstance();
+    } catch (ClassNotFoundException e) {
+      return kNoBinding;
+    } catch (ReflectiveOperationException e) {
+      log.catching(Level.DEBUG, e);
+      return kNoBinding;
+    } catch (ClassCastException e) {
+      log.catching(Level.DEBUG, e);
+      return kNoBinding;
+    }
+  }
+
   private static Logger log = LogManager.getLogger();
 
+  // Generated bindings by service class. Contains kNoBinding for classes without a binding.
+  private ClassValue<ServiceBinding> bindings_;
+
   // List of services: service name -> ServiceDefinition.
-  private HashMap<String, ServiceDefinition> services_;
+  private ConcurrentHashMap<String, ServiceDefinition> services_;
 }
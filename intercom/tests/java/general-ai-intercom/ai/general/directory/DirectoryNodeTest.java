@@ -8,6 +8,10 @@ package ai.general.directory;
 import ai.general.directory.test.TestHandler;
 import ai.general.directory.test.TestUtilities;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Assert;
 import org.junit.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -18,6 +22,53 @@ import static org.hamcrest.CoreMatchers.*;
  */
 public class DirectoryNodeTest {
 
+  /**
+   * Handler that counts the requests it handles.
+   */
+  private static class CountingHandler extends Handler {
+
+    /**
+     * @param name Handler name.
+     * @param catch_all True if this is a catch-all handler.
+     */
+    public CountingHandler(String name, boolean catch_all) {
+      super(name, catch_all);
+      count_ = new AtomicInteger();
+    }
+
+    /**
+     * Returns the number of handled requests.
+     *
+     * @return The number of handled requests.
+     */
+    public int getCount() {
+      return count_.get();
+    }
+
+    /**
+     * Counts the request.
+     *
+     * @param request The request to handle.
+     */
+    @Override
+    public void handle(Request request) {
+      count_.incrementAndGet();
+    }
+
+    /**
+     * Counts the request.
+     *
+     * @param path_remainder The relative path to the target of the request.
+     * @param request The request to handle.
+     */
+    @Override
+    public void handleCatchAll(String path_remainder, Request request) {
+      count_.incrementAndGet();
+    }
+
+    private AtomicInteger count_;  // Number of handled requests.
+  }
+
   /**
    * Tests mounting and unmounting of nodes.
    */
@@ -119,6 +170,86 @@ public class DirectoryNodeTest {
     assertThat(node_a.hasChild("node_d1"), is(true));
   }
 
+  /**
+   * Tests cycle detection for nodes that are mounted via virtual nodes or along multiple paths.
+   */
+  @Test
+  public void mountLinked() throws NodeException {
+    DirectoryNode root = new DirectoryNode("");
+    DirectoryNode node_a = new DirectoryNode("a");
+    DirectoryNode node_b = new DirectoryNode("b");
+    DirectoryNode node_c = new DirectoryNode("c");
+    DirectoryNode node_d = new DirectoryNode("d");
+    root.mount(node_a);
+    root.mount(node_b);
+    node_a.mount(node_c);
+    node_b.mount(new VirtualNode(node_c, "virtual:b"));
+    node_c.mount(node_d);
+    Assert.assertTrue(node_b.isReachable(node_d));
+    Assert.assertTrue(root.isReachable(node_d));
+    Assert.assertFalse(node_a.isReachable(node_b));
+
+    // d is reachable from a and b. Mounting either under d creates a cycle.
+    for (Node ancestor : new Node[] {
+        node_a, new VirtualNode(node_b, "virtual:d"), root }) {
+      try {
+        node_d.mount(ancestor);
+        Assert.fail("Expected exception: Cyclic.");
+      } catch (NodeException e) {
+        assertThat(e.getReason(), is(NodeException.Reason.Cyclic));
+      }
+    }
+
+    // After removing the link, b can be mounted under d.
+    Assert.assertTrue(node_b.unmount(node_c));
+    Assert.assertFalse(node_b.isReachable(node_d));
+    node_d.mount(new VirtualNode(node_b, "virtual:d"));
+    Assert.assertTrue(node_d.isReachable(node_b));
+    try {
+      node_b.mount(node_c);
+      Assert.fail("Expected exception: Cyclic.");
+    } catch (NodeException e) {
+      assertThat(e.getReason(), is(NodeException.Reason.Cyclic));
+    }
+  }
+
+  /**
+   * Tests mounting and unmounting across the compact child representations and interning of
+   * node names.
+   */
+  @Test
+  public void mountCompact() throws NodeException {
+    DirectoryNode root = new DirectoryNode("");
+    DirectoryNode[] children = new DirectoryNode[] {
+      new DirectoryNode(new String("a")),
+      new DirectoryNode(new String("b")),
+      new DirectoryNode(new String("c")) };
+    Assert.assertTrue(children[0].getName() == "a");
+    for (int unmounted = 0; unmounted < children.length; unmounted++) {
+      for (int i = 0; i < children.length; i++) {
+        root.mount(children[i]);
+        assertThat(root.numChildren(), is(i + 1));
+        for (int j = 0; j <= i; j++) {
+          assertThat(root.getChild(children[j].getName()), is((Node) children[j]));
+        }
+        Assert.assertTrue(root.isReachable(children[i]));
+      }
+      // Unmount down to a single child, starting at a different child in each round.
+      for (int k = 0; k < children.length - 1; k++) {
+        DirectoryNode child = children[(unmounted + k) % children.length];
+        Assert.assertTrue(root.unmount(child));
+        Assert.assertFalse(root.hasChild(child.getName()));
+        Assert.assertFalse(root.isReachable(child));
+      }
+      DirectoryNode remaining = children[(unmounted + children.length - 1) % children.length];
+      assertThat(root.numChildren(), is(1));
+      assertThat(root.getChild(remaining.getName()), is((Node) remaining));
+      Assert.assertTrue(root.unmount(remaining));
+      assertThat(root.numChildren(), is(0));
+      Assert.assertFalse(root.unmount(remaining));
+    }
+  }
+
   /**
    * Tests execution of handlers.
    */
@@ -428,6 +559,65 @@ public class DirectoryNodeTest {
     Assert.assertNull(test_handler_c.getPathRemainder());
   }
 
+  /**
+   * Tests that publish requests for eligible sessions are dispatched to the handlers of the
+   * eligible sessions and to handlers without session, both with and without session index.
+   */
+  @Test
+  public void handleEligibleSessions() throws NodeException {
+    Node root = new DirectoryNode("");
+    Node topic = new DirectoryNode("topic");
+    root.mount(topic);
+    TestHandler local_handler = new TestHandler("local");
+    topic.addHandler(local_handler);
+    TestHandler[] session_handlers = new TestHandler[DirectoryNode.kMinIndexedHandlers];
+    for (int i = 0; i < session_handlers.length; i++) {
+      final String session_id = "session" + i;
+      session_handlers[i] = new TestHandler("handler-" + i) {
+          @Override
+          public String getSessionId() {
+            return session_id;
+          }
+        };
+    }
+
+    // Fewer handlers than kMinIndexedHandlers: all handlers are run.
+    topic.addHandler(session_handlers[0]);
+    topic.addHandler(session_handlers[1]);
+    Request request = TestUtilities.createRequest(
+        "/topic?type=publish&eligible=session1", "[1]");
+    assertThat(root.handle(request), is(3));
+    assertThat(local_handler.getArgument(0), is("[1]"));
+    assertThat(session_handlers[0].getArgument(0), is("[1]"));
+    assertThat(session_handlers[1].getArgument(0), is("[1]"));
+
+    // Indexed: only the local handler and the handlers of eligible sessions are run.
+    for (int i = 2; i < session_handlers.length; i++) {
+      topic.addHandler(session_handlers[i]);
+    }
+    request = TestUtilities.createRequest(
+        "/topic?type=publish&eligible=session1,session3,unknown", "[2]");
+    assertThat(root.handle(request), is(3));
+    assertThat(local_handler.getArgument(0), is("[2]"));
+    assertThat(session_handlers[0].getArgument(0), is("[1]"));
+    assertThat(session_handlers[1].getArgument(0), is("[2]"));
+    Assert.assertNull(session_handlers[2].getArgument(0));
+    assertThat(session_handlers[3].getArgument(0), is("[2]"));
+
+    // The index is rebuilt when handlers are removed.
+    Assert.assertTrue(topic.removeHandler(session_handlers[3].getName()));
+    request = TestUtilities.createRequest(
+        "/topic?type=publish&eligible=session1,session3", "[3]");
+    assertThat(root.handle(request), is(2));
+    assertThat(session_handlers[1].getArgument(0), is("[3]"));
+    assertThat(session_handlers[3].getArgument(0), is("[2]"));
+
+    // Requests without eligible sessions are dispatched to all handlers.
+    request = TestUtilities.createRequest("/topic?type=publish", "[4]");
+    assertThat(root.handle(request), is(session_handlers.length));
+    assertThat(session_handlers[2].getArgument(0), is("[4]"));
+  }
+
   /**
    * Tests linking of a nodes by mounting a sub-hierarchy onto multiple nodes.
    * Includes tests for handlers.
@@ -498,4 +688,72 @@ public class DirectoryNodeTest {
     assertThat(test_handler_a2.getArgument(0), is("[4]"));
     assertThat(test_handler_c.getArgument(0), is("[3]"));
   }
+
+  /**
+   * Tests handling requests while handlers are added and removed and nodes are mounted and
+   * unmounted concurrently.
+   */
+  @Test
+  public void concurrentModification() throws InterruptedException {
+    final int kRequests = 20000;
+    final Node root = new DirectoryNode("");
+    final Node node_a = new DirectoryNode("a");
+    final Node node_b = new DirectoryNode("b");
+    CountingHandler permanent_handler = new CountingHandler("permanent", false);
+    CountingHandler permanent_catch_all = new CountingHandler("permanent-catch-all", true);
+    try {
+      root.mount(node_a);
+      node_a.mount(node_b);
+      node_b.addHandler(permanent_handler);
+      node_a.addHandler(permanent_catch_all);
+    } catch (NodeException e) {
+      Assert.fail("Unexpected exception: " + e);
+      return;
+    }
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] modifiers = new Thread[4];
+    for (int i = 0; i < modifiers.length; i++) {
+      final int modifier_id = i;
+      modifiers[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              int iteration = 0;
+              while (!done.get()) {
+                String name = "churn-" + modifier_id + "-" + iteration;
+                node_b.addHandler(new CountingHandler(name, false));
+                node_a.addHandler(new CountingHandler(name, true));
+                Node child = new DirectoryNode(name);
+                node_b.mount(child);
+                node_b.removeHandler(name);
+                node_a.removeHandler(name);
+                node_b.unmount(child);
+                iteration++;
+              }
+            } catch (Throwable e) {
+              failure.set(e);
+            }
+          }
+        };
+      modifiers[i].start();
+    }
+    try {
+      for (int i = 0; i < kRequests; i++) {
+        root.handle(TestUtilities.createRequest("wamp://user@domain/a/b", "[" + i + "]"));
+      }
+    } finally {
+      done.set(true);
+      for (Thread modifier : modifiers) {
+        modifier.join();
+      }
+    }
+    Assert.assertNull(failure.get());
+    assertThat(permanent_handler.getCount(), is(kRequests));
+    assertThat(permanent_catch_all.getCount(), is(kRequests));
+    assertThat(node_b.numChildren(), is(0));
+    Assert.assertTrue(node_b.hasHandler("permanent"));
+    Assert.assertFalse(node_b.hasHandler("churn-0-0"));
+  }
 }
@@ -7,6 +7,15 @@ package ai.general.directory;
 
 import ai.general.directory.test.TestHandler;
 import ai.general.directory.test.TestUtilities;
+import ai.general.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -18,6 +27,55 @@ import static org.hamcrest.CoreMatchers.*;
  */
 public class DirectoryTest {
 
+  /**
+   * Handler that records the arguments of the requests it handles and the threads on which they
+   * are handled.
+   */
+  private static class SequenceHandler extends Handler {
+
+    /**
+     * @param name Handler name.
+     * @param catch_all True if this is a catch-all handler.
+     */
+    public SequenceHandler(String name, boolean catch_all) {
+      super(name, catch_all);
+      arguments_ = Collections.synchronizedList(new ArrayList<Object>());
+      threads_ = Collections.synchronizedList(new ArrayList<Thread>());
+    }
+
+    /**
+     * Returns the first argument of each handled request in the order of handling.
+     *
+     * @return The recorded arguments.
+     */
+    public List<Object> getArguments() {
+      return arguments_;
+    }
+
+    /**
+     * Returns the threads on which requests were handled in the order of handling.
+     *
+     * @return The recorded threads.
+     */
+    public List<Thread> getThreads() {
+      return threads_;
+    }
+
+    /**
+     * Records the request.
+     *
+     * @param request The request to handle.
+     */
+    @Override
+    public synchronized void handle(Request request) {
+      threads_.add(Thread.currentThread());
+      arguments_.add(request.getArgument(0));
+    }
+
+    private List<Object> arguments_;  // First argument of handled requests.
+    private List<Thread> threads_;  // Threads on which requests were handled.
+  }
+
   /**
    * Tests creation of paths.
    */
@@ -42,6 +100,91 @@ public class DirectoryTest {
     Assert.assertNotNull(directory.getNode("/directory/create/a/b/c2"));
   }
 
+  /**
+   * Tests creation of paths from a template.
+   */
+  @Test
+  public void createPaths() {
+    Directory directory = Directory.Instance;
+    PathTemplate template = new PathTemplate("/events/a", "/events/b/c", "/x");
+    PathTemplate extended = new PathTemplate(template, "/events/b/d", "/y/z");
+    assertThat(extended.getPaths().size(), is(5));
+    assertThat(extended.getPaths().get(3), is("/events/b/d"));
+    try {
+      new PathTemplate("relative/path");
+      Assert.fail("Expected IllegalArgumentException.");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+
+    String home = "/directory/template/user/home";
+    Assert.assertTrue(directory.createPaths(home, template));
+    Assert.assertTrue(directory.pathExists(home + "/events/a"));
+    Assert.assertTrue(directory.pathExists(home + "/events/b/c"));
+    Assert.assertTrue(directory.pathExists(home + "/x"));
+    Assert.assertFalse(directory.pathExists(home + "/events/b/d"));
+
+    // Existing paths are merged with the template.
+    Node events = directory.getNode(home + "/events");
+    TestHandler handler = new TestHandler("handler");
+    Assert.assertTrue(directory.addHandler(home + "/events/a", handler));
+    Assert.assertTrue(directory.createPaths(home, extended));
+    assertThat(directory.getNode(home + "/events"), is(events));
+    Assert.assertTrue(directory.hasHandler(home + "/events/a", "handler"));
+    Assert.assertTrue(directory.pathExists(home + "/events/b/d"));
+    Assert.assertTrue(directory.pathExists(home + "/y/z"));
+
+    // Each instantiation creates new nodes.
+    String other_home = "/directory/template/other/home";
+    Assert.assertTrue(directory.createPaths(other_home, template));
+    Assert.assertFalse(directory.hasHandler(other_home + "/events/a", "handler"));
+    Assert.assertFalse(directory.pathExists(other_home + "/y"));
+  }
+
+  /**
+   * Tests concurrent creation of paths from a template for many users, some of which create
+   * their paths more than once, as during a reconnect storm.
+   */
+  @Test
+  public void createPathsConcurrently() throws InterruptedException {
+    final int num_threads = 8;
+    final int num_users = 200;
+    final Directory directory = Directory.Instance;
+    final PathTemplate template = new PathTemplate(
+        "/events/session/ping", "/events/session/pong", "/events/user_event",
+        "/events/webrtc", "/robot/control/ping", "/robot/video/panTilt");
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[num_threads];
+    for (int t = 0; t < num_threads; t++) {
+      final int thread_index = t;
+      threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < num_users; i++) {
+              // Each user logs in from two threads.
+              int user = (i + (thread_index / 2) * num_users) % (num_users * num_threads / 2);
+              if (!directory.createPaths("/directory/storm/user" + user + "/home", template)) {
+                failures.incrementAndGet();
+              }
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(failures.get(), is(0));
+    for (int user = 0; user < num_users * num_threads / 2; user++) {
+      String home = "/directory/storm/user" + user + "/home";
+      for (String path : template.getPaths()) {
+        Assert.assertTrue(directory.pathExists(home + path));
+      }
+      assertThat(directory.getNode(home).numChildren(), is(2));
+      assertThat(directory.getNode(home + "/events").numChildren(), is(3));
+    }
+  }
+
   /**
    * Tests removal of paths.
    */
@@ -66,6 +209,121 @@ public class DirectoryTest {
     Assert.assertFalse(directory.removePath("/"));
   }
 
+  /**
+   * Tests that resolved paths are no longer resolved once a node along the path is unmounted,
+   * including when the node is unmounted directly rather than via the directory.
+   */
+  @Test
+  public void pathIndex() throws NodeException {
+    Directory directory = Directory.Instance;
+    Assert.assertTrue(directory.createPath("/directory/index/a/b"));
+    Node a = directory.getNode("/directory/index/a");
+    Node b = directory.getNode("/directory/index/a/b");
+    Assert.assertNotNull(b);
+    assertThat(directory.getNode("/directory/index/a/b"), is(sameInstance(b)));
+
+    Assert.assertTrue(directory.getNode("/directory/index").unmount(a));
+    Assert.assertNull(directory.getNode("/directory/index/a"));
+    Assert.assertNull(directory.getNode("/directory/index/a/b"));
+
+    directory.getNode("/directory/index").mount(a);
+    assertThat(directory.getNode("/directory/index/a/b"), is(sameInstance(b)));
+
+    Assert.assertTrue(directory.createPath("/directory/index/from"));
+    Assert.assertTrue(directory.link("/directory/index/from", "/directory/index/a"));
+    Assert.assertNotNull(directory.getNode("/directory/index/from/a/b"));
+    Assert.assertTrue(directory.unlink("/directory/index/from", "/directory/index/a"));
+    Assert.assertNull(directory.getNode("/directory/index/from/a/b"));
+    assertThat(directory.getNode("/directory/index/a/b"), is(sameInstance(b)));
+  }
+
+  /**
+   * Tests that variants of a path share an index entry and that unmounting a node invalidates
+   * the indexed paths, which are resolved again on their next lookup.
+   */
+  @Test
+  public void pathIndexKeys() throws NodeException {
+    Directory directory = Directory.Instance;
+    Assert.assertTrue(directory.createPath("/directory/keys/x/y"));
+    Assert.assertTrue(directory.createPath("/directory/keys/z"));
+    Node keys = directory.getNode("/directory/keys");
+    Node x = directory.getNode("/directory/keys/x");
+    Node z = directory.getNode("/directory/keys/z");
+    Node y = directory.getNode("/directory/keys/x/y/");
+    Assert.assertNotNull(y);
+    Assert.assertTrue(directory.isPathIndexed("/directory/keys/x/y"));
+    assertThat(directory.getNode("/directory/keys/x/y"), is(sameInstance(y)));
+    assertThat(directory.getNode("/directory/keys/x/y//"), is(sameInstance(y)));
+    assertThat(directory.getNode("/directory/keys/x/y/*"), is(sameInstance(y)));
+    Assert.assertFalse(directory.isPathIndexed("/directory/keys/x/y//*"));
+
+    Assert.assertTrue(keys.unmount(z));
+    Assert.assertFalse(directory.isPathIndexed("/directory/keys/x/y"));
+    Assert.assertFalse(directory.isPathIndexed("/directory/keys/z"));
+    Assert.assertNull(directory.getNode("/directory/keys/z"));
+    assertThat(directory.getNode("/directory/keys/x/y"), is(sameInstance(y)));
+    Assert.assertTrue(directory.isPathIndexed("/directory/keys/x/y"));
+    Assert.assertTrue(keys.unmount(x));
+    Assert.assertFalse(directory.isPathIndexed("/directory/keys/x/y"));
+    Assert.assertNull(directory.getNode("/directory/keys/x/y"));
+    Assert.assertFalse(directory.isPathIndexed("/directory/keys/x/y"));
+    assertThat(directory.getNode("/directory/keys"), is(sameInstance(keys)));
+    Assert.assertTrue(directory.isPathIndexed("/directory/keys"));
+  }
+
+  /**
+   * Tests asynchronous handling of publish requests via a publish executor.
+   */
+  @Test
+  public void publishExecutor() throws InterruptedException {
+    final int num_requests = 200;
+    Directory directory = Directory.Instance;
+    Assert.assertTrue(directory.createPath("/directory/publish/topic"));
+    SequenceHandler handler = new SequenceHandler("handler", false);
+    SequenceHandler catch_all_handler = new SequenceHandler("catch_all_handler", true);
+    Assert.assertTrue(directory.addHandler("/directory/publish/topic", handler));
+    Assert.assertTrue(directory.addHandler("/directory/publish", catch_all_handler));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    directory.setPublishExecutor(executor);
+    try {
+      assertThat(directory.getPublishExecutor(), is((Object) executor));
+      // Unmounting nodes does not change the publish executor.
+      Assert.assertTrue(directory.createPath("/directory/publish/removed"));
+      Assert.assertTrue(directory.removePath("/directory/publish/removed"));
+      assertThat(directory.getPublishExecutor(), is((Object) executor));
+      for (int i = 0; i < num_requests; i++) {
+        Request request = new Request(new Uri("topic"), Request.RequestType.Publish, i);
+        assertThat(directory.handle("/directory/publish", request), is(2));
+        request = new Request(new Uri("/directory/publish/topic"),
+                              Request.RequestType.Publish, i);
+        assertThat(directory.handle("/", request), is(2));
+      }
+
+      // Calls are handled synchronously.
+      Request call = new Request(new Uri("topic"), Request.RequestType.Call, -1);
+      assertThat(directory.handle("/directory/publish", call), is(2));
+    } finally {
+      directory.setPublishExecutor(null);
+      executor.shutdown();
+    }
+    Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    for (SequenceHandler sequence_handler : new SequenceHandler[] {
+        handler, catch_all_handler }) {
+      List<Object> arguments = sequence_handler.getArguments();
+      List<Thread> threads = sequence_handler.getThreads();
+      assertThat(arguments.size(), is(2 * num_requests + 1));
+      int call_index = arguments.indexOf(-1);
+      assertThat(threads.get(call_index), is(Thread.currentThread()));
+      arguments.remove(call_index);
+      threads.remove(call_index);
+      for (int i = 0; i < num_requests; i++) {
+        assertThat(arguments.get(2 * i), is((Object) i));
+        assertThat(arguments.get(2 * i + 1), is((Object) i));
+        Assert.assertFalse(threads.get(2 * i) == Thread.currentThread());
+      }
+    }
+  }
+
   /**
    * Tests execution of handlers.
    */
@@ -144,4 +144,45 @@ public class PathWalkerTest {
     assertThat(walker.atLeaf(), is(true));
     assertThat(walker.remainder(), is(""));
   }
+
+  /**
+   * Tests walking paths with empty nodes and trailing slashes.
+   */
+  @Test
+  public void walkEmptyNodes() {
+    PathWalker walker = new PathWalker("/a//b/");
+    assertThat(walker.numNodes(), is(4));
+    assertThat(walker.endsWithWildcard(), is(false));
+    assertThat(walker.remainder(), is("a//b"));
+    Assert.assertTrue(walker.moveDown());
+    assertThat(walker.getCurrentNodeName(), is("a"));
+    assertThat(walker.remainder(), is("/b"));
+    Assert.assertTrue(walker.moveDown());
+    assertThat(walker.getCurrentNodeName(), is(""));
+    assertThat(walker.remainder(), is("b"));
+    Assert.assertTrue(walker.moveDown());
+    assertThat(walker.getCurrentNodeName(), is("b"));
+    assertThat(walker.atLeaf(), is(true));
+    Assert.assertFalse(walker.moveDown());
+    Assert.assertTrue(walker.moveUp());
+    assertThat(walker.getCurrentNodeName(), is(""));
+    Assert.assertTrue(walker.moveUp());
+    assertThat(walker.getCurrentNodeName(), is("a"));
+    Assert.assertTrue(walker.moveUp());
+    assertThat(walker.getCurrentNodeName(), is(""));
+    assertThat(walker.getCurrentLevel(), is(0));
+
+    walker = new PathWalker("//");
+    assertThat(walker.numNodes(), is(1));
+    assertThat(walker.atLeaf(), is(true));
+
+    walker = new PathWalker("top/down/*/");
+    assertThat(walker.endsWithWildcard(), is(true));
+    assertThat(walker.numNodes(), is(3));
+    assertThat(walker.remainder(), is("top/down"));
+    while (walker.moveDown());
+    assertThat(walker.getCurrentNodeName(), is("down"));
+    Assert.assertTrue(walker.moveUp());
+    assertThat(walker.getCurrentNodeName(), is("top"));
+  }
 }
@@ -7,6 +7,8 @@ package ai.general.directory;
 
 import ai.general.net.Uri;
 
+import java.util.Set;
+
 import org.junit.Assert;
 import org.junit.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -61,6 +63,30 @@ public class RequestTest {
     assertThat(request.getUri().getParameter("x"), is(""));
   }
 
+  /**
+   * Tests that deferred arguments are decoded on access.
+   */
+  @Test
+  public void deferredArguments() {
+    DeferredArgument deferred = new DeferredArgument() {
+        @Override
+        public Object getValue() {
+          return "decoded";
+        }
+      };
+    Request request = new Request(new Uri(kTestUri), "plain", deferred);
+    assertThat(request.numArguments(), is(2));
+    assertThat((String) request.getArgument(0), is("plain"));
+    assertThat((String) request.getArgument(1), is("decoded"));
+    Assert.assertSame(deferred, request.getUndecodedArgument(1));
+    assertThat((String) request.getUndecodedArgument(0), is("plain"));
+    Assert.assertNull(request.getUndecodedArgument(2));
+    Object[] arguments = request.getArguments().toArray();
+    assertThat(arguments.length, is(2));
+    assertThat((String) arguments[0], is("plain"));
+    assertThat((String) arguments[1], is("decoded"));
+  }
+
   /**
    * Tests adding results and setting errors.
    */
@@ -83,4 +109,72 @@ public class RequestTest {
     assertThat(result.getError(1).getDescription(), is("second"));
     assertThat((int) result.getError(1).getDetails(), is(987));
   }
+
+  /**
+   * Tests adding and replacing arguments of a request that was created without arguments.
+   */
+  @Test
+  public void arguments() {
+    Request request = new Request(new Uri(kPathUri), Request.RequestType.Call);
+    assertThat(request.numArguments(), is(0));
+    Assert.assertTrue(request.getArguments().isEmpty());
+    for (int i = 0; i < 10; i++) {
+      request.addArgument(i);
+    }
+    request.addArguments("a", "b");
+    assertThat(request.numArguments(), is(12));
+    assertThat((int) request.getArgument(9), is(9));
+    assertThat((String) request.getArgument(11), is("b"));
+    request.setArgument(11, "c");
+    assertThat((String) request.getArgument(11), is("c"));
+    try {
+      request.setArgument(12, "d");
+      Assert.fail("expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+    assertThat(request.getArguments().size(), is(12));
+  }
+
+  /**
+   * Tests a result without values or errors.
+   */
+  @Test
+  public void emptyResult() {
+    Request request = new Request(new Uri(kTestUri), kJsonData);
+    Result result = request.getResult();
+    Assert.assertSame(result, request.getResult());
+    Assert.assertFalse(result.hasErrors());
+    assertThat(result.numValues(), is(0));
+    assertThat(result.numErrors(), is(0));
+    Assert.assertNull(result.getValue(0));
+    Assert.assertNull(result.getError(0));
+    Assert.assertTrue(result.getValues().isEmpty());
+    Assert.assertTrue(result.getErrors().isEmpty());
+  }
+
+  /**
+   * Tests parsing of the eligible and excluded session lists.
+   */
+  @Test
+  public void sessions() {
+    Request request = new Request(new Uri("/a/b?type=publish"), kJsonData);
+    Assert.assertNull(request.getEligibleSessions());
+    Assert.assertNull(request.getExcludedSessions());
+
+    request = new Request(new Uri("/a/b?type=publish&eligible=s1,s22,,s3,&exclude=s22"),
+                          kJsonData);
+    Set<String> eligible = request.getEligibleSessions();
+    assertThat(eligible.size(), is(3));
+    Assert.assertTrue(eligible.contains("s1"));
+    Assert.assertTrue(eligible.contains("s22"));
+    Assert.assertTrue(eligible.contains("s3"));
+    Assert.assertFalse(eligible.contains("s2"));
+    Assert.assertSame(eligible, request.getEligibleSessions());
+    assertThat(request.getExcludedSessions().size(), is(1));
+    Assert.assertTrue(request.getExcludedSessions().contains("s22"));
+
+    request = new Request(new Uri("/a/b?type=publish&eligible="), kJsonData);
+    Assert.assertTrue(request.getEligibleSessions().isEmpty());
+  }
 }
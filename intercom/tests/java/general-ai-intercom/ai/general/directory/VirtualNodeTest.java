@@ -10,6 +10,7 @@ import ai.general.directory.test.TestUtilities;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -114,4 +115,157 @@ public class VirtualNodeTest {
     virtual.deactivate();
     assertThat(real.handle(request), is(0));
   }
+
+  /**
+   * Tests that virtual children are evicted once they are no longer used.
+   */
+  @Test
+  public void evictChildren() {
+    DirectoryNode real = new DirectoryNode("real");
+    DirectoryNode child = new DirectoryNode("child");
+    DirectoryNode grandchild = new DirectoryNode("grandchild");
+    VirtualNode virtual = new VirtualNode(real, "virtual");
+    TestHandler handler = new TestHandler("handler");
+    try {
+      real.mount(child);
+      child.mount(grandchild);
+    } catch (NodeException e) {
+      Assert.fail("Unexpected exception: " + e.toString());
+    }
+
+    Node virtual_child = virtual.getChild("child");
+    Node virtual_grandchild = virtual_child.getChild("grandchild");
+    assertThat(virtual.getChild("child"), is(virtual_child));
+    try {
+      virtual_grandchild.addHandler(handler);
+    } catch (NodeException e) {
+      Assert.fail("Unexpected exception: " + e.toString());
+    }
+    assertThat(grandchild.handle(TestUtilities.createRequest("/", "used")), is(1));
+    assertThat(handler.getArgument(0), is("used"));
+
+    // Removing the last handler evicts the grandchild and the now unused child.
+    Assert.assertTrue(virtual_grandchild.removeHandler("handler"));
+    Assert.assertFalse(virtual.getChild("child") == virtual_child);
+    try {
+      virtual_grandchild.addHandler(handler);
+      Assert.fail("Expected NodeException.");
+    } catch (NodeException e) {
+      assertThat(e.getReason(), is(NodeException.Reason.Evicted));
+    }
+    assertThat(grandchild.handle(TestUtilities.createRequest("/", "evicted")), is(0));
+
+    // Children that are only looked up are evicted when the cache grows.
+    try {
+      for (int i = 0; i < 100; i++) {
+        real.mount(new DirectoryNode("node" + i));
+      }
+    } catch (NodeException e) {
+      Assert.fail("Unexpected exception: " + e.toString());
+    }
+    virtual_child = virtual.getChild("child");
+    try {
+      virtual_child.addHandler(handler);
+    } catch (NodeException e) {
+      Assert.fail("Unexpected exception: " + e.toString());
+    }
+    Node looked_up = virtual.getChild("node0");
+    for (int i = 1; i < 100; i++) {
+      virtual.getChild("node" + i);
+    }
+    Assert.assertFalse(virtual.getChild("node0") == looked_up);
+    assertThat(virtual.getChild("child"), is(virtual_child));
+    assertThat(child.handle(TestUtilities.createRequest("/", "cached")), is(1));
+    assertThat(handler.getArgument(0), is("cached"));
+  }
+
+  /**
+   * Tests that all cached descendants of an evicted virtual child are evicted, including
+   * descendants that are looked up via a stale reference after the eviction.
+   */
+  @Test
+  public void evictSubtree() {
+    DirectoryNode real = new DirectoryNode("real");
+    DirectoryNode child = new DirectoryNode("child");
+    DirectoryNode grandchild = new DirectoryNode("grandchild");
+    VirtualNode virtual = new VirtualNode(real, "virtual");
+    TestHandler handler = new TestHandler("handler");
+    try {
+      real.mount(child);
+      child.mount(grandchild);
+      grandchild.mount(new DirectoryNode("leaf"));
+      for (int i = 0; i < 100; i++) {
+        real.mount(new DirectoryNode("node" + i));
+      }
+    } catch (NodeException e) {
+      Assert.fail("Unexpected exception: " + e.toString());
+    }
+
+    Node virtual_child = virtual.getChild("child");
+    Node virtual_grandchild = virtual_child.getChild("grandchild");
+    for (int i = 0; i < 100; i++) {
+      virtual.getChild("node" + i);
+    }
+    Assert.assertFalse(virtual.getChild("child") == virtual_child);
+    try {
+      virtual_grandchild.addHandler(handler);
+      Assert.fail("Expected NodeException.");
+    } catch (NodeException e) {
+      assertThat(e.getReason(), is(NodeException.Reason.Evicted));
+    }
+    try {
+      virtual_grandchild.getChild("leaf").addHandler(handler);
+      Assert.fail("Expected NodeException.");
+    } catch (NodeException e) {
+      assertThat(e.getReason(), is(NodeException.Reason.Evicted));
+    }
+    assertThat(grandchild.handle(TestUtilities.createRequest("/", "evicted")), is(0));
+  }
+
+  /**
+   * Tests concurrent lookups of virtual children and concurrent addition of handlers.
+   */
+  @Test
+  public void concurrentChildren() throws InterruptedException {
+    final int num_threads = 8;
+    final int num_children = 50;
+    DirectoryNode real = new DirectoryNode("real");
+    try {
+      for (int i = 0; i < num_children; i++) {
+        real.mount(new DirectoryNode("child" + i));
+      }
+    } catch (NodeException e) {
+      Assert.fail("Unexpected exception: " + e.toString());
+    }
+    final VirtualNode virtual = new VirtualNode(real, "virtual");
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[num_threads];
+    for (int t = 0; t < num_threads; t++) {
+      final int thread_index = t;
+      threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < num_children; i++) {
+              Node virtual_child = virtual.getChild("child" + i);
+              try {
+                virtual_child.addHandler(new TestHandler("handler" + thread_index));
+              } catch (NodeException e) {
+                failures.incrementAndGet();
+              }
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(failures.get(), is(0));
+    for (int i = 0; i < num_children; i++) {
+      Node virtual_child = virtual.getChild("child" + i);
+      for (int t = 0; t < num_threads; t++) {
+        Assert.assertTrue(virtual_child.hasHandler("handler" + t));
+      }
+    }
+  }
 }
@@ -0,0 +1,429 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import ai.general.plugin.Plugin;
+import ai.general.plugin.PluginManager;
+import ai.general.plugin.ServiceManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link ConnectionManager}.
+ */
+public class ConnectionManagerTest {
+
+  /**
+   * Connection that does not send or receive messages and can be made ready or closed by tests.
+   *
+   * The connection holds the state that the {@link RecordingPlugin} keeps for it. The state is
+   * not thread-safe, since the notifications of a connection must be delivered one at a time.
+   */
+  private static class StubConnection extends Connection {
+
+    /**
+     * @param id Unique ID of the connection.
+     */
+    public StubConnection(int id) {
+      super(new Uri("ws", "general.ai", "/connection_manager_test/" + id), null, "/");
+      this.id_ = id;
+      events_ = new StringBuilder();
+      num_active_ = 0;
+      num_connects_ = 0;
+      num_errors_ = 0;
+    }
+
+    @Override
+    public boolean call(String method_path, RpcCallback callback, Object ... arguments) {
+      return false;
+    }
+
+    @Override
+    public boolean call(Uri method_uri, RpcCallback callback, Object ... arguments) {
+      return false;
+    }
+
+    /**
+     * Returns the recorded notifications. Each connect notification is recorded as '+' and each
+     * disconnect notification as '-'.
+     *
+     * @return The recorded notifications.
+     */
+    public String getEvents() {
+      return events_.toString();
+    }
+
+    /**
+     * Returns the name of the service that the {@link RecordingPlugin} registers for this
+     * connection.
+     *
+     * @return The service name.
+     */
+    public String getServiceName() {
+      return "stub:" + id_;
+    }
+
+    /**
+     * Returns the number of errors detected by the {@link RecordingPlugin}. An error is a
+     * notification that overlapped with another notification of this connection, a connect
+     * notification of a connected connection, a disconnect notification of a disconnected
+     * connection or a missing or duplicate service registration.
+     *
+     * @return The number of errors.
+     */
+    public int numErrors() {
+      return num_errors_;
+    }
+
+    @Override
+    public boolean process(String input) {
+      return false;
+    }
+
+    @Override
+    public boolean publish(String topic_path, Object data) {
+      return false;
+    }
+
+    @Override
+    public boolean publish(Uri topic_uri, Object data) {
+      return false;
+    }
+
+    @Override
+    public boolean publish(String topic_path, Object data, boolean exclude_me) {
+      return false;
+    }
+
+    @Override
+    public boolean publish(String topic_path,
+                           Object data,
+                           String[] exclude,
+                           String[] eligible) {
+      return false;
+    }
+
+    /**
+     * Makes the connection ready or closes it.
+     *
+     * @param is_ready True if the connection is ready.
+     */
+    public void setReady(boolean is_ready) {
+      setIsReady(is_ready);
+    }
+
+    @Override
+    public boolean subscribe(String topic_path) {
+      return false;
+    }
+
+    @Override
+    public boolean subscribe(Uri topic_uri) {
+      return false;
+    }
+
+    @Override
+    public boolean unsubscribe(String topic_path) {
+      return false;
+    }
+
+    @Override
+    public boolean unsubscribe(Uri topic_uri) {
+      return false;
+    }
+
+    private StringBuilder events_;  // Recorded notifications.
+    private int id_;  // Unique ID of the connection.
+    private int num_active_;  // Number of running notifications.
+    private int num_connects_;  // Number of connects minus number of disconnects.
+    private int num_errors_;  // Number of detected errors.
+  }
+
+  /**
+   * Plugin that records the connect and disconnect notifications of stub connections.
+   *
+   * Like a user service plugin, the plugin registers a service for each connection when it is
+   * connected and unregisters the service when it is disconnected. The plugin keeps no state of
+   * its own other than the total number of notifications.
+   */
+  public static class RecordingPlugin extends Plugin {
+
+    public RecordingPlugin() {
+      super("ConnectionManagerTestPlugin", 1.0, "Records connections.", "General AI");
+      num_events_ = new AtomicInteger();
+    }
+
+    /**
+     * @return The total number of recorded notifications.
+     */
+    public int numEvents() {
+      return num_events_.get();
+    }
+
+    @Override
+    protected boolean onConnect(Connection connection) {
+      if (!(connection instanceof StubConnection)) {
+        return true;
+      }
+      StubConnection stub = (StubConnection) connection;
+      begin(stub, '+');
+      if (stub.num_connects_ != 0) {
+        stub.num_errors_++;
+      }
+      stub.num_connects_++;
+      try {
+        registerService(stub.getServiceName(), new Object(), "/connection_manager_test/", false);
+      } catch (IllegalArgumentException e) {
+        stub.num_errors_++;
+      }
+      end(stub);
+      return true;
+    }
+
+    @Override
+    protected boolean onDisconnect(Connection connection) {
+      if (!(connection instanceof StubConnection)) {
+        return true;
+      }
+      StubConnection stub = (StubConnection) connection;
+      begin(stub, '-');
+      if (stub.num_connects_ != 1) {
+        stub.num_errors_++;
+      }
+      stub.num_connects_--;
+      if (getServiceDefinition(stub.getServiceName()) == null) {
+        stub.num_errors_++;
+      }
+      unregisterService(stub.getServiceName());
+      end(stub);
+      return true;
+    }
+
+    /**
+     * Records the start of a notification and checks that it does not overlap with other
+     * notifications of the same connection.
+     *
+     * @param connection The connection.
+     * @param event The notification.
+     */
+    private void begin(StubConnection connection, char event) {
+      if (++connection.num_active_ != 1) {
+        connection.num_errors_++;
+      }
+      connection.events_.append(event);
+      Thread.yield();
+    }
+
+    /**
+     * Records the end of a notification.
+     *
+     * @param connection The connection.
+     */
+    private void end(StubConnection connection) {
+      connection.num_active_--;
+      num_events_.incrementAndGet();
+    }
+
+    private AtomicInteger num_events_;  // Total number of notifications.
+  }
+
+  /**
+   * Thread that waits for a start signal and then runs a storm of connection changes.
+   */
+  private abstract static class StormThread extends Thread {
+
+    /**
+     * @param start Start signal.
+     */
+    public StormThread(CountDownLatch start) {
+      this.start_ = start;
+    }
+
+    @Override
+    public void run() {
+      try {
+        start_.await();
+      } catch (InterruptedException e) {
+        return;
+      }
+      storm();
+    }
+
+    /**
+     * Adds and removes connections.
+     */
+    protected abstract void storm();
+
+    private CountDownLatch start_;  // Start signal.
+  }
+
+  /**
+   * Tests that connections are added and removed and plugins are notified in the calling thread
+   * by default.
+   */
+  @Test
+  public void addRemove() {
+    ConnectionManager connection_manager = ConnectionManager.Instance;
+    PluginManager plugin_manager = PluginManager.Instance;
+    Assert.assertTrue(plugin_manager.load(RecordingPlugin.class));
+    RecordingPlugin plugin =
+      (RecordingPlugin) plugin_manager.getPlugin("ConnectionManagerTestPlugin");
+    Assert.assertTrue(plugin_manager.enablePlugin(plugin.getName()));
+    try {
+      int num_connections = connection_manager.numConnections();
+      StubConnection connection = new StubConnection(0);
+      String service_name = plugin.getName() + "/" + connection.getServiceName();
+      connection.setReady(true);
+      assertThat(connection_manager.numConnections(), is(num_connections + 1));
+      Assert.assertTrue(connection_manager.getConnections().contains(connection));
+      assertThat(connection.getEvents(), is("+"));
+      Assert.assertTrue(ServiceManager.Instance.hasService(service_name));
+      connection_manager.add(connection);
+      assertThat(connection.getEvents(), is("+"));
+      connection.setReady(false);
+      assertThat(connection_manager.numConnections(), is(num_connections));
+      Assert.assertFalse(connection_manager.getConnections().contains(connection));
+      assertThat(connection.getEvents(), is("+-"));
+      Assert.assertFalse(ServiceManager.Instance.hasService(service_name));
+      connection_manager.remove(connection);
+      assertThat(connection.getEvents(), is("+-"));
+      assertThat(connection.numErrors(), is(0));
+    } finally {
+      plugin_manager.unloadAll();
+    }
+  }
+
+  /**
+   * Simulates a reconnect storm: many connections become ready, close and reconnect
+   * concurrently while plugins are notified via a bounded thread pool. Then each connection is
+   * removed and re-added concurrently by two threads, as when a connection is closed while it
+   * is being opened. Verifies that all notifications are delivered within a time limit, that
+   * the notifications of each connection are delivered one at a time and in the order in which
+   * the connection was added and removed, and that the services that the plugin registers for
+   * each connection match the connections.
+   */
+  @Test
+  public void reconnectStorm() throws InterruptedException {
+    final int kNumConnections = 5000;
+    final int kNumThreads = 16;
+    final long kTimeoutMillis = 30000;
+    final ConnectionManager connection_manager = ConnectionManager.Instance;
+    PluginManager plugin_manager = PluginManager.Instance;
+    Assert.assertTrue(plugin_manager.load(RecordingPlugin.class));
+    RecordingPlugin plugin =
+      (RecordingPlugin) plugin_manager.getPlugin("ConnectionManagerTestPlugin");
+    Assert.assertTrue(plugin_manager.enablePlugin(plugin.getName()));
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        4, 4, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(256));
+    connection_manager.setPluginExecutor(executor);
+    try {
+      int num_connections = connection_manager.numConnections();
+      final StubConnection[] connections = new StubConnection[kNumConnections];
+      for (int i = 0; i < kNumConnections; i++) {
+        connections[i] = new StubConnection(i);
+      }
+      long start_time = System.currentTimeMillis();
+      CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[kNumThreads];
+      for (int t = 0; t < kNumThreads; t++) {
+        final int first = t;
+        threads[t] = new StormThread(start) {
+            @Override
+            protected void storm() {
+              for (int i = first; i < kNumConnections; i += kNumThreads) {
+                connections[i].setReady(true);
+                connections[i].setReady(false);
+                connections[i].setReady(true);
+              }
+            }
+          };
+        threads[t].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      awaitIdle(executor, start_time + kTimeoutMillis);
+      assertThat(plugin.numEvents(), is(3 * kNumConnections));
+      assertThat(connection_manager.numConnections(), is(num_connections + kNumConnections));
+      for (StubConnection connection : connections) {
+        assertThat(connection.getEvents(), is("+-+"));
+        assertThat(connection.numErrors(), is(0));
+      }
+
+      // Half of the threads remove and the other half re-add the same connections.
+      start = new CountDownLatch(1);
+      for (int t = 0; t < kNumThreads; t++) {
+        final int first = t / 2;
+        final boolean add = t % 2 == 0;
+        threads[t] = new StormThread(start) {
+            @Override
+            protected void storm() {
+              for (int i = first; i < kNumConnections; i += kNumThreads / 2) {
+                if (add) {
+                  connection_manager.add(connections[i]);
+                } else {
+                  connection_manager.remove(connections[i]);
+                }
+              }
+            }
+          };
+        threads[t].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      awaitIdle(executor, start_time + kTimeoutMillis);
+      for (StubConnection connection : connections) {
+        boolean connected = connection_manager.getConnections().contains(connection);
+        assertThat(connection.getEvents(), is(connected ? "+-+-+" : "+-+-"));
+        assertThat(connection.numErrors(), is(0));
+        assertThat(plugin.getServiceDefinition(connection.getServiceName()) != null,
+                   is(connected));
+      }
+
+      for (StubConnection connection : connections) {
+        connection.setReady(false);
+      }
+      awaitIdle(executor, start_time + kTimeoutMillis);
+      assertThat(connection_manager.numConnections(), is(num_connections));
+      for (StubConnection connection : connections) {
+        assertThat(connection.getEvents().endsWith("-"), is(true));
+        assertThat(connection.numErrors(), is(0));
+        Assert.assertNull(plugin.getServiceDefinition(connection.getServiceName()));
+      }
+    } finally {
+      connection_manager.setPluginExecutor(null);
+      executor.shutdown();
+      plugin_manager.unloadAll();
+    }
+  }
+
+  /**
+   * Waits until the plugin executor has run all submitted notifications or the deadline has
+   * passed.
+   *
+   * @param executor The plugin executor.
+   * @param deadline The deadline in milliseconds since the epoch.
+   */
+  private static void awaitIdle(ThreadPoolExecutor executor, long deadline)
+      throws InterruptedException {
+    while (executor.getCompletedTaskCount() < executor.getTaskCount() &&
+           System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import ai.general.directory.test.TestBean;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link JsonArgument}.
+ */
+public class JsonArgumentTest {
+
+  private static final String kBeanJson = "{\"number\":7,\"text\":\"bean\",\"real\":2.5}";
+
+  /**
+   * Tests binding to a type and decoding the generic value.
+   */
+  @Test
+  public void decoding() throws Exception {
+    JsonArgument argument = read(kBeanJson);
+    TestBean bean = argument.bind(JsonCodec.Instance.getReader(TestBean.class));
+    assertThat(bean, is(new TestBean(7, 2.5, "bean")));
+    Assert.assertNotSame(bean, argument.bind(JsonCodec.Instance.getReader(TestBean.class)));
+
+    Object value = argument.getValue();
+    Assert.assertTrue(value instanceof Map);
+    assertThat(((Map<?, ?>) value).get("text"), is((Object) "bean"));
+    Assert.assertSame(value, argument.getValue());
+
+    assertThat((Integer) read("12").getValue(), is(12));
+    Assert.assertNull(read("null").getValue());
+
+    try {
+      read("\"text\"").bind(JsonCodec.Instance.getReader(TestBean.class));
+      Assert.fail();
+    } catch (IllegalArgumentException e) {}
+  }
+
+  /**
+   * Tests that concurrent callers of getValue receive the same decoded value.
+   */
+  @Test
+  public void concurrentDecoding() throws Exception {
+    final int kNumThreads = 8;
+    for (int round = 0; round < 100; round++) {
+      final JsonArgument argument = read("[" + kBeanJson + "," + kBeanJson + "]");
+      final CountDownLatch start = new CountDownLatch(1);
+      final Object[] values = new Object[kNumThreads];
+      Thread[] threads = new Thread[kNumThreads];
+      for (int t = 0; t < kNumThreads; t++) {
+        final int index = t;
+        threads[t] = new Thread() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+              } catch (InterruptedException e) {
+                return;
+              }
+              values[index] = argument.getValue();
+            }
+          };
+        threads[t].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      for (Object value : values) {
+        Assert.assertSame(values[0], value);
+      }
+    }
+  }
+
+  /**
+   * Tests that a JsonArgument is written as its original JSON value.
+   */
+  @Test
+  public void serialization() throws Exception {
+    JsonArgument argument = read(kBeanJson);
+    assertThat(JsonCodec.Instance.getMapper().writeValueAsString(argument), is(kBeanJson));
+    assertThat(JsonCodec.Instance.getMapper().writeValueAsString(new Object[] {1, argument}),
+               is("[1," + kBeanJson + "]"));
+    assertThat(JsonCodec.Instance.getMapper().writeValueAsString(read("[1,[true,null]]")),
+               is("[1,[true,null]]"));
+  }
+
+  /**
+   * Tests wrapping of decoded values and caching of the JSON text.
+   */
+  @Test
+  public void wrapping() throws Exception {
+    TestBean bean = new TestBean(7, 2.5, "bean");
+    JsonArgument argument = JsonArgument.of(bean);
+    Assert.assertSame(bean, argument.getValue());
+    String json = argument.getJson();
+    assertThat(json, is(kBeanJson));
+    Assert.assertSame(json, argument.getJson());
+    assertThat((TestBean) argument.bind(JsonCodec.Instance.getReader(TestBean.class)), is(bean));
+
+    argument = read(kBeanJson);
+    Assert.assertSame(argument.getJson(), argument.getJson());
+    assertThat(JsonArgument.of(null).getJson(), is("null"));
+  }
+
+  /**
+   * Reads the specified JSON into a JsonArgument.
+   *
+   * @param json The JSON to read.
+   * @return A JsonArgument that holds the JSON value.
+   */
+  private JsonArgument read(String json) throws Exception {
+    JsonParser parser = JsonCodec.Instance.createParser(json);
+    parser.nextToken();
+    return JsonArgument.read(parser);
+  }
+}
@@ -0,0 +1,67 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import ai.general.directory.test.TestBean;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link JsonCodec}.
+ */
+public class JsonCodecTest {
+
+  /**
+   * Tests that readers and writers are cached per type.
+   */
+  @Test
+  public void caching() {
+    JsonCodec codec = JsonCodec.Instance;
+    ObjectReader reader = codec.getReader(TestBean.class);
+    Assert.assertSame(reader, codec.getReader(TestBean.class));
+    Assert.assertNotSame(reader, codec.getReader(String.class));
+    ObjectWriter writer = codec.getWriter(TestBean.class);
+    Assert.assertSame(writer, codec.getWriter(TestBean.class));
+    Assert.assertSame(codec.getReader(codec.getObjectArrayType()),
+                      codec.getReader(Object[].class));
+  }
+
+  /**
+   * Tests reading, writing and converting values.
+   */
+  @Test
+  public void codec() throws Exception {
+    JsonCodec codec = JsonCodec.Instance;
+    codec.warmUp(TestBean.class);
+    TestBean bean = new TestBean(3, 1.5, "hello");
+    String json = codec.getWriter(TestBean.class).writeValueAsString(bean);
+    TestBean bean2 = codec.getReader(TestBean.class).readValue(json);
+    assertThat(bean2, is(bean));
+
+    Object[] array = codec.getReader(codec.getObjectArrayType()).readValue(
+        "[1, \"text\", {\"x\": 2}]");
+    assertThat(array.length, is(3));
+    assertThat((Integer) array[0], is(1));
+    assertThat((String) array[1], is("text"));
+    Assert.assertTrue(array[2] instanceof LinkedHashMap);
+
+    ArrayList<String> strings = new ArrayList<String>();
+    strings.add("a");
+    strings.add("b");
+    ArrayList<String> converted = codec.convert(strings, codec.getStringArrayListType());
+    assertThat(converted, is(strings));
+    assertThat(codec.convert(codec.convert(bean, LinkedHashMap.class), TestBean.class), is(bean));
+  }
+}
@@ -11,6 +11,7 @@ import ai.general.directory.test.TestBean;
 import ai.general.directory.test.TestUtilities;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -77,6 +78,18 @@ public class MethodHandlerTest {
       return bean_array;
     }
 
+    /**
+     * Test method that captures the beans of the bean list as an array and returns the number of
+     * beans.
+     *
+     * @param bean_list List of TestBeans.
+     * @return The number of beans in the list.
+     */
+    public int callBeanList(List<TestBean> bean_list) {
+      this.bean_array_ = bean_list.toArray(new TestBean[bean_list.size()]);
+      return bean_list.size();
+    }
+
     /**
      * Test method that throws an exception with the provided description and details if fail is
      * true.
@@ -167,6 +180,16 @@ public class MethodHandlerTest {
       this.number_ = number;
     }
 
+    /**
+     * Static test method that returns the square of number.
+     *
+     * @param number An integer.
+     * @return number^2.
+     */
+    public static int square(int number) {
+      return number * number;
+    }
+
     private TestBean bean_;
     private TestBean[] bean_array_;
     private int number_;
@@ -301,6 +324,34 @@ public class MethodHandlerTest {
       assertThat(result_beans[1].getNumber(), is(2));
       assertThat(result_beans[1].getReal(), is(0.25));
       assertThat(result_beans[1].getText(), is("1/4"));
+
+      // call with generic parameter type
+      test.clear();
+      handler =
+        new MethodHandler("callBeanList",
+                          false,
+                          test,
+                          test.getClass().getDeclaredMethod("callBeanList", List.class));
+      request = TestUtilities.createRequest("wamp://general.ai/callBeanList?type=call", array);
+      handler.handle(request);
+      result = request.getResult();
+      Assert.assertFalse(result.hasErrors());
+      assertThat(test.getBeanArray().length, is(2));
+      assertThat(test.getBeanArray()[0].getReal(), is(0.5));
+      assertThat(test.getBeanArray()[1].getText(), is("1/4"));
+      assertThat((int) result.getValue(0), is(2));
+
+      // call static method
+      handler =
+        new MethodHandler("square",
+                          false,
+                          null,
+                          test.getClass().getDeclaredMethod("square", int.class));
+      request = TestUtilities.createRequest("wamp://general.ai/square?type=call", 7);
+      handler.handle(request);
+      result = request.getResult();
+      Assert.assertFalse(result.hasErrors());
+      assertThat((int) result.getValue(0), is(49));
     } catch (Exception e) {
       Assert.fail(e.toString());
     }
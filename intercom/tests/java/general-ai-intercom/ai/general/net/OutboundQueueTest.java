@@ -0,0 +1,266 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link OutboundQueue}.
+ */
+public class OutboundQueueTest {
+
+  /**
+   * OutboundQueue that records transmitted messages. Transmissions are completed manually via
+   * {@link #complete()} to simulate a slow remote endpoint.
+   */
+  public static class TestQueue extends OutboundQueue {
+
+    /**
+     * @param max_queue_size The maximum number of messages that may be queued.
+     */
+    public TestQueue(int max_queue_size) {
+      super(max_queue_size);
+      transmitted_ = new ArrayList<Object>();
+      failure_count_ = 0;
+      fail_ = false;
+      inline_ = false;
+    }
+
+    /**
+     * Completes the transmission of the message in flight successfully.
+     */
+    public void complete() {
+      transmitted(null);
+    }
+
+    /**
+     * Returns the number of times {@link #onFailure(Throwable)} was called.
+     *
+     * @return The number of failures.
+     */
+    public int getFailureCount() {
+      return failure_count_;
+    }
+
+    /**
+     * Returns all transmitted messages in order. Text messages are recorded as String and
+     * binary messages as ByteBuffer.
+     *
+     * @return The transmitted messages.
+     */
+    public List<Object> getTransmitted() {
+      return transmitted_;
+    }
+
+    /**
+     * If set, subsequent transmissions complete before the transmit method returns, as when a
+     * container completes an asynchronous send immediately.
+     *
+     * @param inline True if transmissions should complete immediately.
+     */
+    public void setInline(boolean inline) {
+      this.inline_ = inline;
+    }
+
+    /**
+     * If set, subsequent transmissions throw an exception.
+     *
+     * @param fail True if transmissions should fail.
+     */
+    public void setFail(boolean fail) {
+      this.fail_ = fail;
+    }
+
+    @Override
+    protected void onFailure(Throwable cause) {
+      failure_count_++;
+    }
+
+    @Override
+    protected void transmitBinary(ByteBuffer data) {
+      transmit(data);
+    }
+
+    @Override
+    protected void transmitText(String text) {
+      transmit(text);
+    }
+
+    /**
+     * Records a transmitted message or throws an exception if transmissions should fail.
+     *
+     * @param message The transmitted message.
+     */
+    private void transmit(Object message) {
+      if (fail_) {
+        throw new IllegalStateException("closed");
+      }
+      transmitted_.add(message);
+      if (inline_) {
+        transmitted(null);
+      }
+    }
+
+    private boolean fail_;  // If true, transmissions fail.
+    private int failure_count_;  // Number of calls to onFailure.
+    private boolean inline_;  // If true, transmissions complete immediately.
+    private ArrayList<Object> transmitted_;  // Transmitted messages.
+  }
+
+  /**
+   * Tests that messages are transmitted in order, one at a time.
+   */
+  @Test
+  public void order() {
+    TestQueue queue = new TestQueue(4);
+    Assert.assertTrue(queue.sendText("a"));
+    Assert.assertTrue(queue.sendText("b"));
+    Assert.assertTrue(queue.sendBinary(ByteBuffer.wrap(new byte[] {1})));
+    assertThat(queue.getTransmitted().size(), is(1));
+    assertThat(queue.getQueueDepth(), is(2));
+    queue.complete();
+    queue.complete();
+    queue.complete();
+    assertThat(queue.getTransmitted().size(), is(3));
+    assertThat((String) queue.getTransmitted().get(1), is("b"));
+    Assert.assertTrue(queue.getTransmitted().get(2) instanceof ByteBuffer);
+    assertThat(queue.getQueueDepth(), is(0));
+    assertThat(queue.getDroppedCount(), is(0L));
+  }
+
+  /**
+   * Tests the DropOldest and NeverDrop policies when the queue is full.
+   */
+  @Test
+  public void overflow() {
+    TestQueue queue = new TestQueue(2);
+    Assert.assertTrue(queue.sendText("in flight"));
+    Assert.assertTrue(queue.sendText("ping 1", "/ping", OverflowPolicy.DropOldest));
+    Assert.assertTrue(queue.sendText("result 1"));
+    assertThat(queue.getQueueDepth(), is(2));
+
+    // The oldest droppable message makes room for the new message.
+    Assert.assertTrue(queue.sendText("ping 2", "/ping", OverflowPolicy.DropOldest));
+    assertThat(queue.getDroppedCount(), is(1L));
+    assertThat(queue.getQueueDepth(), is(2));
+
+    // NeverDrop messages grow the queue beyond its maximum size.
+    Assert.assertTrue(queue.sendText("result 2"));
+    assertThat(queue.getDroppedCount(), is(2L));
+    Assert.assertTrue(queue.sendText("result 3"));
+    assertThat(queue.getQueueDepth(), is(3));
+    assertThat(queue.getDroppedCount(), is(2L));
+
+    // Droppable messages are rejected if only NeverDrop messages are queued.
+    Assert.assertFalse(queue.sendText("ping 3", "/ping", OverflowPolicy.DropOldest));
+    assertThat(queue.getDroppedCount(), is(3L));
+
+    for (int i = 0; i < 3; i++) {
+      queue.complete();
+    }
+    assertThat(queue.getTransmitted(),
+               is(Arrays.<Object>asList("in flight", "result 1", "result 2", "result 3")));
+
+    // The queue fails once NeverDrop messages exceed the hard limit.
+    queue = new TestQueue(2);
+    Assert.assertTrue(queue.sendText("in flight"));
+    for (int i = 0; i < 2 * OutboundQueue.kHardLimitFactor; i++) {
+      Assert.assertTrue(queue.sendText("result " + i));
+    }
+    Assert.assertFalse(queue.sendText("overflow"));
+    Assert.assertTrue(queue.isClosed());
+    assertThat(queue.getFailureCount(), is(1));
+    assertThat(queue.getQueueDepth(), is(0));
+  }
+
+  /**
+   * Tests that transmissions which complete immediately are sent in a loop rather than
+   * recursively.
+   */
+  @Test
+  public void inlineCompletion() {
+    final int kNumMessages = 100000;
+    TestQueue queue = new TestQueue(kNumMessages);
+    Assert.assertTrue(queue.sendText("in flight"));
+    for (int i = 0; i < kNumMessages; i++) {
+      Assert.assertTrue(queue.sendText("result " + i));
+    }
+    queue.setInline(true);
+    queue.complete();
+    assertThat(queue.getTransmitted().size(), is(kNumMessages + 1));
+    assertThat(queue.getQueueDepth(), is(0));
+    Assert.assertTrue(queue.sendText("after"));
+    assertThat(queue.getTransmitted().size(), is(kNumMessages + 2));
+    Assert.assertFalse(queue.isClosed());
+  }
+
+  /**
+   * Tests that ConflateLatest messages replace queued messages of the same topic.
+   */
+  @Test
+  public void conflation() {
+    TestQueue queue = new TestQueue(8);
+    Assert.assertTrue(queue.sendText("in flight"));
+    Assert.assertTrue(queue.sendText("v1", "/velocity", OverflowPolicy.ConflateLatest));
+    Assert.assertTrue(queue.sendText("other", "/other", OverflowPolicy.ConflateLatest));
+    Assert.assertTrue(queue.sendText("v2", "/velocity", OverflowPolicy.ConflateLatest));
+    ByteBuffer v3 = ByteBuffer.wrap(new byte[] {3});
+    Assert.assertTrue(queue.sendBinary(v3, "/velocity", OverflowPolicy.ConflateLatest));
+    assertThat(queue.getConflatedCount(), is(2L));
+    assertThat(queue.getQueueDepth(), is(2));
+    assertThat(queue.getDroppedCount(), is(0L));
+    queue.complete();
+    Assert.assertSame(v3, queue.getTransmitted().get(1));
+    queue.complete();
+    assertThat((String) queue.getTransmitted().get(2), is("other"));
+    queue.complete();
+
+    // The message in flight is not conflated.
+    Assert.assertTrue(queue.sendText("v4", "/velocity", OverflowPolicy.ConflateLatest));
+    Assert.assertTrue(queue.sendText("v5", "/velocity", OverflowPolicy.ConflateLatest));
+    assertThat(queue.getQueueDepth(), is(1));
+    queue.complete();
+    assertThat(queue.getTransmitted().size(), is(5));
+    assertThat(queue.getConflatedCount(), is(2L));
+  }
+
+  /**
+   * Tests that a failed transmission closes the queue and reports the failure once.
+   */
+  @Test
+  public void failure() {
+    TestQueue queue = new TestQueue(8);
+    Assert.assertTrue(queue.sendText("in flight"));
+    Assert.assertTrue(queue.sendText("queued 1"));
+    Assert.assertTrue(queue.sendText("queued 2"));
+    queue.setFail(true);
+    queue.complete();
+    Assert.assertTrue(queue.isClosed());
+    assertThat(queue.getFailureCount(), is(1));
+    assertThat(queue.getQueueDepth(), is(0));
+    assertThat(queue.getDroppedCount(), is(2L));
+    Assert.assertFalse(queue.sendText("after failure"));
+    assertThat(queue.getDroppedCount(), is(3L));
+
+    // Asynchronous failures are reported via transmitted.
+    TestQueue async_queue = new TestQueue(8);
+    Assert.assertTrue(async_queue.sendText("in flight"));
+    Assert.assertTrue(async_queue.sendText("queued"));
+    async_queue.transmitted(new IllegalStateException("closed"));
+    Assert.assertTrue(async_queue.isClosed());
+    assertThat(async_queue.getFailureCount(), is(1));
+    assertThat(async_queue.getDroppedCount(), is(2L));
+    assertThat(async_queue.getTransmitted().size(), is(1));
+  }
+}
@@ -0,0 +1,90 @@
+/* General AI - Networking
+ * Copyright (C) 2014 Tuna Oezer, General AI.
+ * See license.txt for copyright information.
+ */
+
+package ai.general.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.CoreMatchers.*;
+
+/**
+ * Tests for {@link PendingCallTable}.
+ */
+public class PendingCallTableTest {
+
+  /**
+   * Tests adding and removing pending calls.
+   */
+  @Test
+  public void addRemove() {
+    PendingCallTable table = new PendingCallTable(null);
+    assertThat(table.getExpiryMillis(), is(PendingCallTable.kDefaultExpiryMillis));
+    RemoteMethodCall<Integer> call1 = new RemoteMethodCall<Integer>(null, "/m1", Integer.class);
+    RemoteMethodCall<Integer> call2 = new RemoteMethodCall<Integer>(null, "/m2", Integer.class);
+    long total = PendingCallTable.getTotalSize();
+    long id1 = table.add(call1);
+    long id2 = table.add(call2);
+    assertThat(id2, is(not(id1)));
+    assertThat(table.size(), is(2));
+    assertThat(PendingCallTable.getTotalSize(), is(total + 2));
+    Assert.assertSame(call2, table.remove(id2));
+    Assert.assertNull(table.remove(id2));
+    Assert.assertSame(call1, table.remove(id1));
+    assertThat(table.size(), is(0));
+    assertThat(PendingCallTable.getTotalSize(), is(total));
+    assertThat(table.getExpiredCount(), is(0L));
+  }
+
+  /**
+   * Tests that calls that are not removed expire with a timeout error.
+   */
+  @Test
+  public void expiry() throws InterruptedException {
+    Uri error_uri = new Uri("wamp", "general.ai", "/error");
+    error_uri.setFragment("timeout");
+    PendingCallTable table = new PendingCallTable(error_uri);
+    table.setExpiryMillis(50);
+    RemoteMethodCall<Integer> expiring = new RemoteMethodCall<Integer>(null, "/m1", Integer.class);
+    RemoteMethodCall<Integer> completed = new RemoteMethodCall<Integer>(null, "/m2", Integer.class);
+    table.add(expiring);
+    long completed_id = table.add(completed);
+    Assert.assertSame(completed, table.remove(completed_id));
+
+    Thread.sleep(500);
+    assertThat(table.size(), is(0));
+    assertThat(table.getExpiredCount(), is(1L));
+    assertThat(expiring.getState(), is(RemoteMethodCall.State.Completed));
+    Assert.assertFalse(expiring.isSuccessful());
+    assertThat(expiring.getErrorDescription(), is(PendingCallTable.kTimeoutErrorDescription));
+    Assert.assertSame(error_uri, expiring.getErrorUri());
+    assertThat(completed.getState(), is(RemoteMethodCall.State.Initialized));
+  }
+
+  /**
+   * Tests that all pending calls can be failed at once.
+   */
+  @Test
+  public void failAll() {
+    PendingCallTable table = new PendingCallTable(null);
+    RemoteMethodCall<Integer> call1 = new RemoteMethodCall<Integer>(null, "/m1", Integer.class);
+    RemoteMethodCall<Integer> call2 = new RemoteMethodCall<Integer>(null, "/m2", Integer.class);
+    long total = PendingCallTable.getTotalSize();
+    table.add(call1);
+    table.add(call2);
+    Uri error_uri = new Uri("wamp", "general.ai", "/error");
+    error_uri.setFragment("closed");
+    assertThat(table.failAll(error_uri, PendingCallTable.kClosedErrorDescription), is(2));
+    assertThat(table.size(), is(0));
+    assertThat(PendingCallTable.getTotalSize(), is(total));
+    assertThat(table.getExpiredCount(), is(0L));
+    for (RemoteMethodCall<Integer> call : new RemoteMethodCall[] {call1, call2}) {
+      Assert.assertFalse(call.isSuccessful());
+      assertThat(call.getErrorDescription(), is(PendingCallTable.kClosedErrorDescription));
+      Assert.assertSame(error_uri, call.getErrorUri());
+    }
+    assertThat(table.failAll(error_uri, PendingCallTable.kClosedErrorDescription), is(0));
+  }
+}
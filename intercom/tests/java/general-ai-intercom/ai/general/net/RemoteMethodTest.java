@@ -10,6 +10,10 @@ import ai.general.directory.test.TestBean;
 import ai.general.net.wamp.WampConnection;
 import ai.general.net.wamp.WampConnectionTest;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.junit.Assert;
 import org.junit.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -110,6 +114,62 @@ public class RemoteMethodTest {
     private long thread_completion_time_millis_;
   }
 
+  /**
+   * Callback that records the outcome of a call.
+   */
+  private static class RecordingCallback implements RpcCallback {
+
+    public RecordingCallback() {
+      result_ = null;
+      error_description_ = null;
+    }
+
+    /**
+     * Returns the recorded error description.
+     *
+     * @return The error description or null if no error has been recorded.
+     */
+    public synchronized String getErrorDescription() {
+      return error_description_;
+    }
+
+    /**
+     * Returns the recorded result.
+     *
+     * @return The result or null if no result has been recorded.
+     */
+    public synchronized Object getResult() {
+      return result_;
+    }
+
+    /**
+     * Records the error description.
+     *
+     * @param error_uri The error URI.
+     * @param error_description The error description.
+     * @param error_details The error details.
+     */
+    @Override
+    public synchronized void onError(Uri error_uri,
+                                     String error_description,
+                                     Object error_details) {
+      this.error_description_ = error_description;
+    }
+
+    /**
+     * Records the result.
+     *
+     * @param result The call result.
+     */
+    @Override
+    public synchronized void onSuccess(Object result) {
+      this.result_ = result;
+    }
+
+    private String error_description_;
+    private Object result_;
+  }
+
   /**
    * CallProcessor processes calls on a separate thread allowing testing of concurrent behavior.
    * CallProcessor waits until the client has output. Once the client has produced output,
@@ -411,4 +471,128 @@ public class RemoteMethodTest {
     client.close();
     server.close();
   }
+
+  /**
+   * Tests using calls as futures with completion callbacks and expiry.
+   */
+  @Test
+  public void callFuture() throws InterruptedException {
+    final String kHomePath = "/remote_method/future";
+    final String kMethod = "/method";
+    final String kUserAccount = "future_user";
+    Directory directory = Directory.Instance;
+    Assert.assertTrue(directory.createPath(kHomePath + kMethod));
+    try {
+      Assert.assertTrue(directory.addHandler(
+          kHomePath + kMethod,
+          new MethodHandler(kMethod,
+                            false,
+                            null,
+                            getClass().getDeclaredMethod("method",
+                                                         int.class,
+                                                         int.class,
+                                                         double.class,
+                                                         String.class))));
+    } catch (NoSuchMethodException e) {
+      Assert.fail(e.toString());
+    }
+
+    Uri uri = new Uri("ws", kHostname, "/remote_method_test");
+    WampConnectionTest.TestSender client_sender = new WampConnectionTest.TestSender();
+    WampConnectionTest.TestSender server_sender = new WampConnectionTest.TestSender();
+    WampConnection client = new WampConnection(uri, kUserAccount, "", client_sender);
+    WampConnection server = new WampConnection(uri, kUserAccount, kHomePath, server_sender);
+    server.welcome("test-session-" + kUserAccount);
+    client.process(server_sender.getOutput());
+    RemoteMethod<TestBean> remote_method =
+      new RemoteMethod<TestBean>(client, kMethod, TestBean.class);
+
+    // successful call
+    RemoteMethodCall<TestBean> method_call = remote_method.callAsync(0, 7, 0.5, "future");
+    RecordingCallback before = new RecordingCallback();
+    method_call.addCallback(before);
+    Assert.assertFalse(method_call.isDone());
+    try {
+      method_call.get(10, TimeUnit.MILLISECONDS);
+      Assert.fail("expected TimeoutException");
+    } catch (ExecutionException e) {
+      Assert.fail(e.toString());
+    } catch (TimeoutException e) {}
+    Assert.assertTrue(server.process(client_sender.getOutput()));
+    Assert.assertTrue(client.process(server_sender.getOutput()));
+    Assert.assertTrue(method_call.isDone());
+    Assert.assertFalse(method_call.isCancelled());
+    TestBean expected = new TestBean(7, 0.5, "future");
+    try {
+      assertThat(method_call.get(), is(expected));
+    } catch (ExecutionException e) {
+      Assert.fail(e.toString());
+    }
+    assertThat((TestBean) before.getResult(), is(expected));
+    RecordingCallback after = new RecordingCallback();
+    method_call.addCallback(after);
+    assertThat((TestBean) after.getResult(), is(expected));
+    Assert.assertFalse(method_call.cancel(false));
+
+    // expired call
+    RemoteMethodCall<TestBean> expiring = remote_method.callWithTimeout(50, 0, 1, 1.0, "expire");
+    RecordingCallback expiry = new RecordingCallback();
+    expiring.addCallback(expiry);
+    try {
+      expiring.get(5, TimeUnit.SECONDS);
+      Assert.fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      RemoteMethodCallException cause = (RemoteMethodCallException) e.getCause();
+      assertThat(cause.getReason(), is(RemoteMethodCallException.Reason.Timeout));
+      Assert.assertSame(expiring, cause.getMethodCall());
+    } catch (TimeoutException e) {
+      Assert.fail(e.toString());
+    }
+    // Callbacks are notified after waiting threads have been woken up.
+    long deadline_millis = System.currentTimeMillis() + 5000;
+    while (expiry.getErrorDescription() == null && System.currentTimeMillis() < deadline_millis) {
+      Thread.sleep(1);
+    }
+    assertThat(expiry.getErrorDescription(), is(RemoteMethodCall.kTimeoutErrorDescription));
+    // A late response is ignored.
+    Assert.assertTrue(server.process(client_sender.getOutput()));
+    Assert.assertTrue(client.process(server_sender.getOutput()));
+    Assert.assertFalse(expiring.isSuccessful());
+
+    // cancelled call
+    RemoteMethodCall<TestBean> cancelled = remote_method.callAsync(0, 2, 2.0, "cancel");
+    Assert.assertTrue(cancelled.cancel(false));
+    Assert.assertTrue(cancelled.isCancelled());
+    Assert.assertTrue(cancelled.isDone());
+
+    client.close();
+    server.close();
+  }
+
+  /**
+   * Tests that a call whose result cannot be converted to the return type completes with an
+   * error and wakes up waiting threads.
+   */
+  @Test
+  public void invalidResult() throws InterruptedException {
+    RemoteMethodCall<Integer> method_call =
+      new RemoteMethodCall<Integer>(null, "/invalid", Integer.class);
+    RecordingCallback callback = new RecordingCallback();
+    method_call.addCallback(callback);
+    method_call.onSuccess("not a number");
+    Assert.assertTrue(method_call.isDone());
+    Assert.assertFalse(method_call.isSuccessful());
+    assertThat(method_call.getErrorDescription(),
+               is(RemoteMethodCall.kConversionErrorDescription));
+    Assert.assertNull(method_call.getResult());
+    assertThat(callback.getErrorDescription(), is(RemoteMethodCall.kConversionErrorDescription));
+    try {
+      method_call.get(10, TimeUnit.MILLISECONDS);
+      Assert.fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof RemoteMethodCallException);
+    } catch (TimeoutException e) {
+      Assert.fail(e.toString());
+    }
+  }
 }
@@ -75,6 +75,78 @@ public class UriTest {
     assertThat(uri.getParameter("param2"), is("value2"));
   }
 
+  /**
+   * Tests that copies do not share parameter modifications.
+   */
+  @Test
+  public void copyOnWrite() {
+    Uri original = new Uri("wamp://general.ai/topic?exclude=a");
+    Uri copy1 = new Uri(original);
+    Uri copy2 = new Uri(original);
+    copy1.setParameter("exclude", "b");
+    copy1.setParameter("eligible", "c");
+    copy2.removeParameter("exclude");
+    assertThat(original.getParameter("exclude"), is("a"));
+    Assert.assertFalse(original.hasParameter("eligible"));
+    assertThat(copy1.getParameter("exclude"), is("b"));
+    assertThat(copy1.getParameter("eligible"), is("c"));
+    Assert.assertFalse(copy2.hasParameter("exclude"));
+    original.setParameter("exclude", "d");
+    assertThat(new Uri(copy1).getParameter("exclude"), is("b"));
+    assertThat(original.toString(), is("wamp://general.ai/topic?exclude=d"));
+
+    Uri no_parameters = new Uri("ws", "general.ai", "/path");
+    Uri copy3 = new Uri(no_parameters);
+    copy3.setParameter("param", "value");
+    Assert.assertFalse(no_parameters.hasParameter("param"));
+    no_parameters.removeParameter("param");
+    assertThat(no_parameters.toString(), is("ws://general.ai/path"));
+  }
+
+  /**
+   * Tests that the cached string form is updated when the Uri is modified.
+   */
+  @Test
+  public void cachedString() {
+    Uri uri = new Uri("ws", "general.ai", "/path");
+    assertThat(uri.toString(), is("ws://general.ai/path"));
+    uri.setPath("/other");
+    assertThat(uri.toString(), is("ws://general.ai/other"));
+    uri.setUser("user");
+    uri.setPort(8080);
+    assertThat(uri.toString(), is("ws://user@general.ai:8080/other"));
+    uri.setParameter("param", "value");
+    uri.setFragment("fragment");
+    assertThat(uri.toString(), is("ws://user@general.ai:8080/other?param=value#fragment"));
+    Uri copy = new Uri(uri);
+    uri.removeParameter("param");
+    assertThat(uri.toString(), is("ws://user@general.ai:8080/other#fragment"));
+    assertThat(copy.toString(), is("ws://user@general.ai:8080/other?param=value#fragment"));
+  }
+
+  /**
+   * Tests that an ImmutableUri cannot be modified and that copies of it can be modified.
+   */
+  @Test
+  public void immutable() {
+    ImmutableUri uri = new ImmutableUri("wamp://general.ai/topic?param=value");
+    assertThat(uri.toString(), is("wamp://general.ai/topic?param=value"));
+    try {
+      uri.setParameter("param", "other");
+      Assert.fail("expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {}
+    try {
+      uri.setPath("/other");
+      Assert.fail("expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {}
+    Uri copy = new Uri(uri);
+    copy.setParameter("param", "other");
+    copy.setPath("/other");
+    assertThat(copy.toString(), is("wamp://general.ai/other?param=other"));
+    assertThat(uri.getParameter("param"), is("value"));
+    assertThat(uri.toString(), is("wamp://general.ai/topic?param=value"));
+  }
+
   /**
    * Tests conversion to a URI.
    */
@@ -12,13 +12,30 @@ import ai.general.directory.Result;
 import ai.general.directory.test.GenericTestHandler;
 import ai.general.directory.test.TestBean;
 import ai.general.directory.test.TestHandler;
+import ai.general.net.JsonArgument;
+import ai.general.net.JsonCodec;
+import ai.general.net.OutboundQueueTest;
 import ai.general.net.OutputSender;
+import ai.general.net.OverflowPolicy;
+import ai.general.net.PendingCallTable;
+import ai.general.net.RemoteMethodBatch;
+import ai.general.net.RemoteMethodCall;
+import ai.general.net.RemoteMethodCallException;
 import ai.general.net.RpcCallback;
 import ai.general.net.Uri;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -43,10 +60,12 @@ public class WampConnectionTest {
     public TestSender() {
       receiver_ = null;
       output_ = null;
+      binary_ = false;
     }
 
     /**
      * Returns the last output or null.
+     * Binary output is converted from Smile to JSON.
      *
      * @return Last output from WampConnection or null.
      */
@@ -55,14 +74,35 @@ public class WampConnectionTest {
     }
 
     /**
-     * Not implemented.
+     * Whether the last output was sent as a binary message.
+     *
+     * @return True if the last output was binary.
+     */
+    public boolean isBinary() {
+      return binary_;
+    }
+
+    /**
+     * Records the binary output of the connection as JSON and sends it to the receiver.
      *
      * @param data The data to send.
-     * @return false
+     * @return True if the message was successfully processed by the receiver.
      */
     @Override
     public boolean sendBinary(ByteBuffer data) {
-      return false;
+      try {
+        output_ = JsonCodec.Instance.getMapper().readTree(
+            JsonCodec.Instance.createSmileParser(data.array(),
+                                                 data.arrayOffset() + data.position(),
+                                                 data.remaining())).toString();
+      } catch (IOException e) {
+        output_ = null;
+      }
+      binary_ = true;
+      if (receiver_ != null) {
+        return receiver_.process(data);
+      }
+      return true;
     }
 
     /**
@@ -78,6 +118,7 @@ public class WampConnectionTest {
     @Override
     public boolean sendText(String text) {
       output_ = text;
+      binary_ = false;
       if (receiver_ != null) {
         return receiver_.process(output_);
       }
@@ -93,6 +134,7 @@ public class WampConnectionTest {
       this.receiver_ = receiver;
     }
 
+    private boolean binary_;  // true if last output was binary
     private String output_;  // last output
     private WampConnection receiver_;  // output destination
   }
@@ -171,6 +213,24 @@ public class WampConnectionTest {
       server_.close();
     }
 
+    /**
+     * Whether the last client output was binary.
+     *
+     * @return True if the last client output was binary.
+     */
+    public boolean isClientOutputBinary() {
+      return client_out_.isBinary();
+    }
+
+    /**
+     * Whether the last server output was binary.
+     *
+     * @return True if the last server output was binary.
+     */
+    public boolean isServerOutputBinary() {
+      return server_out_.isBinary();
+    }
+
     /**
      * Returns the last client output.
      *
@@ -310,6 +370,45 @@ public class WampConnectionTest {
     private String server_home_;  // home directory at server side
   }
 
+  /**
+   * Handler for an RPC method that waits until a number of calls of the method run
+   * concurrently. Returns true if the calls met within the timeout.
+   */
+  private static class BarrierHandler extends Handler {
+
+    /**
+     * @param name The handler name.
+     * @param barrier The barrier at which concurrent calls meet.
+     */
+    public BarrierHandler(String name, CyclicBarrier barrier) {
+      super(name, false);
+      this.barrier_ = barrier;
+    }
+
+    /**
+     * Waits at the barrier and returns whether the concurrent calls met.
+     *
+     * @param request The request to handle.
+     */
+    @Override
+    public void handle(Request request) {
+      if (request.getRequestType() != Request.RequestType.Call) {
+        return;
+      }
+      boolean met = false;
+      try {
+        barrier_.await(5, TimeUnit.SECONDS);
+        met = true;
+      } catch (BrokenBarrierException e) {
+      } catch (InterruptedException e) {
+      } catch (TimeoutException e) {
+      }
+      request.getResult().addValue(met);
+    }
+
+    private CyclicBarrier barrier_;  // Barrier at which concurrent calls meet.
+  }
+
   /**
    * Test handler that handles RPC requests.
    */
@@ -660,6 +759,37 @@ public class WampConnectionTest {
     connection.close();
   }
 
+  /**
+   * Tests that serialized publish data is shared between connections.
+   */
+  @Test
+  public void eventFanOut() {
+    final String kUserAccount1 = "fanout1@domain.zz";
+    final String kUserAccount2 = "fanout2@domain.zz";
+    String topic = "/fanout/topic";
+    TestConnection connection1 = new TestConnection(kUserAccount1);
+    TestConnection connection2 = new TestConnection(kUserAccount2);
+    connection1.open();
+    connection2.open();
+
+    JsonArgument data = JsonArgument.of(new TestBean(1, 2.5, "fan-out"));
+    Assert.assertTrue(connection1.server().event(topic, data));
+    Assert.assertTrue(connection2.server().event(topic, data));
+    String json = "{\"number\":1,\"text\":\"fan-out\",\"real\":2.5}";
+    assertThat(connection1.getServerOutput(), is(jsonArray(8, uri(kUserAccount1, topic), json)));
+    assertThat(connection2.getServerOutput(), is(jsonArray(8, uri(kUserAccount2, topic), json)));
+    Assert.assertTrue(connection1.server().event(topic, data));
+    assertThat(connection1.getServerOutput(), is(jsonArray(8, uri(kUserAccount1, topic), json)));
+
+    // exclude lists cannot use the cached message
+    Assert.assertTrue(connection1.client().publish(topic, data, true));
+    assertThat(connection1.getClientOutput(),
+               is(jsonArray(7, uri(kUserAccount1, topic), json, "true")));
+
+    connection1.close();
+    connection2.close();
+  }
+
   /**
    * Tests publish messages, including subscriptions.
    */
@@ -904,6 +1034,155 @@ public class WampConnectionTest {
     Assert.assertNull(callback.getErrorDetails());
 
     connection.close();
+
+    // calls without a response fail when the connection is closed
+    WampConnection client = new WampConnection(new Uri("ws", kHostname, "/closed/client"),
+                                               kUserAccount,
+                                               clientHomePath(kUserAccount),
+                                               new TestSender());
+    callback.clear();
+    Assert.assertTrue(client.call(RpcHandler.kMethod2, callback, 1, 2, 3));
+    assertThat(client.getPendingCalls().size(), is(1));
+    client.close();
+    assertThat(client.getPendingCalls().size(), is(0));
+    assertThat(callback.getCallbackType(), is(TestCallback.CallbackType.kError));
+    assertThat(callback.getErrorUri().getFragment(), is("closed"));
+    assertThat(callback.getErrorDescription(), is(PendingCallTable.kClosedErrorDescription));
+  }
+
+  /**
+   * Tests batches of RPC calls.
+   */
+  @Test
+  public void batchCall() throws InterruptedException, TimeoutException {
+    final String kRootHome = serverHomePath("batch-root");
+    final String kUserAccount = "batch@domain.zz";
+    final String kUserHome = serverHomePath(kUserAccount);
+    Directory directory = Directory.Instance;
+    Assert.assertTrue(directory.createPath(kRootHome + RpcHandler.kMethod2));
+    Assert.assertTrue(directory.createPath(kRootHome + RpcHandler.kCallError));
+    Assert.assertTrue(directory.addHandler(kRootHome + RpcHandler.kMethod2,
+                                           new RpcHandler(RpcHandler.kMethod2)));
+    Assert.assertTrue(directory.addHandler(kRootHome + RpcHandler.kCallError,
+                                           new RpcHandler(RpcHandler.kCallError)));
+    Assert.assertTrue(directory.createPath(kUserHome + "/rpc"));
+    Assert.assertTrue(directory.link(kUserHome + "/rpc", kRootHome + RpcHandler.kMethod2));
+    Assert.assertTrue(directory.link(kUserHome + "/rpc", kRootHome + RpcHandler.kCallError));
+    TestConnection connection = new TestConnection(kUserAccount);
+
+    // without a server ID, calls are sent individually
+    RemoteMethodBatch batch = new RemoteMethodBatch(connection.client());
+    batch.add(RpcHandler.kMethod2, Integer.class, 1, 2, 3);
+    batch.add(RpcHandler.kMethod2, Integer.class, 4, 5, 6);
+    Assert.assertTrue(batch.call());
+    assertThat(connection.getClientOutput(), startsWith("[2,"));
+    Assert.assertTrue(batch.waitUntilCompletion(1000));
+
+    // Intercom servers receive a single batch message
+    connection.open();
+    batch = new RemoteMethodBatch(connection.client());
+    RemoteMethodCall<Integer> call1 = batch.add(RpcHandler.kMethod2, Integer.class, 2, 3, 5);
+    RemoteMethodCall<Integer> call2 = batch.add(RpcHandler.kCallError, Integer.class, "batch");
+    RemoteMethodCall<Integer> call3 = batch.add(RpcHandler.kMethod2, Integer.class, 7, 11, 0);
+    assertThat(batch.size(), is(3));
+    Assert.assertFalse(batch.isDone());
+    Assert.assertTrue(batch.call());
+    assertThat(connection.getClientOutput(), startsWith("[[2,"));
+    Assert.assertFalse(batch.call());
+    Assert.assertNull(batch.add(RpcHandler.kMethod2, Integer.class));
+    try {
+      batch.get(1, TimeUnit.SECONDS);
+      Assert.fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      Assert.assertSame(call2, ((RemoteMethodCallException) e.getCause()).getMethodCall());
+    }
+    Assert.assertTrue(batch.isDone());
+    assertThat(call1.getResult(), is(10));
+    assertThat(call2.getErrorDescription(), is("test error"));
+    assertThat(call3.getResult(), is(18));
+    assertThat(connection.client().getPendingCalls().size(), is(0));
+
+    // a batch that is cancelled before it is sent is done and is never sent
+    batch = new RemoteMethodBatch(connection.client());
+    RemoteMethodCall<Integer> cancelled = batch.add(RpcHandler.kMethod2, Integer.class, 1, 2, 3);
+    Assert.assertTrue(batch.cancel(false));
+    Assert.assertTrue(batch.isDone());
+    Assert.assertTrue(batch.isCancelled());
+    Assert.assertFalse(cancelled.isSuccessful());
+    try {
+      batch.get();
+      Assert.fail("expected CancellationException");
+    } catch (CancellationException e) {
+    } catch (ExecutionException e) {
+      Assert.fail(e.toString());
+    }
+    Assert.assertFalse(batch.call());
+
+    // calls that are cancelled before the batch is sent are not sent
+    batch = new RemoteMethodBatch(connection.client());
+    cancelled = batch.add(RpcHandler.kMethod2, Integer.class, 1, 2, 3);
+    call1 = batch.add(RpcHandler.kMethod2, Integer.class, 4, 5, 6);
+    Assert.assertTrue(cancelled.cancel(false));
+    Assert.assertFalse(batch.call());
+    assertThat(connection.getClientOutput(), not(containsString("1,2,3")));
+    Assert.assertTrue(batch.waitUntilCompletion(1000));
+    assertThat(call1.getResult(), is(15));
+    assertThat(connection.client().getPendingCalls().size(), is(0));
+
+    // batches that mix calls with other messages
+    String batch_message =
+      "[" + jsonArray(2, "\"b1\"", uri(kUserAccount, RpcHandler.kMethod2), 1, 1, 0) + "," +
+      jsonArray(1, "\"rpc\"", "\"wamp://batch%40domain.zz@general.ai/rpc/\"") + "," +
+      jsonArray(2, "\"b2\"", "\"rpc:method2\"", 2, 2, 0) + "]";
+    Assert.assertTrue(connection.server().process(batch_message));
+    assertThat(connection.getServerOutput(), is("[3,\"b2\",4]"));
+    Assert.assertFalse(connection.server().process("[[2,\"b3\"],[9]]"));
+    connection.close();
+
+    // messages of a batch are processed in order: calls use the prefix defined before them
+    final List<String> output = Collections.synchronizedList(new ArrayList<String>());
+    WampConnection server = new WampConnection(new Uri("ws", kHostname, "/batch/server"),
+                                               kUserAccount,
+                                               kUserHome,
+                                               new OutputSender() {
+        @Override
+        public boolean sendBinary(ByteBuffer data) {
+          return false;
+        }
+
+        @Override
+        public boolean sendText(String text) {
+          output.add(text);
+          return true;
+        }
+      });
+    Assert.assertTrue(server.welcome());
+    output.clear();
+    batch_message =
+      "[" + jsonArray(1, "\"rpc\"", "\"wamp://batch%40domain.zz@general.ai/rpc/\"") + "," +
+      jsonArray(2, "\"o1\"", "\"rpc:method2\"", 1, 1, 0) + "," +
+      jsonArray(1, "\"rpc\"", "\"wamp://batch%40domain.zz@general.ai/none/\"") + "," +
+      jsonArray(2, "\"o2\"", "\"rpc:method2\"", 2, 2, 0) + "]";
+    Assert.assertTrue(server.process(batch_message));
+    assertThat(output.size(), is(2));
+    assertThat(output.get(0), is("[3,\"o1\",2]"));
+    assertThat(output.get(1), startsWith("[4,\"o2\","));
+
+    // consecutive calls of a batch are executed concurrently
+    final String kBarrierMethod = "/rpc/barrier";
+    Assert.assertTrue(directory.createPath(kRootHome + kBarrierMethod));
+    Assert.assertTrue(directory.addHandler(
+        kRootHome + kBarrierMethod, new BarrierHandler(kBarrierMethod, new CyclicBarrier(2))));
+    Assert.assertTrue(directory.link(kUserHome + "/rpc", kRootHome + kBarrierMethod));
+    output.clear();
+    batch_message =
+      "[" + jsonArray(2, "\"c1\"", uri(kUserAccount, kBarrierMethod)) + "," +
+      jsonArray(2, "\"c2\"", uri(kUserAccount, kBarrierMethod)) + "]";
+    Assert.assertTrue(server.process(batch_message));
+    assertThat(output.size(), is(2));
+    assertThat(output.get(0), endsWith(",true]"));
+    assertThat(output.get(1), endsWith(",true]"));
+    server.close();
   }
 
   /**
@@ -936,6 +1215,114 @@ public class WampConnectionTest {
     connection.close();
   }
 
+  /**
+   * Tests connections that use the Smile encoding.
+   */
+  @Test
+  public void smile() {
+    final String kRootHome = serverHomePath("smile-root");
+    final String kUserAccount = "smile@domain.zz";
+    final String kUserHome = serverHomePath(kUserAccount);
+    Directory directory = Directory.Instance;
+    Assert.assertTrue(directory.createPath(kRootHome + RpcHandler.kMethod2));
+    Assert.assertTrue(directory.addHandler(kRootHome + RpcHandler.kMethod2,
+                                           new RpcHandler(RpcHandler.kMethod2)));
+    Assert.assertTrue(directory.createPath(kUserHome + "/rpc"));
+    Assert.assertTrue(directory.link(kUserHome + "/rpc", kRootHome + RpcHandler.kMethod2));
+    String client_home = clientHomePath(kUserAccount);
+    String topic = "/smile/topic";
+    Assert.assertTrue(directory.createPath(client_home + topic));
+    GenericTestHandler topic_handler = new GenericTestHandler("topic");
+    Assert.assertTrue(directory.addHandler(client_home + topic, topic_handler));
+    TestConnection connection = new TestConnection(kUserAccount);
+    connection.server().setEncoding(WampEncoding.Smile);
+    connection.client().setEncoding(WampEncoding.Smile);
+    assertThat(connection.server().getEncoding(), is(WampEncoding.Smile));
+
+    // welcome
+    connection.open();
+    Assert.assertTrue(connection.isServerOutputBinary());
+    assertThat(connection.getServerOutput(),
+               startsWith("[0,\"test-session-" + kUserAccount + "\",1,\"general.ai-Intercom/"));
+    Assert.assertTrue(connection.client().isReady());
+
+    // call
+    TestCallback callback = new TestCallback();
+    Assert.assertTrue(connection.client().call(RpcHandler.kMethod2, callback, 2, 3, 5));
+    Assert.assertTrue(connection.isClientOutputBinary());
+    Assert.assertTrue(connection.isServerOutputBinary());
+    assertThat(connection.getServerOutput(), endsWith(",10]"));
+    assertThat(callback.getCallbackType(), is(TestCallback.CallbackType.kSuccess));
+    assertThat((int) callback.getResult(), is(10));
+
+    // event, including relayed data that must not use the cached JSON message
+    TestBean bean = new TestBean(7, 2.5, "smile");
+    Assert.assertTrue(connection.server().event(topic, bean));
+    Assert.assertTrue(connection.isServerOutputBinary());
+    assertThat((TestBean) topic_handler.getArgumentAs(0, bean), is(bean));
+    Assert.assertTrue(connection.server().event(topic, JsonArgument.of(new TestBean(8, 1.5, "b"))));
+    Assert.assertTrue(connection.isServerOutputBinary());
+    assertThat(((TestBean) topic_handler.getArgumentAs(0, bean)).getNumber(), is(8));
+
+    // JSON text messages are accepted by Smile connections
+    Assert.assertTrue(connection.server().process(
+        jsonArray(2, "\"smile_id\"", uri(kUserAccount, RpcHandler.kMethod2), 1, 2, 3)));
+    assertThat(connection.getServerOutput(), is("[3,\"smile_id\",6]"));
+    Assert.assertFalse(connection.server().process(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+
+    connection.close();
+  }
+
+  /**
+   * Tests that publish and event messages are passed to a TopicOutputSender along with their
+   * topic and overflow policy in both encodings.
+   */
+  @Test
+  public void overflowPolicy() {
+    final String kUserAccount = "overflow@domain.zz";
+    for (WampEncoding encoding : WampEncoding.values()) {
+      OutboundQueueTest.TestQueue queue = new OutboundQueueTest.TestQueue(2);
+      WampConnection server = new WampConnection(new Uri("ws", kHostname, "/overflow"),
+                                                 kUserAccount,
+                                                 serverHomePath(kUserAccount),
+                                                 queue,
+                                                 encoding);
+      server.setOverflowPolicy("/velocity", OverflowPolicy.DropOldest);
+      server.setOverflowPolicy("/robot/velocity", OverflowPolicy.ConflateLatest);
+      server.setOverflowPolicy("/ping", OverflowPolicy.DropOldest);
+      Assert.assertTrue(server.welcome());
+      assertThat(queue.getTransmitted().size(), is(1));
+
+      // velocity updates are conflated while the welcome message is in flight, since the
+      // longest matching path applies
+      Assert.assertTrue(server.event("/robot/velocity", new TestBean(1, 0.5, "v1")));
+      Assert.assertTrue(server.event("/robot/velocity", new TestBean(2, 1.5, "v2")));
+      Assert.assertTrue(server.event("/robot/velocity",
+                                     JsonArgument.of(new TestBean(3, 2.5, "v3"))));
+      assertThat(queue.getConflatedCount(), is(2L));
+      assertThat(queue.getQueueDepth(), is(1));
+      queue.complete();
+      queue.complete();
+      assertThat(queue.getTransmitted().size(), is(2));
+      Object velocity = queue.getTransmitted().get(1);
+      if (encoding == WampEncoding.Smile) {
+        Assert.assertTrue(velocity instanceof ByteBuffer);
+      } else {
+        assertThat((String) velocity, containsString("\"v3\""));
+      }
+
+      // pings are dropped when the queue is full, other topics are never dropped
+      Assert.assertTrue(server.event("/robot/status", new TestBean(4, 0, "s1")));
+      Assert.assertTrue(server.event("/robot/status", new TestBean(5, 0, "s2")));
+      Assert.assertTrue(server.event("/robot/ping", new TestBean(6, 0, "ping")));
+      Assert.assertTrue(server.event("/robot/status", new TestBean(7, 0, "s3")));
+      assertThat(queue.getDroppedCount(), is(1L));
+      assertThat(queue.getQueueDepth(), is(2));
+      assertThat(queue.getConflatedCount(), is(2L));
+      server.close();
+    }
+  }
+
   /**
    * Tets invalid JSON input.
    */
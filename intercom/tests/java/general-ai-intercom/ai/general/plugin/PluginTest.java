@@ -11,6 +11,16 @@ import ai.general.directory.Result;
 import ai.general.directory.test.TestUtilities;
 import ai.general.net.wamp.WampConnectionTest;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
 import org.junit.Assert;
 import org.junit.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -112,4 +122,86 @@ public class PluginTest {
     Assert.assertFalse(plugin.isEnabled());
     Assert.assertFalse(plugin_manager.isPluginLoaded(kPluginName));
   }
+
+  /**
+   * Tests loading plugins from a directory of plugin jars.
+   *
+   * The directory contains 20 copies of the test plugin jar, which are loaded in parallel. Since
+   * all jars declare the same plugin, exactly one plugin is loaded. A copy of the jar without
+   * service index is loaded by scanning the classes of the jar.
+   */
+  @Test
+  public void loadAll() {
+    final int kNumJars = 20;
+    final String kPluginName = "TestPlugin";
+    File directory = null;
+    try {
+      directory = Files.createTempDirectory("plugin_test").toFile();
+      File test_plugin = new File(kTestPluginPath);
+      for (int i = 0; i < kNumJars; i++) {
+        Files.copy(test_plugin.toPath(), new File(directory, "plugin-" + i + ".jar").toPath());
+      }
+      File unindexed_plugin = new File(directory, "unindexed.jar.tmp");
+      copyWithoutIndex(test_plugin, unindexed_plugin);
+
+      PluginManager plugin_manager = PluginManager.Instance;
+      Assert.assertFalse(plugin_manager.isPluginLoaded(kPluginName));
+      assertThat(plugin_manager.loadAll(directory.getPath()), is(1));
+      assertThat(plugin_manager.getPluginCount(), is(1));
+      Assert.assertTrue(plugin_manager.isPluginLoaded(kPluginName));
+      plugin_manager.unloadAll();
+      assertThat(plugin_manager.getPluginCount(), is(0));
+
+      assertThat(plugin_manager.load(unindexed_plugin.getPath()), is(1));
+      Assert.assertTrue(plugin_manager.isPluginLoaded(kPluginName));
+      plugin_manager.unloadAll();
+
+      assertThat(plugin_manager.loadAll(new File(directory, "missing").getPath()), is(0));
+    } catch (IOException e) {
+      Assert.fail(e.toString());
+    } finally {
+      if (directory != null) {
+        for (File file : directory.listFiles()) {
+          file.delete();
+        }
+        directory.delete();
+      }
+    }
+  }
+
+  /**
+   * Copies a jar file without its plugin service index.
+   *
+   * @param source The jar to copy.
+   * @param destination The file to which to write the copy.
+   * @throws IOException if the jar cannot be copied.
+   */
+  private static void copyWithoutIndex(File source, File destination) throws IOException {
+    JarFile jar = new JarFile(source);
+    JarOutputStream output = new JarOutputStream(new FileOutputStream(destination));
+    try {
+      byte[] buffer = new byte[4096];
+      Enumeration<JarEntry> entries = jar.entries();
+      while (entries.hasMoreElements()) {
+        JarEntry entry = entries.nextElement();
+        if (entry.getName().equals(PluginManager.kServiceIndex)) {
+          continue;
+        }
+        output.putNextEntry(new JarEntry(entry.getName()));
+        InputStream input = jar.getInputStream(entry);
+        try {
+          int length;
+          while ((length = input.read(buffer)) > 0) {
+            output.write(buffer, 0, length);
+          }
+        } finally {
+          input.close();
+        }
+        output.closeEntry();
+      }
+    } finally {
+      output.close();
+      jar.close();
+    }
+  }
 }
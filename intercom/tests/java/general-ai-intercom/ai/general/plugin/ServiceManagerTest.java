@@ -13,6 +13,11 @@ import ai.general.directory.test.TestUtilities;
 import ai.general.plugin.annotation.RpcMethod;
 import ai.general.plugin.annotation.Subscribe;
 
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -67,6 +72,38 @@ public class ServiceManagerTest {
     private TestBean bean_;
   }
 
+  /**
+   * Test service that declares RPC methods with generic and primitive parameters.
+   */
+  public static class TypedService {
+
+    /**
+     * Test RPC method that adds the numbers of the specified beans.
+     *
+     * @param beans The beans to add.
+     * @return The sum of the bean numbers.
+     */
+    @RpcMethod("methods/sum")
+    public int sum(List<TestBean> beans) {
+      int sum = 0;
+      for (TestBean bean : beans) {
+        sum += bean.getNumber();
+      }
+      return sum;
+    }
+
+    /**
+     * Test static RPC method that negates a number.
+     *
+     * @param value The number to negate.
+     * @return The negated number.
+     */
+    @RpcMethod("methods/negate")
+    public static long negate(long value) {
+      return -value;
+    }
+  }
+
   /**
    * Tests the subscribe annotation.
    */
@@ -152,4 +189,104 @@ public class ServiceManagerTest {
       Assert.fail(e.toString());
     }
   }
+
+  /**
+   * Tests that services can be added and removed concurrently and that exactly one of several
+   * concurrent additions of the same service name succeeds.
+   */
+  @Test
+  public void concurrentAddService() throws InterruptedException {
+    final int kNumThreads = 8;
+    final int kNumRounds = 1000;
+    final String kHomePath = "/service_manager/concurrent/";
+    final ServiceManager service_manager = ServiceManager.Instance;
+    final CyclicBarrier barrier = new CyclicBarrier(kNumThreads);
+    final AtomicInteger num_added = new AtomicInteger();
+    Thread[] threads = new Thread[kNumThreads];
+    for (int t = 0; t < kNumThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int round = 0; round < kNumRounds; round++) {
+              try {
+                barrier.await();
+              } catch (BrokenBarrierException e) {
+                return;
+              } catch (InterruptedException e) {
+                return;
+              }
+              try {
+                service_manager.addService("shared_" + round, new Object(), kHomePath);
+                num_added.incrementAndGet();
+              } catch (IllegalArgumentException e) {
+                // Another thread has added the service.
+              }
+              service_manager.addService("shared_" + round + "_" + id, new Object(), kHomePath);
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(num_added.get(), is(kNumRounds));
+    for (int round = 0; round < kNumRounds; round++) {
+      Assert.assertTrue(service_manager.hasService("shared_" + round));
+      service_manager.removeService("shared_" + round);
+      for (int t = 0; t < kNumThreads; t++) {
+        Assert.assertTrue(service_manager.hasService("shared_" + round + "_" + t));
+        service_manager.removeService("shared_" + round + "_" + t);
+      }
+    }
+    Assert.assertFalse(service_manager.hasService("shared_0"));
+  }
+
+  /**
+   * Tests that services are bound via the bindings generated by the ServiceBindingProcessor.
+   */
+  @Test
+  public void serviceBinding() {
+    try {
+      final String kServiceName = "test_binding_service";
+      final String kHomePath = "/service_manager/binding/";
+      TypedService service = new TypedService();
+      final String kSumHandlerName = kServiceName + ":Call:" +
+        TypedService.class.getDeclaredMethod("sum", List.class).toString();
+      final String kNegateHandlerName = kServiceName + ":Call:" +
+        TypedService.class.getDeclaredMethod("negate", long.class).toString();
+
+      ServiceManager service_manager = ServiceManager.Instance;
+      Assert.assertNotNull(service_manager.getServiceBinding(TestService.class));
+      Assert.assertNotNull(service_manager.getServiceBinding(TypedService.class));
+      Assert.assertNull(service_manager.getServiceBinding(ServiceManagerTest.class));
+      service_manager.addService(kServiceName, service, kHomePath);
+
+      Directory directory = Directory.Instance;
+      Assert.assertTrue(directory.hasHandler(kHomePath + "methods/sum", kSumHandlerName));
+      Assert.assertTrue(directory.hasHandler(kHomePath + "methods/negate", kNegateHandlerName));
+
+      TestBean[] beans = {
+        new TestBean(12, 0.5, "a"),
+        new TestBean(30, 1.5, "b")
+      };
+      Request request = TestUtilities.createRequest(
+          "wamp://test@general.ai/methods/sum?type=call", (Object) beans);
+      assertThat(directory.handle(kHomePath, request), is(1));
+      assertThat(request.getResult().numValues(), is(1));
+      assertThat((Integer) request.getResult().getValue(0), is(42));
+
+      request = TestUtilities.createRequest(
+          "wamp://test@general.ai/methods/negate?type=call", 17L);
+      assertThat(directory.handle(kHomePath, request), is(1));
+      assertThat(request.getResult().numValues(), is(1));
+      assertThat((Long) request.getResult().getValue(0), is(-17L));
+
+      service_manager.removeService(kServiceName);
+      Assert.assertFalse(directory.hasHandler(kHomePath + "methods/sum", kSumHandlerName));
+    } catch (NoSuchMethodException e) {
+      Assert.fail(e.toString());
+    }
+  }
 }
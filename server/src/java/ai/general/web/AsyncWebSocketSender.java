@@ -0,0 +1,98 @@
+/* WebCat
+ * Copyright (C) 2014 Tuna Oezer, General AI
+ * All rights reserved.
+ */
+
+package ai.general.web;
+
+import ai.general.net.OutboundQueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * OutputSender implementation that sends output asynchronously over a WebSocket connection.
+ *
+ * Messages are queued in a bounded {@link OutboundQueue} that is drained by the completion
+ * callbacks of the asynchronous remote endpoint of the session. The topic and overflow policy of
+ * publish and event messages are passed in by the WAMP connection for both the JSON and the
+ * Smile encoding.
+ *
+ * If a message cannot be sent, the WebSocket session is closed, which closes the WAMP connection.
+ *
+ * AsyncWebSocketSender is thread-safe.
+ */
+public class AsyncWebSocketSender extends OutboundQueue {
+
+  /**
+   * Creates an AsyncWebSocketSender with the default maximum queue size.
+   *
+   * @param session The WebSocket session.
+   */
+  public AsyncWebSocketSender(Session session) {
+    this(session, kDefaultMaxQueueSize);
+  }
+
+  /**
+   * @param session The WebSocket session.
+   * @param max_queue_size The maximum number of messages that may be queued.
+   */
+  public AsyncWebSocketSender(Session session, int max_queue_size) {
+    super(max_queue_size);
+    this.session_ = session;
+    send_handler_ = new SendHandler() {
+        @Override
+        public void onResult(SendResult result) {
+          transmitted(result.isOK() ? null : result.getException());
+        }
+      };
+  }
+
+  /**
+   * Closes the WebSocket session after a failed send.
+   *
+   * @param cause The cause of the failure.
+   */
+  @Override
+  protected void onFailure(Throwable cause) {
+    try {
+      session_.close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION,
+                                     "send failed"));
+    } catch (IOException e) {
+      log.catching(Level.DEBUG, e);
+    }
+  }
+
+  /**
+   * Sends a binary message via the asynchronous remote endpoint of the session.
+   *
+   * @param data The binary message.
+   */
+  @Override
+  protected void transmitBinary(ByteBuffer data) {
+    session_.getAsyncRemote().sendBinary(data, send_handler_);
+  }
+
+  /**
+   * Sends a text message via the asynchronous remote endpoint of the session.
+   *
+   * @param text The text message.
+   */
+  @Override
+  protected void transmitText(String text) {
+    session_.getAsyncRemote().sendText(text, send_handler_);
+  }
+
+  private static Logger log = LogManager.getLogger();
+
+  private SendHandler send_handler_;  // Completion callback of asynchronous sends.
+  private Session session_;  // WebSocket session.
+}
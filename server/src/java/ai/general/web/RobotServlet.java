@@ -5,6 +5,7 @@
 
 package ai.general.web;
 
+import java.nio.ByteBuffer;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -20,7 +21,7 @@ import org.apache.logging.log4j.LogManager;
  * Endpoint for robot service.
  */
 @ServerEndpoint(value="/robot/robot_service.wamp",
-                subprotocols="wamp")
+                subprotocols={"wamp", "wamp.smile"})
 public class RobotServlet extends WampServlet {
 
   public RobotServlet() {
@@ -70,6 +71,16 @@ public class RobotServlet extends WampServlet {
     process(message);
   }
 
+  /**
+   * Called when a binary message is received.
+   *
+   * @param message The incoming binary message.
+   */
+  @OnMessage
+  public synchronized void onMessage(ByteBuffer message) {
+    process(message);
+  }
+
   /**
    * Called when an error has occurred.
    *
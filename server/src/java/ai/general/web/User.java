@@ -7,11 +7,12 @@ package ai.general.web;
 
 import ai.general.directory.Directory;
 import ai.general.directory.Request;
-import ai.general.net.Uri;
+import ai.general.net.ImmutableUri;
+import ai.general.net.JsonArgument;
+import ai.general.net.JsonCodec;
 import ai.general.plugin.annotation.RpcMethod;
 import ai.general.plugin.annotation.Subscribe;
 
-import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -22,7 +23,6 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Base class for all user types.
@@ -33,6 +33,12 @@ public abstract class User implements UserView, UserEventListener {
   /** Maximum number of pings the client can miss until it is counted as stale. */
   private static final int kMaxMissedPings = 2;
 
+  /**
+   * Data of session pings. All session pings share the same data, which is serialized only once.
+   */
+  private static final JsonArgument kSessionPingData =
+    JsonArgument.of(new SessionPingParameters(2 * UserManager.kSessionPingIntervalMillis));
+
   /**
    * The User types. Each type corresponds to a subclass of User.
    */
@@ -59,15 +65,15 @@ public abstract class User implements UserView, UserEventListener {
   public User(String username) {
     this.username_ = username;
     this.user_home_path_ = UserUris.userHomePath(username);
-    this.session_ping_uri_ = UserUris.createEventUri(username, UserUris.kSessionPingTopic);
-    this.user_event_uri_ = UserUris.createEventUri(username, UserUris.kUserEventTopic);
+    this.session_ping_uri_ =
+      UserUris.createImmutableEventUri(username, UserUris.kSessionPingTopic);
+    this.user_event_uri_ = UserUris.createImmutableEventUri(username, UserUris.kUserEventTopic);
     this.status_ = Status.Offline;
     this.sessions_ = new ArrayList<Session>();
     this.num_wamp_connections_ = 0;
     this.friends_ = null;
     this.followers_ = new ArrayList<UserEventListener>();
     this.p2p_topic_ = null;
-    this.json_generator_ = new ObjectMapper();
     this.pending_invitations_ = new InvitationList();
     this.properties_ = new HashMap<String, Object>();
   }
@@ -208,7 +214,7 @@ public abstract class User implements UserView, UserEventListener {
   @Override
   public String toJson() {
     try {
-      return json_generator_.writeValueAsString(new UserInfo(this));
+      return JsonCodec.Instance.getWriter(UserInfo.class).writeValueAsString(new UserInfo(this));
     } catch (JsonProcessingException e) {
       return "{}";
     }
@@ -230,7 +236,7 @@ public abstract class User implements UserView, UserEventListener {
       friends_description.put(friend.getUsername(), new UserInfo(friend));
     }
     try {
-      return json_generator_.writeValueAsString(friends_description);
+      return JsonCodec.Instance.getMapper().writeValueAsString(friends_description);
     } catch (JsonProcessingException e) {
       return "{}";
     }
@@ -604,9 +610,7 @@ public abstract class User implements UserView, UserEventListener {
     if (sessions_.size() == 0) return;
     Directory.Instance.handle(
         user_home_path_,
-        new Request(new Uri(session_ping_uri_),
-                    Request.RequestType.Publish,
-                    new SessionPingParameters(2 * UserManager.kSessionPingIntervalMillis)));
+        new Request(session_ping_uri_, Request.RequestType.Publish, kSessionPingData));
   }
 
   /**
@@ -632,7 +636,7 @@ public abstract class User implements UserView, UserEventListener {
   @Override
   public void userEvent(UserEvent event) {
     Directory.Instance.handle(user_home_path_,
-                              new Request(new Uri(user_event_uri_),
+                              new Request(user_event_uri_,
                                           Request.RequestType.Publish, event));
   }
 
@@ -850,15 +854,14 @@ public abstract class User implements UserView, UserEventListener {
 
   private String username_;
   private String user_home_path_;
-  private URI session_ping_uri_;
-  private URI user_event_uri_;
+  private ImmutableUri session_ping_uri_;
+  private ImmutableUri user_event_uri_;
   private Status status_;
   private List<Session> sessions_;  // All active sessions of this user.
   private int num_wamp_connections_;
   private List<UserView> friends_;
   private List<UserEventListener> followers_;
   private String p2p_topic_;
-  private ObjectMapper json_generator_;
   private InvitationList pending_invitations_;
   private HashMap<String, Object> properties_;
 }
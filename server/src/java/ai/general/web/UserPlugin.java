@@ -7,6 +7,7 @@ package ai.general.web;
 
 import ai.general.directory.Directory;
 import ai.general.net.Connection;
+import ai.general.net.JsonCodec;
 import ai.general.plugin.Plugin;
 
 /**
@@ -22,6 +23,7 @@ public class UserPlugin extends Plugin {
           kVersion,
           "Provides user service.",
           "General AI");
+    JsonCodec.Instance.warmUp(UserEvent.class, UserInfo.class, SessionPingParameters.class);
   }
 
   /**
@@ -5,6 +5,7 @@
 
 package ai.general.web;
 
+import java.nio.ByteBuffer;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
@@ -20,7 +21,7 @@ import org.apache.logging.log4j.LogManager;
  * Endpoint for user service.
  */
 @ServerEndpoint(value="/user/user_service.wamp",
-                subprotocols="wamp")
+                subprotocols={"wamp", "wamp.smile"})
 public class UserServlet extends WampServlet {
 
   /**
@@ -62,6 +63,16 @@ public class UserServlet extends WampServlet {
     process(message);
   }
 
+  /**
+   * Called when a binary message is received.
+   *
+   * @param message The incoming binary message.
+   */
+  @OnMessage
+  public synchronized void onMessage(ByteBuffer message) {
+    process(message);
+  }
+
   /**
    * Called when an error has occurred.
    *
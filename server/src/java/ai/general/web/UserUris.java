@@ -7,6 +7,8 @@ package ai.general.web;
 
 import ai.general.common.RandomString;
 import ai.general.directory.Directory;
+import ai.general.directory.PathTemplate;
+import ai.general.net.ImmutableUri;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -63,6 +65,25 @@ public class UserUris {
   /** Request execution of administrative code (server to robot only). */
   public static final String kAdminExecutePackageTopic = "/admin/execute";
 
+  // Event paths created in the home of every user.
+  private static final PathTemplate kHumanEventPaths = new PathTemplate(
+      kSessionPingTopic,
+      kSessionPongTopic,
+      kUserEventTopic,
+      kWebRtcEventBasePath);
+
+  // Event paths created in the home of every robot.
+  private static final PathTemplate kRobotEventPaths = new PathTemplate(
+      kHumanEventPaths,
+      kRobotControlPingTopic,
+      kRobotControlPongTopic,
+      kRobotBaseVelocityTopic,
+      kRobotVideoTopic,
+      kRobotVideoPanTiltTopic,
+      kRobotSystemInfoRequestTopic,
+      kRobotSystemInfoResponseTopic,
+      kAdminExecutePackageTopic);
+
   /**
    * Returns the home path for the specified username.
    *
@@ -90,22 +111,9 @@ public class UserUris {
    * @param user The user for whom to create the event paths.
    */
   public static void createEventPathsForUser(UserView user) {
-    String username = user.getUsername();
-    Directory directory = Directory.Instance;
-    directory.createPath(fullEventPath(username, kSessionPingTopic));
-    directory.createPath(fullEventPath(username, kSessionPongTopic));
-    directory.createPath(fullEventPath(username, kUserEventTopic));
-    directory.createPath(fullEventPath(username, kWebRtcEventBasePath));
-    if (user.getUserType() == User.UserType.Robot) {
-      directory.createPath(fullEventPath(username, kRobotControlPingTopic));
-      directory.createPath(fullEventPath(username, kRobotControlPongTopic));
-      directory.createPath(fullEventPath(username, kRobotBaseVelocityTopic));
-      directory.createPath(fullEventPath(username, kRobotVideoTopic));
-      directory.createPath(fullEventPath(username, kRobotVideoPanTiltTopic));
-      directory.createPath(fullEventPath(username, kRobotSystemInfoRequestTopic));
-      directory.createPath(fullEventPath(username, kRobotSystemInfoResponseTopic));
-      directory.createPath(fullEventPath(username, kAdminExecutePackageTopic));
-    }
+    PathTemplate template =
+      user.getUserType() == User.UserType.Robot ? kRobotEventPaths : kHumanEventPaths;
+    Directory.Instance.createPaths(userHomePath(user.getUsername()), template);
   }
 
   /**
@@ -124,6 +132,18 @@ public class UserUris {
     }
   }
 
+  /**
+   * Returns the event topic URI for the specified username and topic as an {@link ImmutableUri}.
+   * The returned URI can be used in any number of requests without being copied.
+   *
+   * @param username Username of user.
+   * @param topic The event topic for which to create the URI.
+   * @return User event topic URI of user.
+   */
+  public static ImmutableUri createImmutableEventUri(String username, String topic) {
+    return new ImmutableUri(createEventUri(username, topic));
+  }
+
   /**
    * Creates and returns a random WebRTC P2P topic. The topic can be used to send control
    * messages in a new WebRTC call.
@@ -5,9 +5,12 @@
 
 package ai.general.web;
 
+import ai.general.net.OverflowPolicy;
 import ai.general.net.Uri;
 import ai.general.net.wamp.WampConnection;
+import ai.general.net.wamp.WampEncoding;
 
+import java.nio.ByteBuffer;
 import javax.websocket.Session;
 
 import org.apache.logging.log4j.Logger;
@@ -20,11 +23,15 @@ import org.apache.logging.log4j.LogManager;
  * Subclasses must implement annotated onOpen, onClose and onMessage methods and call the
  * corresponding methods in this class.
  * In addition subclasses must define a ServerEndpoint annotation with subprotocol "wamp".
+ * Subclasses that also declare the "wamp.smile" subprotocol must implement an annotated onMessage
+ * method for binary messages. The WAMP connection uses the encoding selected by the negotiated
+ * subprotocol.
  */
 public abstract class WampServlet {
 
   public WampServlet() {
     wamp_ = null;
+    sender_ = null;
     username_ = "[null]";
   }
 
@@ -37,6 +44,16 @@ public abstract class WampServlet {
     return wamp_;
   }
 
+  /**
+   * Returns the output sender of the WAMP connection.
+   * The output sender provides the outbound queue depth and the number of dropped messages.
+   *
+   * @return The output sender or null if the connection has not been opened.
+   */
+  protected AsyncWebSocketSender getSender() {
+    return sender_;
+  }
+
   /**
    * Opens the WAMP connection and completes the opening handshake.
    * user_account may be null for anonymous access.
@@ -44,6 +61,11 @@ public abstract class WampServlet {
    *
    * If the session ID is null a new random session ID is generated for the WAMP connection.
    *
+   * Output is sent asynchronously via an {@link AsyncWebSocketSender}, so that a slow remote
+   * endpoint does not block threads that publish to it. Velocity commands are conflated and ping
+   * messages may be dropped if the outbound queue is full. All other messages are never dropped.
+   * If a message cannot be sent, the session is closed.
+   *
    * @param session The WebSocket session.
    * @param session_id The session ID to use for the WAMP connection or null.
    * @param user_account The user account associated with this connection or null.
@@ -53,12 +75,18 @@ public abstract class WampServlet {
     if (user_account != null) {
       this.username_ = user_account;
     }
-    WebSocketSender sender = new WebSocketSender(session.getBasicRemote());
+    AsyncWebSocketSender sender = new AsyncWebSocketSender(session);
     sender.setUserInfo(user_account, session_id);
+    sender_ = sender;
     wamp_ = new WampConnection(new Uri(session.getRequestURI()),
                                user_account,
                                home_path,
-                               sender);
+                               sender,
+                               WampEncoding.fromSubprotocol(session.getNegotiatedSubprotocol()));
+    wamp_.setOverflowPolicy(UserUris.kRobotBaseVelocityTopic, OverflowPolicy.ConflateLatest);
+    wamp_.setOverflowPolicy(UserUris.kRobotControlPingTopic, OverflowPolicy.DropOldest);
+    wamp_.setOverflowPolicy(UserUris.kRobotControlPongTopic, OverflowPolicy.DropOldest);
+    wamp_.setOverflowPolicy(UserUris.kSessionPingTopic, OverflowPolicy.DropOldest);
     if (session_id == null) {
       wamp_.welcome();
       // update session ID
@@ -73,6 +101,9 @@ public abstract class WampServlet {
    */
   protected void close() {
     if (wamp_ == null) return;
+    log.debug("({}/{}) closed, queued = {}, dropped = {}, conflated = {}",
+              username_, wamp_.getSessionId(), sender_.getQueueDepth(),
+              sender_.getDroppedCount(), sender_.getConflatedCount());
     wamp_.close();
     wamp_ = null;
   }
@@ -89,7 +120,21 @@ public abstract class WampServlet {
     wamp_.process(message);
   }
 
+  /**
+   * Processes an incoming binary message.
+   * This method must be called from the binary onMessage method to process WAMP requests encoded
+   * as Smile.
+   *
+   * @param message Incoming binary message.
+   */
+  protected void process(ByteBuffer message) {
+    if (wamp_ == null) return;
+    log.debug("({}/{}) >> (binary {} bytes)", username_, wamp_.getSessionId(), message.remaining());
+    wamp_.process(message);
+  }
+
   private static Logger log = LogManager.getLogger();
+  private AsyncWebSocketSender sender_;
   private WampConnection wamp_;
   private String username_;
 }